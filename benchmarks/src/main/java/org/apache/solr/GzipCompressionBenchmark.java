@@ -0,0 +1,91 @@
+package org.apache.solr;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the gzip levels of GzipCompressingInputStream on a batch of JSON records, which is
+ * the cost JSONUpdateRequest.setCompressed() adds to every request before it is sent.
+ *
+ * The records come from a JSONWorkloadGenerator with a fixed seed. The "bytes" counter is the
+ * number of uncompressed bytes compressed per second, and after every iteration the compression
+ * ratio and rate recorded by CompressionStats are printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipCompressionBenchmark {
+
+    static final long SEED = 42;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private byte[] jsonBatch;
+
+    private CompressionStats stats;
+
+    /**
+     * Counts uncompressed bytes so JMH reports them as a rate next to the batches.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        jsonBatch = new JSONWorkloadGenerator(SEED).nextBatch(batchSize).getJson();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStats() {
+        stats = new CompressionStats();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportStats() {
+        System.out.println(String.format("%ngzip level %d: %s", level, stats));
+    }
+
+    @Benchmark
+    public Object compress(Bytes bytes) throws IOException {
+        try (InputStream in = new GzipCompressingInputStream(new ByteArrayInputStream(jsonBatch), level, stats)) {
+            final byte[] compressed = IOUtils.toByteArray(in);
+            bytes.bytes += jsonBatch.length;
+            return compressed;
+        }
+    }
+
+}
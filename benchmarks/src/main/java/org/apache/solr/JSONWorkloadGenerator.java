@@ -0,0 +1,211 @@
+package org.apache.solr;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates JSON records shaped like the example JSON of the tests, a student with top-level
+ * scalars and an array of exams which is split into one Solr document per exam.
+ *
+ * The number of extra top-level attributes, the number of exams per record (the fan-out of the
+ * split), the number of objects the exams are nested under, and the number of distinct values
+ * of every field can all be set. The same seed and settings always produce the same records.
+ *
+ * This class is not thread-safe.
+ */
+public class JSONWorkloadGenerator {
+
+    public static final int DEFAULT_CARDINALITY = 1000;
+
+    static final String[] SUBJECTS = {"Maths", "Biology", "Physics", "Chemistry", "History", "English", "Art", "Music"};
+
+    private final Random random;
+
+    private int numAttributes = 0;
+
+    private int nestingDepth = 1;
+
+    private int minExams = 2;
+
+    private int maxExams = 2;
+
+    private int cardinality = DEFAULT_CARDINALITY;
+
+    /**
+     * @param seed
+     *              the seed of the random values, the same seed always produces the same records
+     */
+    public JSONWorkloadGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param numAttributes
+     *              the number of top-level string attributes in addition to first, last, and grade
+     */
+    public void setNumAttributes(int numAttributes) {
+        this.numAttributes = numAttributes;
+    }
+
+    /**
+     * @param nestingDepth
+     *              the depth of the exams array, 1 for a top-level array like the example JSON
+     */
+    public void setNestingDepth(int nestingDepth) {
+        if (nestingDepth < 1) {
+            throw new IllegalArgumentException("nestingDepth must be at least 1");
+        }
+        this.nestingDepth = nestingDepth;
+    }
+
+    /**
+     * @param minExams
+     *              the fewest exams, and so Solr documents, in a record
+     * @param maxExams
+     *              the most exams in a record
+     */
+    public void setExamsPerRecord(int minExams, int maxExams) {
+        if (minExams < 1 || maxExams < minExams) {
+            throw new IllegalArgumentException("Invalid range of exams: " + minExams + " to " + maxExams);
+        }
+        this.minExams = minExams;
+        this.maxExams = maxExams;
+    }
+
+    /**
+     * @param cardinality
+     *              the number of distinct values of each string field
+     */
+    public void setCardinality(int cardinality) {
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @return the path of the exams array, e.g. "/exams" or "/level1/exams"
+     */
+    public String getSplit() {
+        final StringBuilder split = new StringBuilder();
+        for (int i = 1; i < nestingDepth; i++) {
+            split.append("/level").append(i);
+        }
+        return split.append("/exams").toString();
+    }
+
+    /**
+     * @return a "field:path" mapping for every field of the generated records
+     */
+    public List<String> getFieldMappings() {
+        final String split = getSplit();
+        final List<String> fieldMappings = new ArrayList<>();
+        fieldMappings.add("first:/first");
+        fieldMappings.add("last:/last");
+        fieldMappings.add("grade:/grade");
+        fieldMappings.add("subject:" + split + "/subject");
+        fieldMappings.add("test:" + split + "/test");
+        fieldMappings.add("marks:" + split + "/marks");
+        for (int i = 0; i < numAttributes; i++) {
+            fieldMappings.add("attr" + i + "_s:/attr" + i);
+        }
+        return fieldMappings;
+    }
+
+    /**
+     * @return the next record as a JSON object
+     */
+    public String nextRecord() {
+        final StringBuilder record = new StringBuilder();
+        appendRecord(record);
+        return record.toString();
+    }
+
+    /**
+     * @param numRecords
+     * @return the next records as a JSON array
+     */
+    public Batch nextBatch(int numRecords) {
+        final StringBuilder json = new StringBuilder("[");
+        int numDocs = 0;
+        for (int i = 0; i < numRecords; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            numDocs += appendRecord(json);
+        }
+        json.append("]");
+
+        try {
+            return new Batch(json.toString().getBytes("UTF-8"), numRecords, numDocs);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of exams in the record
+     */
+    private int appendRecord(StringBuilder record) {
+        record.append("{\"first\":\"First").append(random.nextInt(cardinality))
+                .append("\",\"last\":\"Last").append(random.nextInt(cardinality))
+                .append("\",\"grade\":").append(1 + random.nextInt(12));
+        for (int i = 0; i < numAttributes; i++) {
+            record.append(",\"attr").append(i).append("\":\"value").append(random.nextInt(cardinality)).append('"');
+        }
+
+        for (int i = 1; i < nestingDepth; i++) {
+            record.append(",\"level").append(i).append("\":{\"name\":\"level").append(i).append('"');
+        }
+
+        final int numExams = minExams + random.nextInt(maxExams - minExams + 1);
+        record.append(",\"exams\":[");
+        for (int i = 0; i < numExams; i++) {
+            record.append(i > 0 ? "," : "")
+                    .append("{\"subject\":\"").append(SUBJECTS[random.nextInt(SUBJECTS.length)])
+                    .append("\",\"test\":\"term").append(1 + random.nextInt(4))
+                    .append("\",\"marks\":").append(random.nextInt(101))
+                    .append('}');
+        }
+        record.append(']');
+
+        for (int i = 1; i < nestingDepth; i++) {
+            record.append('}');
+        }
+        record.append('}');
+        return numExams;
+    }
+
+    /**
+     * A JSON array of records and the number of Solr documents it splits into.
+     */
+    public static class Batch {
+
+        private final byte[] json;
+
+        private final int numRecords;
+
+        private final int numDocs;
+
+        Batch(byte[] json, int numRecords, int numDocs) {
+            this.json = json;
+            this.numRecords = numRecords;
+            this.numDocs = numDocs;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public int getNumRecords() {
+            return numRecords;
+        }
+
+        /**
+         * @return the number of Solr documents when split on the exams
+         */
+        public int getNumDocs() {
+            return numDocs;
+        }
+    }
+
+}
@@ -0,0 +1,307 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives sustained load of generated JSON through JSONUpdateRequests into one of the test cores
+ * and reports throughput, latency percentiles, and heap and GC activity.
+ *
+ * Every thread generates its own records from the seed plus its thread number and sends one
+ * batch at a time for the warmup and then the measured duration. Only requests that complete
+ * during the measured duration are counted. For jsonCollection the generated field mappings are
+ * sent, for schemalessCollection only the split is sent and Solr creates the fields.
+ *
+ * Settings are given as key=value arguments, for example:
+ *
+ * java -cp target/benchmarks.jar org.apache.solr.LoadHarness core=schemalessCollection threads=4 batchSize=500
+ */
+public class LoadHarness {
+
+    static final String JSON_COLLECTION = "jsonCollection";
+
+    static final String SCHEMALESS_COLLECTION = "schemalessCollection";
+
+    private final String coreName;
+
+    private final int numThreads;
+
+    private final int batchSize;
+
+    private final long warmupMillis;
+
+    private final long durationMillis;
+
+    private final long seed;
+
+    private final Properties settings;
+
+    private final AtomicLong requests = new AtomicLong(0);
+
+    private final AtomicLong docs = new AtomicLong(0);
+
+    private final AtomicLong bytes = new AtomicLong(0);
+
+    private final AtomicLong failures = new AtomicLong(0);
+
+    private final List<Sender> senders = new ArrayList<>();
+
+    private volatile long peakHeapUsed = 0;
+
+    public LoadHarness(Properties settings) {
+        this.settings = settings;
+        this.coreName = settings.getProperty("core", JSON_COLLECTION);
+        this.numThreads = getInt(settings, "threads", 4);
+        this.batchSize = getInt(settings, "batchSize", 100);
+        this.warmupMillis = TimeUnit.SECONDS.toMillis(getInt(settings, "warmupSeconds", 10));
+        this.durationMillis = TimeUnit.SECONDS.toMillis(getInt(settings, "durationSeconds", 60));
+        this.seed = Long.parseLong(settings.getProperty("seed", "42"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Properties settings = new Properties();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected key=value but was " + arg);
+            }
+            settings.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new LoadHarness(settings).run();
+    }
+
+    public void run() throws Exception {
+        final String projectDir = settings.getProperty("projectDir", "..");
+        final File dataDir = new File(System.getProperty("java.io.tmpdir"), "load-harness");
+
+        // schemaless adds fields to the managed schema, so work on a copy of the core
+        final File coreHome = new File(dataDir, "cores");
+        FileUtils.deleteDirectory(coreHome);
+        FileUtils.copyDirectory(new File(new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_CORE_HOME), coreName),
+                new File(coreHome, coreName));
+
+        final SolrClient solrClient = EmbeddedSolrServerFactory.create(
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getPath(),
+                coreHome.getPath(), coreName, dataDir.getPath());
+
+        try {
+            System.out.println("Running " + numThreads + " threads of " + batchSize + " records into " + coreName
+                    + " for " + warmupMillis + "ms warmup and " + durationMillis + "ms measured");
+
+            final long start = System.currentTimeMillis();
+            final long measureStart = start + warmupMillis;
+            final long end = measureStart + durationMillis;
+
+            final CountDownLatch finished = new CountDownLatch(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                final Sender sender = new Sender(solrClient, createGenerator(i), measureStart, end, finished);
+                senders.add(sender);
+                final Thread thread = new Thread(sender, "load-harness-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            GcSnapshot gcBefore = null;
+            while (!finished.await(100, TimeUnit.MILLISECONDS)) {
+                if (gcBefore == null && System.currentTimeMillis() >= measureStart) {
+                    gcBefore = new GcSnapshot();
+                    peakHeapUsed = 0;
+                }
+                peakHeapUsed = Math.max(peakHeapUsed, memory.getHeapMemoryUsage().getUsed());
+            }
+            if (gcBefore == null) {
+                gcBefore = new GcSnapshot();
+            }
+            final GcSnapshot gcAfter = new GcSnapshot();
+
+            solrClient.commit();
+            final long numFound = solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+
+            report(gcBefore, gcAfter, memory, numFound);
+        } finally {
+            solrClient.close();
+        }
+    }
+
+    private JSONWorkloadGenerator createGenerator(int threadNumber) {
+        final JSONWorkloadGenerator generator = new JSONWorkloadGenerator(seed + threadNumber);
+        generator.setNumAttributes(getInt(settings, "attributes", 0));
+        generator.setNestingDepth(getInt(settings, "nestingDepth", 1));
+        generator.setExamsPerRecord(getInt(settings, "minExams", 1), getInt(settings, "maxExams", 4));
+        generator.setCardinality(getInt(settings, "cardinality", JSONWorkloadGenerator.DEFAULT_CARDINALITY));
+        return generator;
+    }
+
+    private JSONUpdateRequest createRequest(JSONWorkloadGenerator generator, JSONWorkloadGenerator.Batch batch) {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit(generator.getSplit());
+        if (!SCHEMALESS_COLLECTION.equals(coreName)) {
+            for (String fieldMapping : generator.getFieldMappings()) {
+                final int separator = fieldMapping.indexOf(':');
+                request.addFieldMapping(fieldMapping.substring(0, separator), fieldMapping.substring(separator + 1));
+            }
+        }
+        request.addBytes(batch.getJson());
+        return request;
+    }
+
+    private void report(GcSnapshot gcBefore, GcSnapshot gcAfter, MemoryMXBean memory, long numFound) {
+        int count = 0;
+        for (Sender sender : senders) {
+            count += sender.numLatencies;
+        }
+        final long[] all = new long[count];
+        int position = 0;
+        for (Sender sender : senders) {
+            System.arraycopy(sender.latencies, 0, all, position, sender.numLatencies);
+            position += sender.numLatencies;
+        }
+        Arrays.sort(all);
+
+        final double seconds = durationMillis / 1000.0;
+        System.out.println();
+        System.out.println(String.format("requests:   %d (%.1f/s), failed: %d", requests.get(), requests.get() / seconds,
+                failures.get()));
+        System.out.println(String.format("docs:       %d (%.1f/s)", docs.get(), docs.get() / seconds));
+        System.out.println(String.format("throughput: %.2f MB/s", bytes.get() / (1024.0 * 1024.0) / seconds));
+        System.out.println(String.format("latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f",
+                percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999), percentile(all, 1.0)));
+        System.out.println(String.format("heap MB:    peak used=%d, committed=%d, max=%d",
+                peakHeapUsed >> 20, memory.getHeapMemoryUsage().getCommitted() >> 20,
+                memory.getHeapMemoryUsage().getMax() >> 20));
+        for (int i = 0; i < gcAfter.names.length; i++) {
+            System.out.println(String.format("gc:         %s count=%d time=%dms", gcAfter.names[i],
+                    gcAfter.counts[i] - gcBefore.counts[i], gcAfter.times[i] - gcBefore.times[i]));
+        }
+        System.out.println("documents in index including warmup: " + numFound);
+    }
+
+    /**
+     * @return the latency in milliseconds at the given quantile of the sorted nanosecond latencies
+     */
+    static double percentile(long[] sortedNanos, double quantile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1e6;
+    }
+
+    private static int getInt(Properties settings, String key, int defaultValue) {
+        final String value = settings.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Sends batches from one generator until the end time.
+     */
+    private class Sender implements Runnable {
+
+        private final SolrClient solrClient;
+
+        private final JSONWorkloadGenerator generator;
+
+        private final long measureStart;
+
+        private final long end;
+
+        private final CountDownLatch finished;
+
+        /**
+         * The latencies of successful measured requests in nanoseconds, read after finished.
+         */
+        private long[] latencies = new long[1024];
+
+        private int numLatencies = 0;
+
+        Sender(SolrClient solrClient, JSONWorkloadGenerator generator,
+               long measureStart, long end, CountDownLatch finished) {
+            this.solrClient = solrClient;
+            this.generator = generator;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long now;
+                while ((now = System.currentTimeMillis()) < end) {
+                    final JSONWorkloadGenerator.Batch batch = generator.nextBatch(batchSize);
+                    final JSONUpdateRequest request = createRequest(generator, batch);
+
+                    final long startNanos = System.nanoTime();
+                    boolean failed = false;
+                    try {
+                        request.process(solrClient);
+                    } catch (SolrServerException | IOException | RuntimeException e) {
+                        failed = true;
+                    }
+                    final long elapsedNanos = System.nanoTime() - startNanos;
+
+                    if (now >= measureStart && System.currentTimeMillis() < end) {
+                        if (failed) {
+                            failures.incrementAndGet();
+                        } else {
+                            record(elapsedNanos);
+                            requests.incrementAndGet();
+                            docs.addAndGet(batch.getNumDocs());
+                            bytes.addAndGet(batch.getJson().length);
+                        }
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private void record(long elapsedNanos) {
+            if (numLatencies == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[numLatencies++] = elapsedNanos;
+        }
+    }
+
+    /**
+     * The collection counts and times of every garbage collector at one moment.
+     */
+    private static class GcSnapshot {
+
+        final String[] names;
+
+        final long[] counts;
+
+        final long[] times;
+
+        GcSnapshot() {
+            final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            names = new String[collectors.size()];
+            counts = new long[collectors.size()];
+            times = new long[collectors.size()];
+            for (int i = 0; i < collectors.size(); i++) {
+                names[i] = collectors.get(i).getName();
+                counts[i] = collectors.get(i).getCollectionCount();
+                times[i] = collectors.get(i).getCollectionTime();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares indexing the same JSON records flattened, with the parent fields copied into a Solr
+ * document per exam, against indexing them as block join parents with a child document per exam.
+ *
+ * The modes are "flattened" through the /update/json/docs handler, "flattenedClientSide" mapped
+ * by the client and sent as javabin, and "blockJoin", which is also mapped by the client since
+ * Solr's JSON handler can't produce child documents. The block join mode indexes into the
+ * nestedCollection core, which adds the id and _root_ fields that block join needs.
+ *
+ * The "records" counter is the number of JSON records indexed per second. After every iteration
+ * the index is committed and its size on disk is printed with the bytes per record, which is
+ * where copying many parent attributes into every exam costs the flattened modes.
+ *
+ * Solr home and the test cores are read from the main project, set -Dproject.dir when not
+ * running from the benchmarks directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NestedModeBenchmark {
+
+    static final String FLATTENED_CORE = "jsonCollection";
+
+    static final String NESTED_CORE = "nestedCollection";
+
+    static final int BATCH_SIZE = 100;
+
+    static final long SEED = 42;
+
+    @Param({"flattened", "flattenedClientSide", "blockJoin"})
+    public String mode;
+
+    @Param({"0", "20"})
+    public int parentAttributes;
+
+    @Param({"2", "10"})
+    public int examsPerRecord;
+
+    private SolrClient solrClient;
+
+    private File indexDir;
+
+    private String split;
+
+    private List<String> fieldMappings;
+
+    private byte[] jsonBatch;
+
+    private long recordsIndexed;
+
+    /**
+     * Counts JSON records so JMH reports them as a rate next to the batches.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Records {
+
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final String projectDir = System.getProperty("project.dir", "..");
+        final String coreName = "blockJoin".equals(mode) ? NESTED_CORE : FLATTENED_CORE;
+        final File dataDir = new File(System.getProperty("java.io.tmpdir"), "nested-mode-benchmark");
+        indexDir = new File(dataDir, coreName + "/index");
+        FileUtils.deleteDirectory(new File(dataDir, coreName));
+        solrClient = EmbeddedSolrServerFactory.create(
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getPath(),
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_CORE_HOME).getPath(),
+                coreName, dataDir.getPath());
+
+        final JSONWorkloadGenerator generator = new JSONWorkloadGenerator(SEED);
+        generator.setNumAttributes(parentAttributes);
+        generator.setExamsPerRecord(examsPerRecord, examsPerRecord);
+
+        split = generator.getSplit();
+        fieldMappings = generator.getFieldMappings();
+        jsonBatch = generator.nextBatch(BATCH_SIZE).getJson();
+    }
+
+    /**
+     * Starts every iteration from an empty index, so the sizes printed are comparable.
+     */
+    @Setup(Level.Iteration)
+    public void clearIndex() throws IOException, SolrServerException {
+        solrClient.deleteByQuery("*:*");
+        solrClient.commit();
+        solrClient.optimize();
+        recordsIndexed = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIndexSize() throws IOException, SolrServerException {
+        solrClient.commit();
+        final long numDocs = solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+        final long bytes = FileUtils.sizeOfDirectory(indexDir);
+        System.out.println(String.format("%n%s: %d records, %d documents, index %d KB, %.1f bytes per record",
+                mode, recordsIndexed, numDocs, bytes >> 10, bytes / (double) Math.max(recordsIndexed, 1)));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        solrClient.close();
+    }
+
+    @Benchmark
+    public Object index(Records records) throws IOException, SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit(split);
+        for (String fieldMapping : fieldMappings) {
+            final int separator = fieldMapping.indexOf(':');
+            request.addFieldMapping(fieldMapping.substring(0, separator), fieldMapping.substring(separator + 1));
+        }
+        if ("blockJoin".equals(mode)) {
+            request.setBlockJoin("id");
+        } else if ("flattenedClientSide".equals(mode)) {
+            request.setClientSideMapping(true);
+        }
+        request.addBytes(jsonBatch);
+
+        final Object response = request.process(solrClient);
+        records.records += BATCH_SIZE;
+        recordsIndexed += BATCH_SIZE;
+        return response;
+    }
+
+}
@@ -0,0 +1,313 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds an index offline from files of JSON, through the custom JSON update path of an
+ * in-process core instead of over HTTP, and leaves an optimized index directory ready to be
+ * copied into the data directory of a live core with the same config.
+ *
+ * The config of the core is copied and changed for bulk loading: a larger RAM buffer, no update
+ * log, and no automatic commits, since nothing searches the index until it is finished. The
+ * files are cut into chunks of documents by JSONDocumentChunker, which are sent by the worker
+ * threads of a ConcurrentJSONIndexer, then the index is committed once and merged down to the
+ * maximum number of segments.
+ *
+ * The input may be a file or a directory of .json files, each holding newline delimited JSON,
+ * concatenated objects, or arrays of objects. Settings are given as key=value arguments, for example:
+ *
+ * java -cp target/benchmarks.jar org.apache.solr.OfflineIndexBuilder input=/data/exports output=/data/built
+ *      configDir=/data/collection-conf solrHome=/var/solr split=/exams f=first:/first,last:/last threads=8
+ *
+ * configDir is the directory holding the solrconfig.xml and schema of the collection, such as a
+ * config downloaded from ZooKeeper, and solrHome the directory holding its solr.xml. Only solr.xml
+ * is copied from the solr home, so the cores already under it are not loaded. Without them the
+ * config and solr.xml of the test core named by the core setting are used.
+ *
+ * The index is written to output/core/index, replacing anything already there.
+ */
+public class OfflineIndexBuilder {
+
+    static final int DEFAULT_RAM_BUFFER_MB = 512;
+
+    private final String coreName;
+
+    private final File configDir;
+
+    private final File solrHome;
+
+    private final File input;
+
+    private final File output;
+
+    private final int numThreads;
+
+    private final int ramBufferSizeMB;
+
+    private final int chunkDocs;
+
+    private final int maxSegments;
+
+    private final Properties settings;
+
+    private final AtomicLong failedChunks = new AtomicLong(0);
+
+    public OfflineIndexBuilder(Properties settings) {
+        this.settings = settings;
+        this.coreName = settings.getProperty("core", LoadHarness.JSON_COLLECTION);
+        final String projectDir = settings.getProperty("projectDir", "..");
+        this.configDir = new File(settings.getProperty("configDir",
+                new File(new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_CORE_HOME), coreName + "/conf").getPath()));
+        this.solrHome = new File(settings.getProperty("solrHome",
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getPath()));
+        this.input = new File(getRequired(settings, "input"));
+        this.output = new File(getRequired(settings, "output"));
+        this.numThreads = getInt(settings, "threads", Runtime.getRuntime().availableProcessors());
+        this.ramBufferSizeMB = getInt(settings, "ramBufferMB", DEFAULT_RAM_BUFFER_MB);
+        this.chunkDocs = getInt(settings, "chunkDocs", JSONDocumentChunker.DEFAULT_MAX_CHUNK_DOCS);
+        this.maxSegments = getInt(settings, "maxSegments", 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Properties settings = new Properties();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected key=value but was " + arg);
+            }
+            settings.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new OfflineIndexBuilder(settings).run();
+    }
+
+    public void run() throws Exception {
+        final List<File> files = listInputFiles();
+
+        final File instanceDir = createInstanceDir();
+        final SolrClient solrClient = EmbeddedSolrServerFactory.create(createSolrHome().getPath(),
+                instanceDir.getParent(), coreName, output.getPath());
+
+        final long numFound;
+        final long indexingMillis;
+        final long mergeMillis;
+        long docs = 0;
+        long bytes = 0;
+        try {
+            System.out.println("Indexing " + files.size() + " files into " + coreName + " with " + numThreads
+                    + " threads and a " + ramBufferSizeMB + "MB RAM buffer");
+
+            final long start = System.currentTimeMillis();
+            final ConcurrentJSONIndexer indexer = createIndexer(solrClient);
+            indexer.start();
+            try {
+                for (File file : files) {
+                    try (InputStream in = new FileInputStream(file);
+                         JSONDocumentChunker chunker = new JSONDocumentChunker(in,
+                                 JSONDocumentChunker.DEFAULT_MAX_CHUNK_BYTES, chunkDocs)) {
+                        JSONDocumentChunker.Chunk chunk;
+                        while ((chunk = chunker.nextChunk()) != null) {
+                            indexer.add(chunk.getContentStream());
+                            docs += chunk.getNumDocs();
+                            bytes += chunk.getLength();
+                        }
+                    }
+                }
+                indexer.blockUntilFinished();
+            } finally {
+                indexer.close();
+            }
+
+            solrClient.commit();
+            final long merge = System.currentTimeMillis();
+            indexingMillis = merge - start;
+            solrClient.optimize(true, true, maxSegments);
+            mergeMillis = System.currentTimeMillis() - merge;
+
+            numFound = solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+        } finally {
+            solrClient.close();
+        }
+
+        final File indexDir = new File(output, coreName + "/index");
+        final double seconds = Math.max(indexingMillis, 1) / 1000.0;
+        System.out.println();
+        System.out.println(String.format("records:    %d sent (%.1f/s), %d documents in index, %d chunks failed",
+                docs, docs / seconds, numFound, failedChunks.get()));
+        System.out.println(String.format("throughput: %.2f MB/s", bytes / (1024.0 * 1024.0) / seconds));
+        System.out.println(String.format("time:       %ds indexing, %ds merging to %d segment(s)",
+                TimeUnit.MILLISECONDS.toSeconds(indexingMillis), TimeUnit.MILLISECONDS.toSeconds(mergeMillis),
+                maxSegments));
+        System.out.println(String.format("index:      %s (%d MB)", indexDir.getAbsolutePath(),
+                FileUtils.sizeOfDirectory(indexDir) >> 20));
+
+        if (failedChunks.get() > 0) {
+            throw new IllegalStateException(failedChunks.get() + " chunks failed, the index is incomplete");
+        }
+    }
+
+    /**
+     * Copies the config into output/cores/core/conf and applies the bulk settings to the copy,
+     * which is left for the live core.
+     *
+     * @return the instance directory of the core
+     */
+    File createInstanceDir() throws Exception {
+        if (!new File(configDir, "solrconfig.xml").isFile()) {
+            throw new IllegalArgumentException("No solrconfig.xml found in " + configDir);
+        }
+
+        final File coreHome = new File(output, "cores");
+        FileUtils.deleteDirectory(coreHome);
+        final File instanceDir = new File(coreHome, coreName);
+        FileUtils.copyDirectory(configDir, new File(instanceDir, "conf"));
+        applyBulkSettings(new File(instanceDir, "conf/solrconfig.xml"), ramBufferSizeMB);
+        return instanceDir;
+    }
+
+    /**
+     * Copies solr.xml into output/solr, so that no other cores are discovered.
+     *
+     * @return the solr home to load the core with
+     */
+    File createSolrHome() throws IOException {
+        final File solrXml = new File(solrHome, "solr.xml");
+        if (!solrXml.isFile()) {
+            throw new IllegalArgumentException("No solr.xml found in " + solrHome);
+        }
+
+        final File home = new File(output, "solr");
+        FileUtils.deleteDirectory(home);
+        FileUtils.copyFileToDirectory(solrXml, home);
+        return home;
+    }
+
+    private ConcurrentJSONIndexer createIndexer(SolrClient solrClient) {
+        final ConcurrentJSONIndexer indexer = new ConcurrentJSONIndexer(solrClient, null, numThreads * 2, numThreads);
+        // every chunk already holds many documents, so each is sent on its own
+        indexer.setMaxBatchDocs(1);
+
+        final String split = settings.getProperty("split");
+        if (split != null) {
+            indexer.setSplit(split);
+        }
+        final String fieldMappings = settings.getProperty("f");
+        if (fieldMappings != null) {
+            for (String fieldMapping : fieldMappings.split(",")) {
+                final int separator = fieldMapping.indexOf(':');
+                indexer.addFieldMapping(fieldMapping.substring(0, separator), fieldMapping.substring(separator + 1));
+            }
+        }
+
+        indexer.setErrorHandler(new ConcurrentJSONIndexer.ErrorHandler() {
+            @Override
+            public void handleError(JSONUpdateRequest request, Exception e) {
+                failedChunks.incrementAndGet();
+                System.err.println("Failed to index a chunk: " + e.getMessage());
+            }
+        });
+        return indexer;
+    }
+
+    private List<File> listInputFiles() {
+        if (input.isFile()) {
+            return Collections.singletonList(input);
+        }
+
+        final File[] files = input.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".json");
+            }
+        });
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("No .json files found in " + input);
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Removes the update log and automatic commits from the updateHandler of a solrconfig.xml,
+     * and sets the RAM buffer of its indexConfig.
+     */
+    static void applyBulkSettings(File solrConfig, int ramBufferSizeMB) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(solrConfig);
+        final Element config = document.getDocumentElement();
+
+        final Element updateHandler = getChild(config, "updateHandler");
+        if (updateHandler != null) {
+            for (String name : Arrays.asList("updateLog", "autoCommit", "autoSoftCommit")) {
+                final Element element = getChild(updateHandler, name);
+                if (element != null) {
+                    updateHandler.removeChild(element);
+                }
+            }
+        }
+
+        Element indexConfig = getChild(config, "indexConfig");
+        if (indexConfig == null) {
+            indexConfig = document.createElement("indexConfig");
+            config.appendChild(indexConfig);
+        }
+        Element ramBuffer = getChild(indexConfig, "ramBufferSizeMB");
+        if (ramBuffer == null) {
+            ramBuffer = document.createElement("ramBufferSizeMB");
+            indexConfig.appendChild(ramBuffer);
+        }
+        ramBuffer.setTextContent(String.valueOf(ramBufferSizeMB));
+
+        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.transform(new DOMSource(document), new StreamResult(solrConfig));
+    }
+
+    private static Element getChild(Element parent, String name) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private static String getRequired(Properties settings, String key) {
+        final String value = settings.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required setting " + key);
+        }
+        return value;
+    }
+
+    private static int getInt(Properties settings, String key, int defaultValue) {
+        final String value = settings.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+}
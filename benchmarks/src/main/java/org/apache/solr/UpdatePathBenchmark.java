@@ -0,0 +1,207 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.ContentStreamBase;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of sending the same JSON records to an in-process EmbeddedSolrServer:
+ * a JSONUpdateRequest with one stream, a ContentStreamUpdateRequest with a StringStream, a
+ * JSONUpdateRequest with one stream per record, a JSONUpdateRequest mapped on the client with
+ * a shared JSONDocumentMapper, and an UpdateRequest of SolrInputDocuments.
+ *
+ * The records come from a JSONWorkloadGenerator with a fixed seed: three top-level scalars,
+ * extra mapped attributes, and an array of two exams nested under the given number of objects,
+ * which is split into two Solr documents. The SolrInputDocuments are mapped once in setup, so
+ * that path only measures sending and indexing.
+ *
+ * The "docs" counter is the number of Solr documents indexed per second. Run with "-prof gc"
+ * for allocation, and divide gc.alloc.rate.norm by (batchSize * 2) for bytes per document.
+ *
+ * Solr home and the test cores are read from the main project, set -Dproject.dir when not
+ * running from the benchmarks directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdatePathBenchmark {
+
+    static final String CORE_NAME = "jsonCollection";
+
+    static final int EXAMS_PER_RECORD = 2;
+
+    static final int FIXED_MAPPINGS = 6;
+
+    static final long SEED = 42;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    @Param({"1", "3"})
+    public int nestingDepth;
+
+    @Param({"6", "30"})
+    public int numFieldMappings;
+
+    private SolrClient solrClient;
+
+    private String split;
+
+    private List<String> fieldMappings;
+
+    private String jsonBatch;
+
+    private List<byte[]> jsonRecords;
+
+    private JSONDocumentMapper documentMapper;
+
+    private List<SolrInputDocument> solrDocuments;
+
+    /**
+     * Counts Solr documents so JMH reports them as a rate next to the batches.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Docs {
+
+        public long docs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            docs = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final String projectDir = System.getProperty("project.dir", "..");
+        final File dataDir = new File(System.getProperty("java.io.tmpdir"), "update-path-benchmark");
+        solrClient = EmbeddedSolrServerFactory.create(
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getPath(),
+                new File(projectDir, EmbeddedSolrServerFactory.DEFAULT_CORE_HOME).getPath(),
+                CORE_NAME, dataDir.getPath());
+
+        final JSONWorkloadGenerator generator = new JSONWorkloadGenerator(SEED);
+        generator.setNestingDepth(nestingDepth);
+        generator.setNumAttributes(numFieldMappings - FIXED_MAPPINGS);
+        generator.setExamsPerRecord(EXAMS_PER_RECORD, EXAMS_PER_RECORD);
+
+        split = generator.getSplit();
+        fieldMappings = generator.getFieldMappings();
+
+        final StringBuilder batch = new StringBuilder("[");
+        jsonRecords = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final String record = generator.nextRecord();
+            jsonRecords.add(record.getBytes("UTF-8"));
+            batch.append(i > 0 ? ",\n" : "").append(record);
+        }
+        jsonBatch = batch.append("]").toString();
+
+        documentMapper = new JSONDocumentMapper(split, fieldMappings);
+        solrDocuments = documentMapper.map(new StringReader(jsonBatch));
+    }
+
+    /**
+     * Keeps the index the same size in every iteration.
+     */
+    @Setup(Level.Iteration)
+    public void clearIndex() throws IOException, SolrServerException {
+        solrClient.deleteByQuery("*:*");
+        solrClient.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        solrClient.close();
+    }
+
+    @Benchmark
+    public Object jsonUpdateRequest(Docs docs) throws IOException, SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        addMappings(request);
+        request.addBytes(jsonBatch.getBytes("UTF-8"));
+        return count(docs, request.process(solrClient));
+    }
+
+    @Benchmark
+    public Object contentStreamUpdateRequest(Docs docs) throws IOException, SolrServerException {
+        final ContentStreamUpdateRequest request = new ContentStreamUpdateRequest(JSONUpdateRequest.JSON_DOCS_PATH);
+        request.setParam("json.command", "false");
+        request.setParam("split", split);
+        for (String fieldMapping : fieldMappings) {
+            request.getParams().add("f", fieldMapping);
+        }
+
+        final ContentStreamBase.StringStream stream = new ContentStreamBase.StringStream(jsonBatch);
+        stream.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        request.addContentStream(stream);
+        return count(docs, request.process(solrClient));
+    }
+
+    @Benchmark
+    public Object multiStreamRequest(Docs docs) throws IOException, SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        addMappings(request);
+        for (byte[] jsonRecord : jsonRecords) {
+            request.addBytes(jsonRecord);
+        }
+        return count(docs, request.process(solrClient));
+    }
+
+    @Benchmark
+    public Object clientSideMapping(Docs docs) throws IOException, SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setClientSideMapping(documentMapper);
+        request.addBytes(jsonBatch.getBytes("UTF-8"));
+        return count(docs, request.process(solrClient));
+    }
+
+    @Benchmark
+    public Object solrInputDocuments(Docs docs) throws IOException, SolrServerException {
+        final UpdateRequest request = new UpdateRequest();
+        request.add(solrDocuments);
+        return count(docs, request.process(solrClient));
+    }
+
+    private void addMappings(JSONUpdateRequest request) {
+        request.setSplit(split);
+        for (String fieldMapping : fieldMappings) {
+            final int separator = fieldMapping.indexOf(':');
+            request.addFieldMapping(fieldMapping.substring(0, separator), fieldMapping.substring(separator + 1));
+        }
+    }
+
+    private Object count(Docs docs, Object response) {
+        docs.docs += batchSize * EXAMS_PER_RECORD;
+        return response;
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Tests for preparing the config and solr home of an offline index build.
+ */
+public class OfflineIndexBuilderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testApplyBulkSettings() throws Exception {
+        final File solrConfig = copyTestConfig(tempFolder.newFolder("conf"));
+        Assert.assertEquals(1, parse(solrConfig).getElementsByTagName("updateLog").getLength());
+
+        OfflineIndexBuilder.applyBulkSettings(solrConfig, 64);
+
+        final Document document = parse(solrConfig);
+        for (String removed : new String[] {"updateLog", "autoCommit", "autoSoftCommit"}) {
+            Assert.assertEquals(removed, 0, document.getElementsByTagName(removed).getLength());
+        }
+        Assert.assertEquals(1, document.getElementsByTagName("ramBufferSizeMB").getLength());
+        Assert.assertEquals("64", document.getElementsByTagName("ramBufferSizeMB").item(0).getTextContent());
+        Assert.assertEquals("indexConfig",
+                document.getElementsByTagName("ramBufferSizeMB").item(0).getParentNode().getNodeName());
+    }
+
+    @Test
+    public void testConfigDirAndSolrHome() throws Exception {
+        final File configDir = tempFolder.newFolder("collection-conf");
+        copyTestConfig(configDir);
+        FileUtils.writeStringToFile(new File(configDir, "schema.xml"), "<schema/>", StandardCharsets.UTF_8.name());
+
+        final File solrHome = tempFolder.newFolder("solr-home");
+        FileUtils.writeStringToFile(new File(solrHome, "solr.xml"), "<solr/>", StandardCharsets.UTF_8.name());
+        // a core of the live solr home which must not be loaded by the build
+        FileUtils.writeStringToFile(new File(solrHome, "live/core.properties"), "name=live", StandardCharsets.UTF_8.name());
+
+        final File output = new File(tempFolder.getRoot(), "built");
+        final Properties settings = new Properties();
+        settings.setProperty("input", tempFolder.getRoot().getPath());
+        settings.setProperty("output", output.getPath());
+        settings.setProperty("core", "collection1");
+        settings.setProperty("configDir", configDir.getPath());
+        settings.setProperty("solrHome", solrHome.getPath());
+        settings.setProperty("ramBufferMB", "128");
+        final OfflineIndexBuilder builder = new OfflineIndexBuilder(settings);
+
+        final File instanceDir = builder.createInstanceDir();
+        Assert.assertEquals(new File(output, "cores/collection1"), instanceDir);
+        Assert.assertTrue(new File(instanceDir, "conf/schema.xml").isFile());
+        final Document document = parse(new File(instanceDir, "conf/solrconfig.xml"));
+        Assert.assertEquals(0, document.getElementsByTagName("updateLog").getLength());
+        Assert.assertEquals("128", document.getElementsByTagName("ramBufferSizeMB").item(0).getTextContent());
+
+        // the source config is left as it was
+        Assert.assertEquals(1, parse(new File(configDir, "solrconfig.xml")).getElementsByTagName("updateLog").getLength());
+
+        final File home = builder.createSolrHome();
+        Assert.assertEquals(new File(output, "solr"), home);
+        Assert.assertTrue(new File(home, "solr.xml").isFile());
+        Assert.assertFalse(new File(home, "live").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigDirWithoutSolrConfig() throws Exception {
+        final Properties settings = new Properties();
+        settings.setProperty("input", tempFolder.getRoot().getPath());
+        settings.setProperty("output", new File(tempFolder.getRoot(), "built").getPath());
+        settings.setProperty("configDir", tempFolder.newFolder("empty").getPath());
+        new OfflineIndexBuilder(settings).createInstanceDir();
+    }
+
+    /**
+     * Copies the solrconfig.xml of the jsonCollection test core, which has an update log and
+     * automatic commits.
+     */
+    private static File copyTestConfig(File dir) throws IOException {
+        final File solrConfig = new File(dir, "solrconfig.xml");
+        FileUtils.copyURLToFile(OfflineIndexBuilderTest.class.getResource("/jsonCollection/conf/solrconfig.xml"), solrConfig);
+        return solrConfig;
+    }
+
+    private static Document parse(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+}
@@ -0,0 +1,273 @@
+package org.apache.solr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of update requests in flight, raising and lowering the limit from the
+ * latency and failures of the requests (AIMD, additive increase and multiplicative decrease),
+ * so that ingest speeds up while Solr has headroom and backs off when merges, commits, or
+ * queries slow it down, before requests start timing out.
+ *
+ * Callers acquire a Permit before sending a request and release it with the outcome:
+ * <ul>
+ *     <li>a success within the latency tolerance of the baseline, while at least half of the
+ *     limit is in use, raises the limit by one for every limit's worth of such successes</li>
+ *     <li>a success slower than the tolerance, or a transient failure as decided by the retry
+ *     policy, lowers the limit by the backoff ratio</li>
+ *     <li>other failures, such as rejected documents, say nothing about load and are ignored</li>
+ * </ul>
+ *
+ * All the requests in flight when Solr slows down see the same slowdown, so the limit is only
+ * lowered once for them: a permit lowers the limit only if it was acquired after the last time
+ * the limit was lowered.
+ *
+ * The baseline is the lowest latency seen, and is allowed to rise to the lowest latency of each
+ * window of recent successes, by a bounded step per window, so that it follows lasting changes
+ * such as larger documents without treating a sustained slowdown as normal straight away.
+ *
+ * Latency is measured per request, so it's meaningful when requests are of similar size, such
+ * as the batches of a ConcurrentJSONIndexer.
+ *
+ * This class is thread-safe.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+
+    static final int BASELINE_WINDOW = 100;
+
+    static final double MAX_BASELINE_STEP = 1.1;
+
+    private static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy();
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+    private RetryPolicy retryPolicy = DEFAULT_RETRY_POLICY;
+
+    private int inFlight = 0;
+
+    private long epoch = 0;
+
+    private long baselineNanos = -1;
+
+    private long windowMinNanos = Long.MAX_VALUE;
+
+    private int windowSamples = 0;
+
+    private long decreases = 0;
+
+    /**
+     * Acquired before sending a request and released once with its outcome.
+     */
+    public final class Permit {
+
+        private final long epoch;
+
+        private final long startNanos = System.nanoTime();
+
+        private boolean released = false;
+
+        private Permit(long epoch) {
+            this.epoch = epoch;
+        }
+
+        /**
+         * Releases this permit after the request succeeded, using the time since it was acquired.
+         */
+        public void release() {
+            release(System.nanoTime() - startNanos, null);
+        }
+
+        /**
+         * Releases this permit, using the time since it was acquired.
+         *
+         * @param failure
+         *              the failure of the request, or null if it succeeded
+         */
+        public void release(Exception failure) {
+            release(System.nanoTime() - startNanos, failure);
+        }
+
+        /**
+         * Releases this permit with a latency measured by the caller.
+         *
+         * @param latencyNanos
+         * @param failure
+         *              the failure of the request, or null if it succeeded
+         */
+        public void release(long latencyNanos, Exception failure) {
+            AdaptiveConcurrencyLimiter.this.release(this, latencyNanos, failure);
+        }
+    }
+
+    /**
+     * @param minLimit
+     *              the lowest the limit goes, and where it starts
+     * @param maxLimit
+     *              the highest the limit goes, e.g. the number of threads or connections available
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, minLimit);
+    }
+
+    /**
+     * @param minLimit
+     *              the lowest the limit goes
+     * @param maxLimit
+     *              the highest the limit goes, e.g. the number of threads or connections available
+     * @param initialLimit
+     *              the limit until there are measurements
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + minLimit + " to " + maxLimit
+                    + " starting at " + initialLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * @param latencyTolerance
+     *              how many times the baseline latency a request may take before the limit is
+     *              lowered, greater than 1
+     */
+    public synchronized void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * @param backoffRatio
+     *              what the limit is multiplied by when it's lowered, greater than 0 and less than 1
+     */
+    public synchronized void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be greater than 0 and less than 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @param retryPolicy
+     *              decides which failures are transient and so mean Solr is overloaded, or null for the default
+     */
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? DEFAULT_RETRY_POLICY : retryPolicy;
+    }
+
+    /**
+     * Waits until fewer requests than the limit are in flight.
+     *
+     * @return the permit to release when the request is done
+     */
+    public synchronized Permit acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+        return new Permit(epoch);
+    }
+
+    /**
+     * Waits up to the given timeout until fewer requests than the limit are in flight.
+     *
+     * @return the permit to release when the request is done, or null if the limit stayed full
+     */
+    public synchronized Permit tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight >= getLimit()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlight++;
+        return new Permit(epoch);
+    }
+
+    /**
+     * @return the number of requests allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of permits acquired and not yet released
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the latency considered normal, or -1 until a request has succeeded
+     */
+    public synchronized long getBaselineNanos() {
+        return baselineNanos;
+    }
+
+    /**
+     * @return the number of times the limit has been lowered
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    private synchronized void release(Permit permit, long latencyNanos, Exception failure) {
+        if (permit.released) {
+            throw new IllegalStateException("Permit has already been released");
+        }
+        permit.released = true;
+
+        if (failure == null) {
+            if (baselineNanos >= 0 && latencyNanos > baselineNanos * latencyTolerance) {
+                decrease(permit);
+            } else if (inFlight * 2 >= getLimit()) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            sample(latencyNanos);
+        } else if (retryPolicy.isTransient(failure)) {
+            decrease(permit);
+        }
+
+        inFlight--;
+        notifyAll();
+    }
+
+    private void decrease(Permit permit) {
+        if (permit.epoch == epoch) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            epoch++;
+            decreases++;
+        }
+    }
+
+    private void sample(long latencyNanos) {
+        if (baselineNanos < 0 || latencyNanos < baselineNanos) {
+            baselineNanos = latencyNanos;
+        }
+
+        windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+        if (++windowSamples >= BASELINE_WINDOW) {
+            baselineNanos = Math.max(baselineNanos, Math.min(windowMinNanos, (long) (baselineNanos * MAX_BASELINE_STEP)));
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+}
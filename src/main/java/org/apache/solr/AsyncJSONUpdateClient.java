@@ -0,0 +1,222 @@
+package org.apache.solr;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Sends JSONUpdateRequests to a Solr server without blocking the calling thread, so that a few
+ * I/O threads can keep hundreds of requests in flight. Each submit() returns a CompletableFuture
+ * that is completed with the UpdateResponse when Solr responds.
+ *
+ * The requests are posted by an Apache HttpAsyncClient instead of an HttpSolrClient, which
+ * blocks a thread for every request. Everything the request would send through an HttpSolrClient
+ * is sent the same way, except that several content streams are joined by newlines into one body
+ * instead of a multipart request. The retry policy and update listener of the request are not
+ * used, send() or sendAsync() should be used for requests that need them.
+ *
+ * The futures are completed on the I/O threads, so any slow work that follows should be
+ * chained with the async methods of CompletableFuture. The bodies are also read on the I/O
+ * threads, which is fine for byte arrays and files but not for InputStreams that block.
+ *
+ * This class is thread-safe.
+ */
+public class AsyncJSONUpdateClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    private final String baseUrl;
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    /**
+     * @param baseUrl
+     *              the URL of the Solr server, e.g. http://localhost:8983/solr
+     */
+    public AsyncJSONUpdateClient(String baseUrl) {
+        this(baseUrl, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param baseUrl
+     *              the URL of the Solr server, e.g. http://localhost:8983/solr
+     * @param maxConnections
+     *              the number of requests that can be in flight at once
+     */
+    public AsyncJSONUpdateClient(String baseUrl, int maxConnections) {
+        this(baseUrl, maxConnections, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param baseUrl
+     *              the URL of the Solr server, e.g. http://localhost:8983/solr
+     * @param maxConnections
+     *              the number of requests that can be in flight at once
+     * @param ioThreads
+     *              the number of threads sending requests and reading responses
+     */
+    public AsyncJSONUpdateClient(String baseUrl, int maxConnections, int ioThreads) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.httpClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreads).build())
+                .build();
+        this.httpClient.start();
+    }
+
+    /**
+     * Submits a request to the collection at the base URL.
+     *
+     * @param request
+     * @return a future completed with the response
+     */
+    public CompletableFuture<UpdateResponse> submit(JSONUpdateRequest request) {
+        return submit(request, null);
+    }
+
+    /**
+     * Submits a request to the given collection. The future is completed exceptionally with a
+     * RemoteSolrException if Solr responds with an error, or with the IOException if the
+     * request couldn't be sent. Cancelling the future aborts the request.
+     *
+     * @param request
+     * @param collection
+     *              the collection to send to, or null to send to the base URL
+     * @return a future completed with the response
+     */
+    public CompletableFuture<UpdateResponse> submit(JSONUpdateRequest request, String collection) {
+        final CompletableFuture<UpdateResponse> result = new CompletableFuture<>();
+
+        final HttpPost post;
+        try {
+            post = createPost(request, collection);
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        final long startNanos = System.nanoTime();
+        final Future<HttpResponse> httpFuture = httpClient.execute(post, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse httpResponse) {
+                try {
+                    result.complete(parseResponse(httpResponse, System.nanoTime() - startNanos));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                httpFuture.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stops the I/O threads, failing any requests still in flight.
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private HttpPost createPost(JSONUpdateRequest request, String collection) throws IOException {
+        final ModifiableSolrParams params = new ModifiableSolrParams(request.getParams());
+        params.set(CommonParams.WT, "javabin");
+        params.set(CommonParams.VERSION, "2");
+
+        final StringBuilder url = new StringBuilder(baseUrl);
+        if (collection != null) {
+            url.append('/').append(collection);
+        }
+        url.append(request.getPath()).append(ClientUtils.toQueryString(params, false));
+        final HttpPost post = new HttpPost(url.toString());
+
+        final Collection<ContentStream> contentStreams = request.getContentStreams();
+        if (contentStreams == null || contentStreams.isEmpty()) {
+            return post;
+        }
+
+        final List<ContentStream> streams = new ArrayList<>(contentStreams);
+        final ContentStream first = streams.get(0);
+        final InputStream body = streams.size() == 1 ? first.getStream() : JSONUpdateRequest.joinStreams(streams);
+        final long length = streams.size() == 1 && first.getSize() != null ? first.getSize() : -1;
+        final String contentType = first.getContentType() != null
+                ? first.getContentType() : JSONUpdateRequest.JSON_CONTENT_TYPE;
+
+        post.setEntity(new InputStreamEntity(body, length, ContentType.parse(contentType)));
+        if (request.isCompressed()) {
+            post.setHeader("Content-Encoding", GzipRequestInterceptor.GZIP_ENCODING);
+        }
+        return post;
+    }
+
+    private UpdateResponse parseResponse(HttpResponse httpResponse, long elapsedNanos) throws IOException {
+        final int status = httpResponse.getStatusLine().getStatusCode();
+        final HttpEntity entity = httpResponse.getEntity();
+        final byte[] bytes = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+
+        NamedList<Object> body = null;
+        try {
+            body = new BinaryResponseParser().processResponse(new ByteArrayInputStream(bytes), null);
+        } catch (RuntimeException e) {
+            if (status == 200) {
+                throw new IOException("Unable to parse the response from " + baseUrl, e);
+            }
+        }
+
+        if (status != 200) {
+            String message = httpResponse.getStatusLine().getReasonPhrase();
+            final Object error = body == null ? null : body.get("error");
+            if (error instanceof NamedList && ((NamedList<?>) error).get("msg") != null) {
+                message = ((NamedList<?>) error).get("msg").toString();
+            }
+            throw new HttpSolrClient.RemoteSolrException(baseUrl, status, message, null);
+        }
+
+        final UpdateResponse response = new UpdateResponse();
+        response.setResponse(body);
+        response.setElapsedTime(elapsedNanos / 1000000);
+        return response;
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.ContentStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a multi-document JSONUpdateRequest and, when Solr rejects it because of the documents
+ * in it, finds the rejected documents by splitting the batch in half and sending each half
+ * again, recursively, until every rejected document has been sent alone and passed to the
+ * DeadLetterSink. A batch with one bad document among n costs about 2 log2(n) extra requests
+ * instead of n.
+ *
+ * The batch is split between its content streams, and a single stream holding several
+ * documents is split into its documents with a JSONDocumentChunker.
+ *
+ * Only a batch that Solr rejects with 400 Bad Request is isolated, since that is how Solr reports
+ * a document it can't index. Any other failure is thrown after send() has made its retries: a
+ * server that is down, a wrong collection, a failed authentication, or a server error would fail
+ * every half as well, and isolating it would dead-letter the whole batch with about 2n requests.
+ *
+ * Solr indexes the documents of a request that come before the one it rejects, so documents
+ * can be sent more than once. With a uniqueKey they are simply overwritten, without one they
+ * are indexed again.
+ *
+ * This class is thread-safe if the sink is.
+ */
+public class BatchBisector {
+
+    private final DeadLetterSink deadLetterSink;
+
+    private final AtomicLong requestsSent = new AtomicLong(0);
+
+    private final AtomicLong batchesIsolated = new AtomicLong(0);
+
+    private final AtomicLong deadLetters = new AtomicLong(0);
+
+    /**
+     * @param deadLetterSink
+     *              receives each rejected document with its error
+     */
+    public BatchBisector(DeadLetterSink deadLetterSink) {
+        this.deadLetterSink = deadLetterSink;
+    }
+
+    /**
+     * Sends the request, isolating any documents Solr rejects. InputStreams added to the request
+     * are buffered by a ReplayableContentStream so they can be sent again.
+     *
+     * @param request
+     * @param solrClient
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     * @return the response of the last request that succeeded, or null if every document was rejected
+     */
+    public UpdateResponse send(JSONUpdateRequest request, SolrClient solrClient, String collection)
+            throws SolrServerException, IOException {
+        final List<ReplayableContentStream> replayableStreams = request.makeReplayable();
+        try {
+            try {
+                requestsSent.incrementAndGet();
+                return request.send(solrClient, collection);
+            } catch (SolrException e) {
+                if (!isRejected(e)) {
+                    throw e;
+                }
+                batchesIsolated.incrementAndGet();
+                return isolate(request, request.getSourceStreams(), e, solrClient, collection);
+            }
+        } finally {
+            for (ReplayableContentStream replayableStream : replayableStreams) {
+                replayableStream.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of requests sent, including the halves of failed batches
+     */
+    public long getRequestsSent() {
+        return requestsSent.get();
+    }
+
+    /**
+     * @return the number of batches that failed and were split
+     */
+    public long getBatchesIsolated() {
+        return batchesIsolated.get();
+    }
+
+    /**
+     * @return the number of documents passed to the sink
+     */
+    public long getDeadLetters() {
+        return deadLetters.get();
+    }
+
+    /**
+     * Sends each half of streams that failed together, isolating the halves that fail again.
+     */
+    private UpdateResponse isolate(JSONUpdateRequest request, List<ContentStream> streams, Exception failure,
+                                   SolrClient solrClient, String collection) throws SolrServerException, IOException {
+        if (streams.size() == 1) {
+            final List<ContentStream> documents = splitDocuments(streams.get(0));
+            if (documents == null) {
+                deadLetter(streams.get(0), failure);
+                return null;
+            }
+            streams = documents;
+        }
+
+        final int middle = streams.size() / 2;
+        final UpdateResponse first = sendPart(request, streams.subList(0, middle), solrClient, collection);
+        final UpdateResponse second = sendPart(request, streams.subList(middle, streams.size()), solrClient, collection);
+        return second != null ? second : first;
+    }
+
+    private UpdateResponse sendPart(JSONUpdateRequest request, List<ContentStream> streams,
+                                    SolrClient solrClient, String collection) throws SolrServerException, IOException {
+        final JSONUpdateRequest part = request.copyWithContentStreams(streams);
+        try {
+            requestsSent.incrementAndGet();
+            return part.send(solrClient, collection);
+        } catch (SolrException e) {
+            if (!isRejected(e)) {
+                throw e;
+            }
+            return isolate(request, streams, e, solrClient, collection);
+        }
+    }
+
+    /**
+     * Splits a stream into one stream per document, each named so that HttpSolrClient sends all
+     * of them when a half holds several.
+     *
+     * @return the documents, or null if the stream holds one document or can't be split
+     */
+    private static List<ContentStream> splitDocuments(ContentStream stream) {
+        final List<ContentStream> documents = new ArrayList<>();
+        try (JSONDocumentChunker chunker = new JSONDocumentChunker(stream.getStream(),
+                JSONDocumentChunker.DEFAULT_MAX_CHUNK_BYTES, 1)) {
+            JSONDocumentChunker.Chunk chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                documents.add(chunk.getContentStream());
+            }
+        } catch (IOException e) {
+            // malformed JSON, the stream is rejected as a whole
+            return null;
+        }
+        return documents.size() > 1 ? documents : null;
+    }
+
+    private void deadLetter(ContentStream stream, Exception failure) throws IOException {
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (InputStream in = stream.getStream()) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                json.write(buffer, 0, n);
+            }
+        }
+        deadLetters.incrementAndGet();
+        deadLetterSink.deadLetter(json.toByteArray(), failure);
+    }
+
+    /**
+     * @return true if Solr rejected the request because of the documents in it
+     */
+    private static boolean isRejected(SolrException e) {
+        return e.code() == SolrException.ErrorCode.BAD_REQUEST.code;
+    }
+
+}
@@ -0,0 +1,257 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Decides when updates become visible, so that callers don't commit after every update and
+ * make Solr open a new searcher each time.
+ *
+ * Requests are given a commitWithin by apply(), which Solr turns into a soft commit, and
+ * callers that really need their updates visible call commit(). Callers that call commit()
+ * while another commit is being sent wait for one more commit which covers all of them, so
+ * any number of concurrent callers cause at most two commits.
+ *
+ * The commitWithin starts at the maximum and is adjusted between the minimum and maximum:
+ * <ul>
+ *     <li>at least long enough that commits take no more than a fraction of the time, using
+ *     the average latency of the explicit commits</li>
+ *     <li>at least long enough for the target number of documents to arrive at the measured
+ *     ingest rate, so that slow trickles of documents don't each produce a tiny segment</li>
+ * </ul>
+ *
+ * The default maximum matches the autoSoftCommit of the test solrconfig.xml, so documents
+ * are never less visible than with the server's own settings, and the minimum keeps well
+ * clear of opening a searcher for every request.
+ *
+ * This class is thread-safe.
+ */
+public class CommitPolicy {
+
+    public static final int DEFAULT_MIN_COMMIT_WITHIN = 1000;
+
+    public static final int DEFAULT_MAX_COMMIT_WITHIN = 10000;
+
+    public static final double DEFAULT_MAX_COMMIT_FRACTION = 0.1;
+
+    public static final long DEFAULT_TARGET_DOCS_PER_COMMIT = 10000;
+
+    static final long RATE_WINDOW_MILLIS = 1000;
+
+    static final double SMOOTHING = 0.3;
+
+    private final SolrClient solrClient;
+
+    private final String collection;
+
+    private int minCommitWithin = DEFAULT_MIN_COMMIT_WITHIN;
+
+    private int maxCommitWithin = DEFAULT_MAX_COMMIT_WITHIN;
+
+    private double maxCommitFraction = DEFAULT_MAX_COMMIT_FRACTION;
+
+    private long targetDocsPerCommit = DEFAULT_TARGET_DOCS_PER_COMMIT;
+
+    private volatile int commitWithin = DEFAULT_MAX_COMMIT_WITHIN;
+
+    private double commitMillis = -1;
+
+    private double docsPerSecond = -1;
+
+    private long windowStartMillis = -1;
+
+    private long windowDocs = 0;
+
+    private long commitsRequested = 0;
+
+    private long commitsCompleted = 0;
+
+    private boolean committing = false;
+
+    private long commitsSent = 0;
+
+    /**
+     * Construct a policy that commits the default collection of the given client.
+     *
+     * @param solrClient
+     */
+    public CommitPolicy(SolrClient solrClient) {
+        this(solrClient, null);
+    }
+
+    /**
+     * @param solrClient
+     * @param collection
+     *              the collection to commit, or null to use the client's default
+     */
+    public CommitPolicy(SolrClient solrClient, String collection) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+    }
+
+    /**
+     * @param minCommitWithin
+     *              the shortest commitWithin in milliseconds
+     * @param maxCommitWithin
+     *              the longest commitWithin in milliseconds, also used until there are measurements
+     */
+    public synchronized void setCommitWithinRange(int minCommitWithin, int maxCommitWithin) {
+        if (minCommitWithin < 1 || maxCommitWithin < minCommitWithin) {
+            throw new IllegalArgumentException("Invalid commitWithin range: " + minCommitWithin + " to " + maxCommitWithin);
+        }
+        this.minCommitWithin = minCommitWithin;
+        this.maxCommitWithin = maxCommitWithin;
+        adjust();
+    }
+
+    /**
+     * @param maxCommitFraction
+     *              the largest fraction of the commitWithin that a commit may take, from 0 to 1
+     */
+    public synchronized void setMaxCommitFraction(double maxCommitFraction) {
+        if (maxCommitFraction <= 0 || maxCommitFraction > 1) {
+            throw new IllegalArgumentException("maxCommitFraction must be greater than 0 and at most 1");
+        }
+        this.maxCommitFraction = maxCommitFraction;
+        adjust();
+    }
+
+    /**
+     * @param targetDocsPerCommit
+     *              the number of documents that should arrive between two commits
+     */
+    public synchronized void setTargetDocsPerCommit(long targetDocsPerCommit) {
+        this.targetDocsPerCommit = targetDocsPerCommit;
+        adjust();
+    }
+
+    /**
+     * @return the commitWithin in milliseconds currently given to requests
+     */
+    public int getCommitWithin() {
+        return commitWithin;
+    }
+
+    /**
+     * Sets the current commitWithin on the given request.
+     *
+     * @param request
+     */
+    public void apply(JSONUpdateRequest request) {
+        request.setCommitWithin(commitWithin);
+    }
+
+    /**
+     * Records documents that were sent, for measuring the ingest rate.
+     *
+     * @param numDocs
+     */
+    public void recordDocs(long numDocs) {
+        recordDocs(numDocs, System.currentTimeMillis());
+    }
+
+    synchronized void recordDocs(long numDocs, long nowMillis) {
+        if (windowStartMillis < 0) {
+            windowStartMillis = nowMillis;
+        }
+        windowDocs += numDocs;
+
+        final long elapsed = nowMillis - windowStartMillis;
+        if (elapsed >= RATE_WINDOW_MILLIS) {
+            docsPerSecond = smooth(docsPerSecond, windowDocs * 1000.0 / elapsed);
+            windowStartMillis = nowMillis;
+            windowDocs = 0;
+            adjust();
+        }
+    }
+
+    synchronized void recordCommit(long millis) {
+        commitMillis = smooth(commitMillis, millis);
+        adjust();
+    }
+
+    /**
+     * Commits, making every update sent before this call visible. If a commit is already being
+     * sent, waits for it and then for one more commit shared with every other caller waiting.
+     *
+     * A failed commit is thrown to the caller that sent it, the callers waiting for it send
+     * another one.
+     *
+     * @return the response of the commit, or null if this call was covered by another caller's commit
+     */
+    public UpdateResponse commit() throws SolrServerException, IOException {
+        final long covered;
+        synchronized (this) {
+            final long ticket = ++commitsRequested;
+            while (committing && commitsCompleted < ticket) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a commit");
+                }
+            }
+            if (commitsCompleted >= ticket) {
+                return null;
+            }
+            committing = true;
+            covered = commitsRequested;
+            commitsSent++;
+        }
+
+        final long start = System.currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            final UpdateResponse response = solrClient.commit(collection);
+            succeeded = true;
+            return response;
+        } finally {
+            synchronized (this) {
+                committing = false;
+                if (succeeded) {
+                    commitsCompleted = Math.max(commitsCompleted, covered);
+                    recordCommit(System.currentTimeMillis() - start);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of commits sent to Solr by commit()
+     */
+    public synchronized long getCommitsSent() {
+        return commitsSent;
+    }
+
+    /**
+     * @return the number of calls to commit()
+     */
+    public synchronized long getCommitsRequested() {
+        return commitsRequested;
+    }
+
+    private void adjust() {
+        double millis = minCommitWithin;
+        if (commitMillis >= 0) {
+            millis = Math.max(millis, commitMillis / maxCommitFraction);
+        }
+        if (docsPerSecond >= 0) {
+            millis = Math.max(millis, docsPerSecond == 0
+                    ? maxCommitWithin : targetDocsPerCommit * 1000.0 / docsPerSecond);
+        }
+        if (commitMillis < 0 && docsPerSecond < 0) {
+            millis = maxCommitWithin;
+        }
+        commitWithin = (int) Math.min(maxCommitWithin, Math.round(millis));
+    }
+
+    private static double smooth(double average, double value) {
+        return average < 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+}
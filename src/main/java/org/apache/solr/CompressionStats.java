@@ -0,0 +1,78 @@
+package org.apache.solr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals of the bytes before and after compression and the time spent compressing, shared by
+ * any number of requests and threads, for deciding whether compression pays off for a pipeline.
+ */
+public class CompressionStats {
+
+    private final AtomicLong streams = new AtomicLong(0);
+
+    private final AtomicLong uncompressedBytes = new AtomicLong(0);
+
+    private final AtomicLong compressedBytes = new AtomicLong(0);
+
+    private final AtomicLong compressionNanos = new AtomicLong(0);
+
+    /**
+     * Adds the totals of one compressed stream.
+     *
+     * @param uncompressed
+     * @param compressed
+     * @param nanos
+     */
+    public void record(long uncompressed, long compressed, long nanos) {
+        streams.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+        compressionNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of streams compressed
+     */
+    public long getStreams() {
+        return streams.get();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return the time spent in the compressor
+     */
+    public long getCompressionNanos() {
+        return compressionNanos.get();
+    }
+
+    /**
+     * @return the uncompressed size divided by the compressed size, or 0 if nothing was compressed
+     */
+    public double getRatio() {
+        final long compressed = compressedBytes.get();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    /**
+     * @return the number of uncompressed megabytes compressed per second of compression time
+     */
+    public double getMegabytesPerSecond() {
+        final long nanos = compressionNanos.get();
+        return nanos == 0 ? 0 : (uncompressedBytes.get() / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("streams=%d, uncompressed=%d, compressed=%d, ratio=%.2f, time=%.1fms (%.1f MB/s)",
+                getStreams(), getUncompressedBytes(), getCompressedBytes(), getRatio(),
+                getCompressionNanos() / 1e6, getMegabytesPerSecond());
+    }
+
+}
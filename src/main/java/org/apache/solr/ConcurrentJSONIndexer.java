@@ -0,0 +1,546 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ContentStreamBase;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts sources of JSON from any number of producer threads and indexes them with a pool
+ * of worker threads sharing a single SolrClient, similar to ConcurrentUpdateSolrClient but for
+ * the custom JSON update handler.
+ *
+ * Sources are placed on a bounded queue. When the queue is full, add() blocks until a worker
+ * takes from the queue and offer() gives up after the given timeout, so producers can never
+ * get further ahead of Solr than the size of the queue.
+ *
+ * Each worker drains up to the maximum number of documents or bytes from the queue into a
+ * single multi-stream JSONUpdateRequest. Failed requests are passed to the ErrorHandler.
+ * Interrupting a worker fails the sources queued at that moment, which are passed to the
+ * ErrorHandler as requests without being sent, and the worker carries on with later sources.
+ *
+ * With an AdaptiveConcurrencyLimiter, the number of workers is the most requests that can be
+ * in flight, and the limiter decides how many of them are. A worker drains its batch before
+ * waiting for the limiter, so however long it waits its batch stays within the maximums and
+ * the latencies the limiter compares are of batches of similar size.
+ */
+public class ConcurrentJSONIndexer implements Closeable {
+
+    public static final int DEFAULT_MAX_BATCH_DOCS = 100;
+
+    public static final long DEFAULT_MAX_BATCH_BYTES = 10 * 1024 * 1024;
+
+    static final long POLL_MILLIS = 250;
+
+    /**
+     * Called by a worker thread when a request fails.
+     */
+    public interface ErrorHandler {
+
+        void handleError(JSONUpdateRequest request, Exception e);
+
+    }
+
+    private final SolrClient solrClient;
+
+    private final String collection;
+
+    private final BlockingQueue<ContentStream> queue;
+
+    private final ExecutorService workers;
+
+    private final int numWorkers;
+
+    private final ModifiableSolrParams requestParams = new ModifiableSolrParams();
+
+    private final Object pendingLock = new Object();
+
+    private final AtomicLong sourcesSent = new AtomicLong(0);
+
+    private final AtomicLong requestsFailed = new AtomicLong(0);
+
+    private volatile ErrorHandler errorHandler;
+
+    private RetryPolicy retryPolicy;
+
+    private boolean compressed = false;
+
+    private CompressionStats compressionStats;
+
+    private UpdateListener updateListener;
+
+    private CommitPolicy commitPolicy;
+
+    private BatchBisector batchBisector;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private volatile boolean started = false;
+
+    private volatile boolean closed = false;
+
+    private int maxBatchDocs = DEFAULT_MAX_BATCH_DOCS;
+
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    private long pending = 0;
+
+    /**
+     * @param solrClient
+     *              the client shared by all workers, must be thread-safe
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     * @param queueSize
+     *              the maximum number of sources waiting to be sent
+     * @param numWorkers
+     *              the number of threads sending requests
+     */
+    public ConcurrentJSONIndexer(SolrClient solrClient, String collection, int queueSize, int numWorkers) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.numWorkers = numWorkers;
+        this.workers = Executors.newFixedThreadPool(numWorkers);
+    }
+
+    /**
+     * Adds a field mapping which results in "f=field:jsonPath" on every request.
+     *
+     * @param field
+     * @param jsonPath
+     */
+    public void addFieldMapping(String field, String jsonPath) {
+        checkNotStarted();
+        requestParams.add("f", field + ":" + jsonPath);
+    }
+
+    /**
+     * Sets the split param of every request.
+     *
+     * @param jsonPath
+     */
+    public void setSplit(String jsonPath) {
+        checkNotStarted();
+        requestParams.set("split", jsonPath);
+    }
+
+    /**
+     * @param maxBatchDocs
+     *              the maximum number of sources a worker sends in one request
+     */
+    public void setMaxBatchDocs(int maxBatchDocs) {
+        checkNotStarted();
+        this.maxBatchDocs = maxBatchDocs;
+    }
+
+    /**
+     * @param maxBatchBytes
+     *              the number of bytes after which a worker stops adding sources to a request
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        checkNotStarted();
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @param retryPolicy
+     *              the policy used to retry transient failures of every request, or null to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        checkNotStarted();
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param compressed
+     *              true to compress every request with gzip, see JSONUpdateRequest.setCompressed()
+     */
+    public void setCompressed(boolean compressed) {
+        checkNotStarted();
+        this.compressed = compressed;
+    }
+
+    /**
+     * @param compressionStats
+     *              where to record the compression ratio and time of every request, or null
+     */
+    public void setCompressionStats(CompressionStats compressionStats) {
+        checkNotStarted();
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * @param updateListener
+     *              called after every attempt to send a request with the bytes sent and the timings, or null
+     */
+    public void setUpdateListener(UpdateListener updateListener) {
+        checkNotStarted();
+        this.updateListener = updateListener;
+    }
+
+    /**
+     * @param commitPolicy
+     *              gives every request its commitWithin and is told the number of documents sent, or null
+     */
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        checkNotStarted();
+        this.commitPolicy = commitPolicy;
+    }
+
+    /**
+     * Isolates the documents Solr rejects from a request by sending halves of the request again,
+     * see BatchBisector, instead of passing the failed request to the ErrorHandler.
+     *
+     * @param deadLetterSink
+     *              receives each rejected document with its error from the worker threads, or null
+     */
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        checkNotStarted();
+        this.batchBisector = deadLetterSink == null ? null : new BatchBisector(deadLetterSink);
+    }
+
+    /**
+     * @return the BatchBisector isolating rejected documents, or null if there is no dead letter sink
+     */
+    public BatchBisector getBatchBisector() {
+        return batchBisector;
+    }
+
+    /**
+     * @param concurrencyLimiter
+     *              decides how many of the workers may send at once from the latency and failures
+     *              of their requests, or null to let every worker send
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        checkNotStarted();
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * @return the limiter of the requests in flight, or null if there is none
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @param errorHandler
+     *              called from the worker thread whenever a request fails
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Starts the worker threads, the request configuration can not be changed afterwards.
+     */
+    public synchronized void start() {
+        checkNotStarted();
+        started = true;
+        for (int i = 0; i < numWorkers; i++) {
+            workers.execute(new Worker());
+        }
+    }
+
+    /**
+     * Adds a document of JSON, blocking while the queue is full.
+     *
+     * @param jsonBytes
+     */
+    public void add(byte[] jsonBytes) throws InterruptedException {
+        add(toContentStream(jsonBytes));
+    }
+
+    /**
+     * Adds a file of JSON, blocking while the queue is full.
+     *
+     * @param jsonFile
+     */
+    public void add(File jsonFile) throws InterruptedException {
+        add(toContentStream(jsonFile));
+    }
+
+    /**
+     * Adds a ContentStream of JSON, blocking while the queue is full.
+     *
+     * @param contentStream
+     */
+    public void add(ContentStream contentStream) throws InterruptedException {
+        checkOpen();
+        incrementPending();
+        try {
+            queue.put(contentStream);
+        } catch (InterruptedException e) {
+            decrementPending(1);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a document of JSON, waiting up to the given timeout for space in the queue.
+     *
+     * @param jsonBytes
+     * @return true if the document was queued, false if the queue stayed full
+     */
+    public boolean offer(byte[] jsonBytes, long timeout, TimeUnit unit) throws InterruptedException {
+        return offer(toContentStream(jsonBytes), timeout, unit);
+    }
+
+    /**
+     * Adds a ContentStream of JSON, waiting up to the given timeout for space in the queue.
+     *
+     * @param contentStream
+     * @return true if the stream was queued, false if the queue stayed full
+     */
+    public boolean offer(ContentStream contentStream, long timeout, TimeUnit unit) throws InterruptedException {
+        checkOpen();
+        incrementPending();
+        boolean queued = false;
+        try {
+            queued = queue.offer(contentStream, timeout, unit);
+        } finally {
+            if (!queued) {
+                decrementPending(1);
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Blocks until every source added so far has been sent or has failed.
+     */
+    public void blockUntilFinished() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                pendingLock.wait();
+            }
+        }
+    }
+
+    /**
+     * @return the number of sources queued or being sent
+     */
+    public long getPending() {
+        synchronized (pendingLock) {
+            return pending;
+        }
+    }
+
+    /**
+     * @return the number of sources sent successfully, a source can hold any number of documents
+     */
+    public long getSourcesSent() {
+        return sourcesSent.get();
+    }
+
+    /**
+     * @return the number of requests that failed
+     */
+    public long getRequestsFailed() {
+        return requestsFailed.get();
+    }
+
+    /**
+     * Sends everything that has been added and stops the workers, the SolrClient is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (started) {
+                blockUntilFinished();
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(POLL_MILLIS * 4, TimeUnit.MILLISECONDS)) {
+                workers.shutdownNow();
+                throw new IOException("Timed out waiting for the workers to stop");
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+    }
+
+    private ContentStream toContentStream(byte[] jsonBytes) {
+        ContentStreamBase.ByteArrayStream stream = new ContentStreamBase.ByteArrayStream(jsonBytes, "json");
+        stream.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        return stream;
+    }
+
+    private ContentStream toContentStream(File jsonFile) {
+        ContentStreamBase.FileStream stream = new ContentStreamBase.FileStream(jsonFile);
+        stream.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        return stream;
+    }
+
+    private void checkOpen() {
+        if (!started) {
+            throw new IllegalStateException("Indexer has not been started");
+        }
+        if (closed) {
+            throw new IllegalStateException("Indexer has been closed");
+        }
+    }
+
+    private void checkNotStarted() {
+        if (started) {
+            throw new IllegalStateException("Indexer has already been started");
+        }
+    }
+
+    private void incrementPending() {
+        synchronized (pendingLock) {
+            pending++;
+        }
+    }
+
+    private void decrementPending(int count) {
+        synchronized (pendingLock) {
+            pending -= count;
+            if (pending <= 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Takes batches from the queue and sends them until the indexer is closed and drained.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!closed || !queue.isEmpty()) {
+                ContentStream first;
+                try {
+                    first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    failQueued(e);
+                    continue;
+                }
+
+                if (first != null) {
+                    sendBatch(first);
+                }
+            }
+        }
+
+        private void sendBatch(ContentStream first) {
+            final JSONUpdateRequest request = createRequest();
+            request.addContentStream(first);
+
+            int numDocs = 1;
+            long numBytes = sizeOf(first);
+            ContentStream next;
+            while (numDocs < maxBatchDocs && numBytes < maxBatchBytes && (next = queue.poll()) != null) {
+                request.addContentStream(next);
+                numDocs++;
+                numBytes += sizeOf(next);
+            }
+
+            AdaptiveConcurrencyLimiter.Permit permit = null;
+            if (concurrencyLimiter != null) {
+                try {
+                    permit = concurrencyLimiter.acquire();
+                } catch (InterruptedException e) {
+                    // nothing has been sent, so the batch fails along with everything queued
+                    try {
+                        handleError(request, e);
+                    } finally {
+                        decrementPending(numDocs);
+                    }
+                    failQueued(e);
+                    return;
+                }
+            }
+
+            try {
+                if (batchBisector == null) {
+                    request.send(solrClient, collection);
+                } else {
+                    batchBisector.send(request, solrClient, collection);
+                }
+                if (permit != null) {
+                    permit.release();
+                    permit = null;
+                }
+                sourcesSent.addAndGet(numDocs);
+                if (commitPolicy != null) {
+                    commitPolicy.recordDocs(numDocs);
+                }
+            } catch (Exception e) {
+                if (permit != null) {
+                    permit.release(e);
+                }
+                handleError(request, e);
+            } finally {
+                decrementPending(numDocs);
+            }
+        }
+
+        /**
+         * Takes everything from the queue without sending it, passing it to the ErrorHandler in
+         * batches, so that nothing is left pending.
+         */
+        private void failQueued(Exception e) {
+            ContentStream next;
+            while ((next = queue.poll()) != null) {
+                final JSONUpdateRequest request = createRequest();
+                request.addContentStream(next);
+
+                int numDocs = 1;
+                while (numDocs < maxBatchDocs && (next = queue.poll()) != null) {
+                    request.addContentStream(next);
+                    numDocs++;
+                }
+
+                try {
+                    handleError(request, e);
+                } finally {
+                    decrementPending(numDocs);
+                }
+            }
+        }
+
+        private JSONUpdateRequest createRequest() {
+            final JSONUpdateRequest request = new JSONUpdateRequest();
+            request.getParams().add(requestParams);
+            request.setRetryPolicy(retryPolicy);
+            request.setCompressed(compressed);
+            request.setCompressionStats(compressionStats);
+            request.setUpdateListener(updateListener);
+            if (commitPolicy != null) {
+                commitPolicy.apply(request);
+            }
+            return request;
+        }
+
+        private void handleError(JSONUpdateRequest request, Exception e) {
+            requestsFailed.incrementAndGet();
+            final ErrorHandler handler = errorHandler;
+            if (handler != null) {
+                handler.handleError(request, e);
+            }
+        }
+
+        private long sizeOf(ContentStream contentStream) {
+            final Long size = contentStream.getSize();
+            return size == null ? 0 : size;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package org.apache.solr;
+
+import java.io.IOException;
+
+/**
+ * Receives the documents that a BatchBisector found Solr rejects, with the error Solr gave for
+ * each, so the rest of the batch can still be indexed.
+ *
+ * Sinks are called on the thread sending the batch, and by several threads at once when shared
+ * by the workers of a ConcurrentJSONIndexer.
+ */
+public interface DeadLetterSink {
+
+    /**
+     * @param json
+     *              the rejected document, or a whole source that could not be split into documents
+     * @param e
+     *              the failure of the request that sent only this document, its message is the
+     *              error reported by the server
+     */
+    void deadLetter(byte[] json, Exception e) throws IOException;
+
+}
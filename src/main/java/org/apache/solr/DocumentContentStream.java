@@ -0,0 +1,280 @@
+package org.apache.solr;
+
+import org.apache.solr.common.util.ContentStreamBase;
+import org.noggit.CharArr;
+import org.noggit.JSONWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A ContentStream that serializes Java objects into a JSON array as it is read, so that a batch
+ * of documents is never held in memory as a String or byte[].
+ *
+ * One document at a time is written by noggit's JSONWriter into a char buffer, then encoded as
+ * UTF-8 into a byte buffer as the HTTP client reads the stream. Both buffers are reused for every
+ * document and are taken from a small shared pool when a stream is opened and returned when it
+ * is closed, so a stream allocates little beyond what writing the documents themselves needs.
+ *
+ * Maps, Collections, arrays, Strings, Numbers, Booleans, Dates and objects implementing
+ * JSONWriter.Writable are written by DocumentWriter.OBJECTS, any other class of document needs
+ * its own DocumentWriter.
+ *
+ * A stream made from an Iterable can be read any number of times, one made from an Iterator only once.
+ */
+public class DocumentContentStream<T> extends ContentStreamBase {
+
+    static final int BYTE_BUFFER_SIZE = 8 * 1024;
+
+    static final int MAX_POOLED_BUFFERS = 32;
+
+    static final int MAX_POOLED_CHARS = 1024 * 1024;
+
+    private static final BlockingQueue<Buffers> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    /**
+     * Writes one document with a JSONWriter.
+     */
+    public interface DocumentWriter<T> {
+
+        /**
+         * Writes Maps, Collections and the other classes JSONWriter knows, and Dates as ISO 8601.
+         */
+        DocumentWriter<Object> OBJECTS = new DocumentWriter<Object>() {
+            @Override
+            public void write(Object document, JSONWriter writer) {
+                writer.write(document);
+            }
+        };
+
+        /**
+         * Writes a single document, which must be a JSON object.
+         *
+         * @param document
+         * @param writer
+         */
+        void write(T document, JSONWriter writer) throws IOException;
+    }
+
+    private final Iterable<? extends T> documents;
+
+    private Iterator<? extends T> iterator;
+
+    private final DocumentWriter<? super T> documentWriter;
+
+    /**
+     * @param documents
+     *              the documents to write each time the stream is read
+     * @param documentWriter
+     */
+    public DocumentContentStream(Iterable<? extends T> documents, DocumentWriter<? super T> documentWriter) {
+        this.documents = documents;
+        this.documentWriter = documentWriter;
+        this.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        this.setName("documents");
+    }
+
+    /**
+     * @param documents
+     *              the documents to write when the stream is read, which can be done only once
+     * @param documentWriter
+     */
+    public DocumentContentStream(Iterator<? extends T> documents, DocumentWriter<? super T> documentWriter) {
+        this.documents = null;
+        this.iterator = documents;
+        this.documentWriter = documentWriter;
+        this.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        this.setName("documents");
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+        if (documents != null) {
+            return new DocumentInputStream<>(documents.iterator(), documentWriter);
+        }
+        if (iterator == null) {
+            throw new IOException("The documents of this stream have already been read");
+        }
+        final Iterator<? extends T> documentIterator = iterator;
+        iterator = null;
+        return new DocumentInputStream<>(documentIterator, documentWriter);
+    }
+
+    /**
+     * The char and byte buffers of one open stream.
+     */
+    private static class Buffers {
+
+        private final CharArr chars = new CharArr(BYTE_BUFFER_SIZE);
+
+        private final JSONWriter writer = new DocumentJSONWriter(chars);
+
+        private final byte[] bytes = new byte[BYTE_BUFFER_SIZE];
+
+        static Buffers take() {
+            final Buffers buffers = BUFFER_POOL.poll();
+            return buffers != null ? buffers : new Buffers();
+        }
+
+        void release() {
+            if (chars.capacity() <= MAX_POOLED_CHARS) {
+                chars.reset();
+                BUFFER_POOL.offer(this);
+            }
+        }
+    }
+
+    /**
+     * A JSONWriter without indentation that writes Dates as ISO 8601 instead of garbling them.
+     */
+    private static class DocumentJSONWriter extends JSONWriter {
+
+        public DocumentJSONWriter(CharArr out) {
+            super(out, -1);
+        }
+
+        @Override
+        public void handleUnknownClass(Object o) {
+            if (o instanceof Date) {
+                writeString(((Date) o).toInstant().toString());
+            } else {
+                writeString(o.toString());
+            }
+        }
+    }
+
+    /**
+     * Writes the next document into the char buffer whenever the encoded bytes of the previous
+     * one have been read.
+     */
+    private static class DocumentInputStream<T> extends InputStream {
+
+        private final Iterator<? extends T> documents;
+
+        private final DocumentWriter<? super T> documentWriter;
+
+        private Buffers buffers = Buffers.take();
+
+        private int charPos = 0;
+
+        private int bytePos = 0;
+
+        private int byteLimit = 0;
+
+        private boolean started = false;
+
+        private boolean finished = false;
+
+        public DocumentInputStream(Iterator<? extends T> documents, DocumentWriter<? super T> documentWriter) {
+            this.documents = documents;
+            this.documentWriter = documentWriter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (bytePos == byteLimit && !fill()) {
+                return -1;
+            }
+            return buffers.bytes[bytePos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (bytePos == byteLimit && !fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, byteLimit - bytePos);
+            System.arraycopy(buffers.bytes, bytePos, b, off, n);
+            bytePos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffers != null) {
+                buffers.release();
+                buffers = null;
+            }
+        }
+
+        /**
+         * Encodes more of the current document, writing the next one when it has all been encoded.
+         */
+        private boolean fill() throws IOException {
+            if (buffers == null) {
+                throw new IOException("Stream closed");
+            }
+
+            final CharArr chars = buffers.chars;
+            if (charPos == chars.size()) {
+                if (finished) {
+                    return false;
+                }
+                chars.reset();
+                charPos = 0;
+                writeNext(chars);
+            }
+
+            encode(chars.getArray(), chars.size());
+            return true;
+        }
+
+        private void writeNext(CharArr chars) throws IOException {
+            if (!started) {
+                chars.write('[');
+            }
+            if (documents.hasNext()) {
+                if (started) {
+                    chars.write(',');
+                }
+                documentWriter.write(documents.next(), buffers.writer);
+            } else {
+                chars.write(']');
+                finished = true;
+            }
+            started = true;
+        }
+
+        /**
+         * Encodes chars as UTF-8 until the byte buffer is full, leaving room for a surrogate pair.
+         */
+        private void encode(char[] chars, int charLimit) {
+            final byte[] bytes = buffers.bytes;
+            final int byteMax = bytes.length - 4;
+            int c = charPos;
+            int b = 0;
+            while (c < charLimit && b <= byteMax) {
+                final char ch = chars[c++];
+                if (ch < 0x80) {
+                    bytes[b++] = (byte) ch;
+                } else if (ch < 0x800) {
+                    bytes[b++] = (byte) (0xC0 | (ch >> 6));
+                    bytes[b++] = (byte) (0x80 | (ch & 0x3F));
+                } else if (Character.isHighSurrogate(ch) && c < charLimit && Character.isLowSurrogate(chars[c])) {
+                    final int codePoint = Character.toCodePoint(ch, chars[c++]);
+                    bytes[b++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[b++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[b++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[b++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(ch)) {
+                    bytes[b++] = '?';
+                } else {
+                    bytes[b++] = (byte) (0xE0 | (ch >> 12));
+                    bytes[b++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                    bytes[b++] = (byte) (0x80 | (ch & 0x3F));
+                }
+            }
+            charPos = c;
+            bytePos = 0;
+            byteLimit = b;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package org.apache.solr;
+
+import org.apache.solr.common.util.ContentStreamBase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A ContentStream over a region of a file which knows its exact size and returns a new
+ * stream positioned at the start of the region on every call to getStream(), so the same
+ * content can be sent again if a request has to be retried.
+ *
+ * The region is read either through a memory mapping of the file, which avoids copying the
+ * bytes into the Java heap before they are written out, or with positional reads into a
+ * small buffer. Neither approach moves the position of a FileChannel, so one channel can be
+ * shared by many streams and threads.
+ */
+public class FileChannelContentStream extends ContentStreamBase {
+
+    /**
+     * The largest region mapped at once, larger files are mapped in several segments.
+     */
+    static final long MAX_MAPPED_SEGMENT = 1L << 30;
+
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final long offset;
+
+    private final long length;
+
+    private final boolean memoryMapped;
+
+    /**
+     * Creates a stream over the whole file at the given path, the file is opened on each
+     * call to getStream() and closed when that stream is closed.
+     *
+     * @param path
+     * @param memoryMapped
+     *              true to read through a memory mapping, false to use positional reads
+     */
+    public FileChannelContentStream(Path path, boolean memoryMapped) throws IOException {
+        this.path = path;
+        this.channel = null;
+        this.offset = 0;
+        this.length = Files.size(path);
+        this.memoryMapped = memoryMapped;
+        init(path.toString());
+    }
+
+    /**
+     * Creates a stream over a region of an open channel, the channel is never closed
+     * by this stream.
+     *
+     * @param channel
+     * @param offset
+     *              the position of the first byte of the region
+     * @param length
+     *              the number of bytes in the region
+     * @param memoryMapped
+     *              true to read through a memory mapping, false to use positional reads
+     */
+    public FileChannelContentStream(FileChannel channel, long offset, long length, boolean memoryMapped) {
+        this.path = null;
+        this.channel = channel;
+        this.offset = offset;
+        this.length = length;
+        this.memoryMapped = memoryMapped;
+        init(channel.toString());
+    }
+
+    private void init(String sourceInfo) {
+        setName(sourceInfo);
+        setSourceInfo(sourceInfo);
+        setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+        setSize(length);
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+        final boolean ownsChannel = (path != null);
+        final FileChannel streamChannel = ownsChannel ? FileChannel.open(path, StandardOpenOption.READ) : channel;
+
+        if (memoryMapped) {
+            return new MappedInputStream(streamChannel, offset, length, ownsChannel);
+        } else {
+            return new PositionalInputStream(streamChannel, offset, length, ownsChannel);
+        }
+    }
+
+    /**
+     * @return the position in the file of the first byte of this stream
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes in this stream
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Base class for reading a region of a channel which may close the channel when done.
+     */
+    private abstract static class RegionInputStream extends InputStream {
+
+        protected final FileChannel channel;
+
+        protected final long end;
+
+        protected long position;
+
+        private final boolean closeChannel;
+
+        RegionInputStream(FileChannel channel, long offset, long length, boolean closeChannel) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+            this.closeChannel = closeChannel;
+        }
+
+        /**
+         * @return a buffer with bytes remaining at the current position, or null at the end
+         */
+        protected abstract ByteBuffer current() throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            final ByteBuffer buffer = current();
+            if (buffer == null) {
+                return -1;
+            }
+            position++;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            final ByteBuffer buffer = current();
+            if (buffer == null) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a region through memory mappings of at most MAX_MAPPED_SEGMENT bytes.
+     */
+    private static class MappedInputStream extends RegionInputStream {
+
+        private MappedByteBuffer segment;
+
+        MappedInputStream(FileChannel channel, long offset, long length, boolean closeChannel) {
+            super(channel, offset, length, closeChannel);
+        }
+
+        @Override
+        protected ByteBuffer current() throws IOException {
+            if (position >= end) {
+                return null;
+            }
+            if (segment == null || !segment.hasRemaining()) {
+                final long size = Math.min(MAX_MAPPED_SEGMENT, end - position);
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Reads a region with positional reads into a small heap buffer.
+     */
+    private static class PositionalInputStream extends RegionInputStream {
+
+        private final ByteBuffer buffer;
+
+        PositionalInputStream(FileChannel channel, long offset, long length, boolean closeChannel) {
+            super(channel, offset, length, closeChannel);
+            this.buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, Math.max(1, length)));
+            this.buffer.limit(0);
+        }
+
+        @Override
+        protected ByteBuffer current() throws IOException {
+            if (position >= end) {
+                return null;
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    final int read = channel.read(buffer, position + buffer.position());
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file at position " + (position + buffer.position()));
+                    }
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+    }
+
+}
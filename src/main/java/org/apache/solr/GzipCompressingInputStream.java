@@ -0,0 +1,157 @@
+package org.apache.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses another stream into the gzip format as it is read, so a body of any size can be
+ * compressed on the fly without holding more than a small buffer of it in memory.
+ *
+ * The gzip header is followed by raw deflate output and a trailer with the CRC-32 and length
+ * of the uncompressed bytes. The time spent compressing and the number of bytes in and out are
+ * added to the CompressionStats, if given, when the end of the stream is reached.
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+    static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b,   // magic
+            Deflater.DEFLATED,   // compression method
+            0,                   // flags
+            0, 0, 0, 0,          // modification time
+            0,                   // extra flags
+            (byte) 0xff          // operating system unknown
+    };
+
+    private final InputStream source;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+
+    private final CompressionStats stats;
+
+    private byte[] framing = HEADER;
+
+    private int framingPosition = 0;
+
+    private boolean trailerWritten = false;
+
+    private long bytesRead = 0;
+
+    private long bytesWritten = 0;
+
+    private long compressionNanos = 0;
+
+    /**
+     * @param source
+     *              the uncompressed stream
+     * @param level
+     *              the deflate level from 1 (fastest) to 9 (smallest), or -1 for the default
+     * @param stats
+     *              where to record the compression ratio and time, or null
+     */
+    public GzipCompressingInputStream(InputStream source, int level, CompressionStats stats) {
+        this.source = source;
+        this.deflater = new Deflater(level, true);
+        this.stats = stats;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        final int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (framing != null) {
+                if (framingPosition < framing.length) {
+                    final int count = Math.min(len, framing.length - framingPosition);
+                    System.arraycopy(framing, framingPosition, b, off, count);
+                    framingPosition += count;
+                    bytesWritten += count;
+                    return count;
+                }
+                framing = null;
+                if (trailerWritten) {
+                    return -1;
+                }
+            }
+
+            if (deflater.finished()) {
+                framing = createTrailer();
+                framingPosition = 0;
+                trailerWritten = true;
+                if (stats != null) {
+                    stats.record(bytesRead, bytesWritten + framing.length, compressionNanos);
+                }
+                continue;
+            }
+
+            if (deflater.needsInput()) {
+                final int read = source.read(inputBuffer, 0, inputBuffer.length);
+                if (read < 0) {
+                    deflater.finish();
+                } else if (read > 0) {
+                    crc.update(inputBuffer, 0, read);
+                    deflater.setInput(inputBuffer, 0, read);
+                    bytesRead += read;
+                }
+            }
+
+            final long start = System.nanoTime();
+            final int count = deflater.deflate(b, off, len);
+            compressionNanos += System.nanoTime() - start;
+
+            if (count > 0) {
+                bytesWritten += count;
+                return count;
+            }
+        }
+    }
+
+    /**
+     * @return the number of uncompressed bytes read from the source so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of compressed bytes returned so far, including the header and trailer
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] createTrailer() {
+        final long checksum = crc.getValue();
+        final long size = deflater.getBytesRead();
+        return new byte[] {
+                (byte) checksum, (byte) (checksum >> 8), (byte) (checksum >> 16), (byte) (checksum >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+        };
+    }
+
+}
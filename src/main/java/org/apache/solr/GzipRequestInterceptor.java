@@ -0,0 +1,72 @@
+package org.apache.solr;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * Adds "Content-Encoding: gzip" to requests whose body is a GzipCompressingInputStream.
+ *
+ * HttpSolrClient has no way to set a header on a single request, so this interceptor has to be
+ * added to the HttpClient, either with HttpClientUtil.addRequestInterceptor() before the client
+ * is created or with install() afterwards. Requests that are not compressed are left unchanged.
+ */
+public class GzipRequestInterceptor implements HttpRequestInterceptor {
+
+    public static final String GZIP_ENCODING = "gzip";
+
+    /**
+     * Adds a new interceptor to the given client.
+     *
+     * @param httpClient
+     *              the client of an HttpSolrClient, as returned by getHttpClient()
+     */
+    @SuppressWarnings("deprecation")
+    public static void install(HttpClient httpClient) {
+        if (!(httpClient instanceof org.apache.http.impl.client.AbstractHttpClient)) {
+            throw new IllegalArgumentException("Unable to add an interceptor to " + httpClient.getClass().getName());
+        }
+        ((org.apache.http.impl.client.AbstractHttpClient) httpClient).addRequestInterceptor(new GzipRequestInterceptor());
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest) || request.containsHeader(HTTP.CONTENT_ENCODING)) {
+            return;
+        }
+
+        // the entity of the wrapper HttpClient passes in counts as consumed once getContent() is
+        // called on it, so look at the entity of the original request instead
+        final HttpRequest original = getOriginal(request);
+        if (!(original instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+
+        // only a streaming entity hands back the same stream it will write, a repeatable
+        // entity such as a file may open a new stream on every call
+        final HttpEntity entity = ((HttpEntityEnclosingRequest) original).getEntity();
+        if (entity != null && !entity.isRepeatable() && entity.getContent() instanceof GzipCompressingInputStream) {
+            request.addHeader(HTTP.CONTENT_ENCODING, GZIP_ENCODING);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static HttpRequest getOriginal(HttpRequest request) {
+        if (request instanceof org.apache.http.impl.client.RequestWrapper) {
+            return ((org.apache.http.impl.client.RequestWrapper) request).getOriginal();
+        }
+        if (request instanceof HttpRequestWrapper) {
+            return ((HttpRequestWrapper) request).getOriginal();
+        }
+        return request;
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.apache.solr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values that can be recorded from any number of threads
+ * without locking or allocating, and read at any time.
+ *
+ * Values below 16 are counted exactly, larger values in one of 8 buckets per power of two, so a
+ * value read back at a quantile is at most 12.5% above the recorded value. The count, sum, and
+ * max are exact. Reads made while values are being recorded may be off by the values in flight.
+ */
+public class Histogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int EXACT_VALUES = 2 * SUB_BUCKETS;
+
+    /**
+     * The exact values, then a row of sub-buckets for each exponent from 4 to 62.
+     */
+    static final int NUM_BUCKETS = EXACT_VALUES + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong(0);
+
+    private final AtomicLong sum = new AtomicLong(0);
+
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * @param value
+     *              the value to add, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if there are none
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param quantile
+     *              between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the upper bound of the bucket holding the value at the quantile, at most the max,
+     *              or 0 if there are no values
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        final long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT_VALUES) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_VALUES + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_VALUES) {
+            return bucket;
+        }
+        if (bucket == NUM_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        final int exponent = (bucket - EXACT_VALUES) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final long subBucket = (bucket - EXACT_VALUES) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p99=%d, p999=%d, max=%d", getCount(), getMean(),
+                getValueAtQuantile(0.5), getValueAtQuantile(0.99), getValueAtQuantile(0.999), getMax());
+    }
+
+}
@@ -0,0 +1,552 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.util.Hash;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Checks that a collection holds exactly the documents that a set of JSON files map to, and
+ * reports the documents that are missing from the collection, extra in it, or indexed with
+ * different values.
+ *
+ * The source files are mapped with a JSONDocumentMapper, with the same split and field mappings
+ * as the update requests that indexed them, and the collection is read a page at a time. Each
+ * document is reduced to a 64 bit hash of its key and of the values of the compared fields:
+ * <ol>
+ *     <li>the first pass adds the hashes of each side into a fixed number of buckets by key,
+ *     so it needs memory for the buckets only, whatever the size of the collection</li>
+ *     <li>when buckets differ, a second pass keeps the documents of only those buckets, and
+ *     matches them by key to find what differs</li>
+ * </ol>
+ * So memory grows with the number of differences rather than with the number of documents,
+ * and a consistent collection is checked in a single read of each side.
+ *
+ * With a key field, usually the uniqueKey, documents are matched by key and the collection is
+ * paged with cursorMark sorted on it. The key must be mapped from the source. If a source holds
+ * a key more than once, the last document with it is expected, as Solr overwrites the others.
+ * Without a key field, documents are matched by their values, and the collection is paged with
+ * start and rows sorted by internal document id, since cursorMark needs a uniqueKey; the index
+ * must not change while it is read. Each page then collects every document before it, so reading
+ * the collection costs O(n^2) in the number of documents, and a merge during the read can move
+ * documents between pages. Keyless mode is therefore refused with an IllegalArgumentException
+ * when more than MAX_KEYLESS_DOCS documents match the query, and large collections need a key.
+ *
+ * Values are compared as strings: integral numbers as longs, other numbers as floats, dates as
+ * ISO-8601 instants, and multiple values in order. The documents in the collection that are
+ * compared can be restricted with a query.
+ *
+ * This class is not thread-safe.
+ */
+public class IndexReconciler {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    public static final int DEFAULT_NUM_BUCKETS = 1 << 16;
+
+    public static final int DEFAULT_MAX_REPORTED = 100;
+
+    public static final int MAX_KEYLESS_DOCS = 100000;
+
+    static final char FIELD_SEPARATOR = '\u001e';
+
+    static final char VALUE_SEPARATOR = '\u001f';
+
+    static final long SEED = 0x5bd1e995L;
+
+    private final SolrClient solrClient;
+
+    private final String collection;
+
+    private final JSONDocumentMapper documentMapper;
+
+    private final TreeSet<String> fields = new TreeSet<>();
+
+    private String keyField;
+
+    private String query = "*:*";
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    private int numBuckets = DEFAULT_NUM_BUCKETS;
+
+    private int maxReported = DEFAULT_MAX_REPORTED;
+
+    private int maxKeylessDocs = MAX_KEYLESS_DOCS;
+
+    /**
+     * The differences found by reconcile().
+     */
+    public static class Report {
+
+        private long expected;
+
+        private long actual;
+
+        private long missing;
+
+        private long extra;
+
+        private long mismatched;
+
+        private final List<String> missingSamples = new ArrayList<>();
+
+        private final List<String> extraSamples = new ArrayList<>();
+
+        private final List<String> mismatchedSamples = new ArrayList<>();
+
+        /**
+         * @return the number of documents mapped from the source
+         */
+        public long getExpected() {
+            return expected;
+        }
+
+        /**
+         * @return the number of documents read from the collection
+         */
+        public long getActual() {
+            return actual;
+        }
+
+        /**
+         * @return the number of source documents not in the collection
+         */
+        public long getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return the number of documents in the collection not in the source
+         */
+        public long getExtra() {
+            return extra;
+        }
+
+        /**
+         * @return the number of documents whose key is on both sides with different values
+         */
+        public long getMismatched() {
+            return mismatched;
+        }
+
+        /**
+         * @return the keys of some of the missing documents, or their values when there is no key
+         */
+        public List<String> getMissingSamples() {
+            return Collections.unmodifiableList(missingSamples);
+        }
+
+        /**
+         * @return the keys of some of the extra documents, or their values when there is no key
+         */
+        public List<String> getExtraSamples() {
+            return Collections.unmodifiableList(extraSamples);
+        }
+
+        /**
+         * @return the keys of some of the mismatched documents
+         */
+        public List<String> getMismatchedSamples() {
+            return Collections.unmodifiableList(mismatchedSamples);
+        }
+
+        /**
+         * @return true if the collection holds exactly the source documents
+         */
+        public boolean isConsistent() {
+            return missing == 0 && extra == 0 && mismatched == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "expected=" + expected + ", actual=" + actual + ", missing=" + missing + " " + missingSamples
+                    + ", extra=" + extra + " " + extraSamples + ", mismatched=" + mismatched + " " + mismatchedSamples;
+        }
+    }
+
+    /**
+     * Compares the fields named by the field mappings of the mapper.
+     *
+     * @param solrClient
+     * @param collection
+     *              the collection to read, or null to use the client's default
+     * @param documentMapper
+     *              maps the source with the split and field mappings used to index it
+     */
+    public IndexReconciler(SolrClient solrClient, String collection, JSONDocumentMapper documentMapper) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+        this.documentMapper = documentMapper;
+        for (String fieldMapping : documentMapper.getFieldMappings()) {
+            final String field = fieldMapping.substring(0, Math.max(fieldMapping.indexOf(':'), 0));
+            if (!field.isEmpty() && field.indexOf('*') < 0 && field.indexOf('$') < 0) {
+                fields.add(field);
+            }
+        }
+    }
+
+    /**
+     * @param keyField
+     *              the field that identifies a document on both sides, normally the uniqueKey,
+     *              or null to match documents by their values, which pages the collection with
+     *              start and rows and so is refused above MAX_KEYLESS_DOCS documents
+     */
+    public void setKeyField(String keyField) {
+        this.keyField = keyField;
+    }
+
+    /**
+     * @param fields
+     *              the fields to compare instead of those named by the field mappings, needed when
+     *              the mappings use wildcards
+     */
+    public void setFields(Collection<String> fields) {
+        this.fields.clear();
+        this.fields.addAll(fields);
+    }
+
+    /**
+     * @param query
+     *              selects the documents of the collection to compare, "*:*" by default
+     */
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    /**
+     * @param pageSize
+     *              the number of documents read from the collection per request
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param numBuckets
+     *              the number of buckets the hashes are added into, more buckets make the second
+     *              pass keep fewer documents for each difference
+     */
+    public void setNumBuckets(int numBuckets) {
+        if (numBuckets < 1) {
+            throw new IllegalArgumentException("numBuckets must be at least 1");
+        }
+        this.numBuckets = numBuckets;
+    }
+
+    /**
+     * @param maxReported
+     *              the most samples of each kind of difference kept in the report
+     */
+    public void setMaxReported(int maxReported) {
+        this.maxReported = maxReported;
+    }
+
+    /**
+     * Lowers the most documents reconciled without a key field, for testing.
+     */
+    void setMaxKeylessDocs(int maxKeylessDocs) {
+        this.maxKeylessDocs = maxKeylessDocs;
+    }
+
+    /**
+     * Compares the documents the files map to with the documents of the collection.
+     *
+     * @param jsonFiles
+     *              the source JSON, read once, or twice if there are differences
+     * @return the differences
+     * @throws IllegalArgumentException
+     *              if there is no key field and more than MAX_KEYLESS_DOCS documents match the query
+     */
+    public Report reconcile(List<File> jsonFiles) throws IOException, SolrServerException {
+        if (fields.isEmpty()) {
+            throw new IllegalStateException("No fields to compare, the field mappings only have wildcards");
+        }
+        if (keyField == null) {
+            final long numFound = solrClient.query(collection, new SolrQuery(query).setRows(0))
+                    .getResults().getNumFound();
+            if (numFound > maxKeylessDocs) {
+                throw new IllegalArgumentException("The query matches " + numFound + " documents, more than the "
+                        + maxKeylessDocs + " that can be reconciled without a key field, set a key field");
+            }
+        }
+
+        final BucketSums expected = new BucketSums();
+        readSource(jsonFiles, expected);
+        final BucketSums actual = new BucketSums();
+        readCollection(actual);
+
+        final Report report = new Report();
+        report.expected = expected.docs;
+        report.actual = actual.docs;
+
+        final BitSet differing = new BitSet(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            if (expected.counts[i] != actual.counts[i] || expected.sums[i] != actual.sums[i]) {
+                differing.set(i);
+            }
+        }
+        if (differing.isEmpty()) {
+            return report;
+        }
+
+        final Entries expectedEntries = new Entries(differing);
+        readSource(jsonFiles, expectedEntries);
+        final Entries actualEntries = new Entries(differing);
+        readCollection(actualEntries);
+        compare(expectedEntries.entries, actualEntries.entries, report);
+        return report;
+    }
+
+    private void compare(Map<String, Entry> expected, Map<String, Entry> actual, Report report) {
+        for (Map.Entry<String, Entry> expectedEntry : expected.entrySet()) {
+            final Entry e = expectedEntry.getValue();
+            final Entry a = actual.remove(expectedEntry.getKey());
+            if (a == null) {
+                report.missing += e.count;
+                sample(report.missingSamples, expectedEntry.getKey());
+            } else if (keyField != null) {
+                // a key is only indexed once, whatever the count in the source
+                if (a.contentHash != e.contentHash) {
+                    report.mismatched++;
+                    sample(report.mismatchedSamples, expectedEntry.getKey());
+                }
+                if (a.count > 1) {
+                    report.extra += a.count - 1;
+                    sample(report.extraSamples, expectedEntry.getKey());
+                }
+            } else if (a.count < e.count) {
+                report.missing += e.count - a.count;
+                sample(report.missingSamples, expectedEntry.getKey());
+            } else if (a.count > e.count) {
+                report.extra += a.count - e.count;
+                sample(report.extraSamples, expectedEntry.getKey());
+            }
+        }
+
+        for (Map.Entry<String, Entry> actualEntry : actual.entrySet()) {
+            report.extra += actualEntry.getValue().count;
+            sample(report.extraSamples, actualEntry.getKey());
+        }
+    }
+
+    private void sample(List<String> samples, String key) {
+        if (samples.size() < maxReported) {
+            samples.add(key);
+        }
+    }
+
+    /**
+     * Maps every source file and passes each document to the sink.
+     */
+    private void readSource(List<File> jsonFiles, final DocumentSink sink) throws IOException {
+        final StringBuilder content = new StringBuilder();
+        for (File jsonFile : jsonFiles) {
+            try (Reader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(jsonFile), StandardCharsets.UTF_8))) {
+                documentMapper.map(reader, new JSONDocumentMapper.DocumentHandler() {
+                    @Override
+                    public void handle(SolrInputDocument document) {
+                        content.setLength(0);
+                        for (String field : fields) {
+                            appendField(content, field, document.getFieldValues(field));
+                        }
+                        final Collection<Object> keys = keyField == null ? null : document.getFieldValues(keyField);
+                        sink.add(toKey(keys, content), content);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Pages through the documents of the collection and passes each document to the sink.
+     */
+    private void readCollection(DocumentSink sink) throws IOException, SolrServerException {
+        final SolrQuery solrQuery = new SolrQuery(query);
+        solrQuery.setRows(pageSize);
+        for (String field : fields) {
+            solrQuery.addField(field);
+        }
+        if (keyField != null) {
+            solrQuery.addField(keyField);
+            solrQuery.setSort(keyField, SolrQuery.ORDER.asc);
+        } else {
+            solrQuery.setSort("_docid_", SolrQuery.ORDER.asc);
+        }
+
+        final StringBuilder content = new StringBuilder();
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        int start = 0;
+        while (true) {
+            if (keyField != null) {
+                solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            } else {
+                solrQuery.setStart(start);
+            }
+
+            final QueryResponse response = solrClient.query(collection, solrQuery);
+            for (SolrDocument document : response.getResults()) {
+                content.setLength(0);
+                for (String field : fields) {
+                    appendField(content, field, document.getFieldValues(field));
+                }
+                final Collection<Object> keys = keyField == null ? null : document.getFieldValues(keyField);
+                sink.add(toKey(keys, content), content);
+            }
+
+            if (keyField != null) {
+                final String nextCursorMark = response.getNextCursorMark();
+                if (cursorMark.equals(nextCursorMark)) {
+                    return;
+                }
+                cursorMark = nextCursorMark;
+            } else {
+                if (response.getResults().size() < pageSize) {
+                    return;
+                }
+                start += pageSize;
+            }
+        }
+    }
+
+    /**
+     * @return the key of a document, or its content when it has no key
+     */
+    private static String toKey(Collection<Object> keys, CharSequence content) {
+        if (keys == null || keys.isEmpty()) {
+            return content.toString();
+        }
+        final StringBuilder key = new StringBuilder();
+        appendValues(key, keys);
+        return key.toString();
+    }
+
+    private static void appendField(StringBuilder content, String field, Collection<Object> values) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        if (content.length() > 0) {
+            content.append(FIELD_SEPARATOR);
+        }
+        content.append(field).append('=');
+        appendValues(content, values);
+    }
+
+    private static void appendValues(StringBuilder content, Collection<Object> values) {
+        boolean first = true;
+        for (Object value : values) {
+            if (!first) {
+                content.append(VALUE_SEPARATOR);
+            }
+            first = false;
+
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                content.append(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                content.append(((Number) value).floatValue());
+            } else if (value instanceof Date) {
+                content.append(((Date) value).toInstant());
+            } else {
+                content.append(value);
+            }
+        }
+    }
+
+    private static long hash(CharSequence value) {
+        return Hash.lookup3ycs64(value, 0, value.length(), SEED);
+    }
+
+    /**
+     * Receives the key and content of each document of one side.
+     */
+    private interface DocumentSink {
+
+        void add(String key, CharSequence content);
+
+    }
+
+    /**
+     * The first pass, the count and the sum of the hashes of the documents in each bucket.
+     */
+    private class BucketSums implements DocumentSink {
+
+        private final long[] counts = new long[numBuckets];
+
+        private final long[] sums = new long[numBuckets];
+
+        private long docs = 0;
+
+        @Override
+        public void add(String key, CharSequence content) {
+            final long keyHash = hash(key);
+            final int bucket = (int) Long.remainderUnsigned(keyHash, numBuckets);
+            counts[bucket]++;
+            // addition doesn't depend on the order the documents are read in
+            sums[bucket] += Hash.fmix64(keyHash * 31 + hash(content));
+            docs++;
+        }
+    }
+
+    /**
+     * A key in the differing buckets, the hash of its last content and the number of documents with it.
+     */
+    private static class Entry {
+
+        private long contentHash;
+
+        private long count;
+    }
+
+    /**
+     * The second pass, the documents in the buckets that differ.
+     */
+    private class Entries implements DocumentSink {
+
+        private final BitSet buckets;
+
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        Entries(BitSet buckets) {
+            this.buckets = buckets;
+        }
+
+        @Override
+        public void add(String key, CharSequence content) {
+            final long keyHash = hash(key);
+            if (!buckets.get((int) Long.remainderUnsigned(keyHash, numBuckets))) {
+                return;
+            }
+
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.contentHash = hash(content);
+            entry.count++;
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+package org.apache.solr;
+
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ContentStreamBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Divides a file holding one top-level JSON array of objects into byte ranges on element
+ * boundaries, so that the parts of a very large array can be sent by several concurrent
+ * JSONUpdateRequests instead of through one stream on one thread.
+ *
+ * The file is scanned through a memory mapping, tracking only string/escape state and nesting
+ * depth, without parsing the elements or holding more than a small scan buffer in memory. Each
+ * range is sent straight from the mapping as a FileChannelContentStream wrapped in '[' and ']',
+ * which the custom JSON update handler accepts as an array of documents.
+ *
+ * Ranges are found one at a time by nextRange(), so they can be handed to senders, e.g. a
+ * ConcurrentJSONIndexer, while the rest of the file is still being scanned. A range is closed at
+ * the first element boundary after it reaches the target number of bytes.
+ *
+ * The channel is never closed by this class and must stay open until every range has been sent.
+ *
+ * This class is not thread-safe, the ranges it returns are.
+ */
+public class JSONArraySplitter {
+
+    public static final long DEFAULT_TARGET_RANGE_BYTES = 8 * 1024 * 1024;
+
+    static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] ARRAY_START = {'['};
+
+    private static final byte[] ARRAY_END = {']'};
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final long targetRangeBytes;
+
+    private long mappedSegmentSize = FileChannelContentStream.MAX_MAPPED_SEGMENT;
+
+    private MappedByteBuffer segment;
+
+    private long segmentOffset = 0;
+
+    private final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+
+    private int bufferPos = 0;
+
+    private int bufferLimit = 0;
+
+    private long bufferOffset = 0;
+
+    private boolean started = false;
+
+    private boolean finished = false;
+
+    /**
+     * @param channel
+     *              the file to split, which is not closed by this splitter
+     */
+    public JSONArraySplitter(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_TARGET_RANGE_BYTES);
+    }
+
+    /**
+     * @param channel
+     *              the file to split, which is not closed by this splitter
+     * @param targetRangeBytes
+     *              the number of bytes after which a range is closed
+     */
+    public JSONArraySplitter(FileChannel channel, long targetRangeBytes) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.targetRangeBytes = targetRangeBytes;
+    }
+
+    /**
+     * Maps the file in smaller segments, for testing ranges that cross segments.
+     */
+    void setMappedSegmentSize(long mappedSegmentSize) {
+        this.mappedSegmentSize = mappedSegmentSize;
+    }
+
+    /**
+     * Scans the next range of elements.
+     *
+     * @return the next range, or null when the end of the array has been reached
+     */
+    public Range nextRange() throws IOException {
+        if (!started) {
+            skipToArray();
+            started = true;
+        }
+        if (finished || !skipToElement()) {
+            return null;
+        }
+
+        final long start = getPosition();
+        long end;
+        int numDocs = 0;
+        do {
+            skipElement();
+            end = getPosition();
+            numDocs++;
+        } while (end - start < targetRangeBytes && skipToElement());
+
+        return new Range(channel, start, end - start, numDocs);
+    }
+
+    /**
+     * @return the number of bytes of the file scanned so far
+     */
+    public long getPosition() {
+        return bufferOffset + bufferPos;
+    }
+
+    /**
+     * Skips whitespace up to and including the '[' that starts the file.
+     */
+    private void skipToArray() throws IOException {
+        while (true) {
+            if (bufferPos == bufferLimit && !fill()) {
+                throw new IOException("Expected a top-level JSON array but the file is empty");
+            }
+            final byte b = buffer[bufferPos++];
+            if (b == '[') {
+                return;
+            }
+            if (!isWhitespace(b)) {
+                throw new IOException("Expected a top-level JSON array but found '" + (char) b
+                        + "' at position " + (getPosition() - 1));
+            }
+        }
+    }
+
+    /**
+     * Skips whitespace and commas between elements, and the ']' that ends the array.
+     *
+     * @return true if positioned on the start of an element, false at the end of the array
+     */
+    private boolean skipToElement() throws IOException {
+        while (true) {
+            if (bufferPos == bufferLimit && !fill()) {
+                throw new IOException("Unexpected end of file inside the top-level array");
+            }
+
+            final byte b = buffer[bufferPos];
+            if (b == '{') {
+                return true;
+            } else if (b == ']') {
+                bufferPos++;
+                finished = true;
+                return false;
+            } else if (b != ',' && !isWhitespace(b)) {
+                throw new IOException("Expected a JSON object but found '" + (char) b
+                        + "' at position " + getPosition());
+            }
+            bufferPos++;
+        }
+    }
+
+    /**
+     * Moves past one complete object, starting at the current position.
+     */
+    private void skipElement() throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        while (true) {
+            if (bufferPos == bufferLimit && !fill()) {
+                throw new IOException("Unexpected end of file inside an element");
+            }
+
+            final byte[] bytes = buffer;
+            final int limit = bufferLimit;
+            for (int i = bufferPos; i < limit; i++) {
+                final byte b = bytes[i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        bufferPos = i + 1;
+                        return;
+                    }
+                }
+            }
+            bufferPos = limit;
+        }
+    }
+
+    /**
+     * Copies the next part of the mapped file into the scan buffer, mapping the next segment
+     * when the current one is used up. Scanning a heap array is faster than reading the mapping
+     * a byte at a time, and the bulk copy is cheap.
+     */
+    private boolean fill() throws IOException {
+        bufferOffset += bufferLimit;
+        bufferPos = 0;
+        bufferLimit = 0;
+        if (bufferOffset >= size) {
+            return false;
+        }
+
+        if (segment == null || bufferOffset >= segmentOffset + segment.capacity()) {
+            segmentOffset = bufferOffset;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffset,
+                    Math.min(mappedSegmentSize, size - segmentOffset));
+        }
+
+        final int position = (int) (bufferOffset - segmentOffset);
+        bufferLimit = Math.min(buffer.length, segment.capacity() - position);
+        segment.position(position);
+        segment.get(buffer, 0, bufferLimit);
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * A range of the file holding one or more complete elements of the array, and the commas
+     * and whitespace between them.
+     */
+    public static class Range {
+
+        private final FileChannel channel;
+
+        private final long offset;
+
+        private final long length;
+
+        private final int numDocs;
+
+        Range(FileChannel channel, long offset, long length, int numDocs) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.numDocs = numDocs;
+        }
+
+        /**
+         * @return the position in the file of the first element
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of bytes from the start of the first element to the end of the last
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the number of elements in this range
+         */
+        public int getNumDocs() {
+            return numDocs;
+        }
+
+        /**
+         * @return a ContentStream of the elements of this range as a JSON array, read through a
+         *              memory mapping each time getStream() is called
+         */
+        public ContentStream getContentStream() {
+            final FileChannelContentStream elements = new FileChannelContentStream(channel, offset, length, true);
+            final ContentStreamBase stream = new ContentStreamBase() {
+                @Override
+                public InputStream getStream() throws IOException {
+                    return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                            new ByteArrayInputStream(ARRAY_START),
+                            elements.getStream(),
+                            new ByteArrayInputStream(ARRAY_END))));
+                }
+            };
+            stream.setName(elements.getName());
+            stream.setSourceInfo(elements.getSourceInfo());
+            stream.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+            stream.setSize(length + 2);
+            return stream;
+        }
+
+        @Override
+        public String toString() {
+            return "Range[offset=" + offset + ", length=" + length + ", docs=" + numDocs + "]";
+        }
+    }
+
+}
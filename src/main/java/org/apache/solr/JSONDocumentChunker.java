@@ -0,0 +1,348 @@
+package org.apache.solr;
+
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ContentStreamBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads an unbounded stream of JSON documents and cuts it into bounded chunks on document
+ * boundaries, each chunk being a JSON array that the custom JSON update handler accepts.
+ *
+ * The input may be newline delimited JSON, concatenated JSON objects with or without any
+ * separator, or top-level arrays of objects. Every top-level object is one document.
+ *
+ * Only one chunk is held in memory at a time. A chunk is closed at the first document boundary
+ * after it reaches the maximum number of bytes or documents, so a chunk is never larger than
+ * the maximum plus one document.
+ *
+ * The boundaries are found by tracking nesting depth and string/escape state of the raw bytes,
+ * the documents themselves are not parsed, so this is safe for UTF-8 input.
+ *
+ * This class is not thread-safe.
+ */
+public class JSONDocumentChunker implements Closeable {
+
+    public static final int DEFAULT_MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_CHUNK_DOCS = 1000;
+
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+
+    private final int maxChunkBytes;
+
+    private final int maxChunkDocs;
+
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+    private int readPos = 0;
+
+    private int readLimit = 0;
+
+    private long readBufferOffset = 0;
+
+    private boolean inArray = false;
+
+    private boolean eof = false;
+
+    /**
+     * @param inputStream
+     *              the JSON to read
+     */
+    public JSONDocumentChunker(InputStream inputStream) {
+        this(inputStream, DEFAULT_MAX_CHUNK_BYTES, DEFAULT_MAX_CHUNK_DOCS);
+    }
+
+    /**
+     * @param inputStream
+     *              the JSON to read
+     * @param maxChunkBytes
+     *              the number of bytes after which a chunk is closed
+     * @param maxChunkDocs
+     *              the maximum number of documents in a chunk
+     */
+    public JSONDocumentChunker(InputStream inputStream, int maxChunkBytes, int maxChunkDocs) {
+        this(inputStream, maxChunkBytes, maxChunkDocs, false);
+    }
+
+    /**
+     * @param inputStream
+     *              the JSON to read
+     * @param maxChunkBytes
+     *              the number of bytes after which a chunk is closed
+     * @param maxChunkDocs
+     *              the maximum number of documents in a chunk
+     * @param inArray
+     *              true if the input starts inside a top-level array, e.g. when it resumes from the
+     *              end offset of a chunk whose isEndInArray() was true
+     */
+    public JSONDocumentChunker(InputStream inputStream, int maxChunkBytes, int maxChunkDocs, boolean inArray) {
+        this.inputStream = inputStream;
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxChunkDocs = maxChunkDocs;
+        this.inArray = inArray;
+    }
+
+    /**
+     * Reads the next chunk of documents.
+     *
+     * @return the next chunk, or null when there are no more documents
+     */
+    public Chunk nextChunk() throws IOException {
+        final Chunk chunk = new Chunk(Math.min(maxChunkBytes + 2, READ_BUFFER_SIZE));
+
+        while (chunk.numDocs < maxChunkDocs && chunk.length < maxChunkBytes) {
+            if (!skipToDocument()) {
+                break;
+            }
+
+            if (chunk.numDocs == 0) {
+                chunk.startOffset = getPosition();
+            }
+            chunk.append(chunk.numDocs == 0 ? (byte) '[' : (byte) ',');
+            readDocument(chunk);
+            chunk.numDocs++;
+            chunk.endOffset = getPosition();
+            chunk.endInArray = inArray;
+        }
+
+        if (chunk.numDocs == 0) {
+            return null;
+        }
+
+        chunk.append((byte) ']');
+        return chunk;
+    }
+
+    /**
+     * @return the number of bytes of the input consumed so far
+     */
+    public long getPosition() {
+        return readBufferOffset + readPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * Skips whitespace, separators, and the brackets of top-level arrays.
+     *
+     * @return true if positioned on the start of a document, false at the end of input
+     */
+    private boolean skipToDocument() throws IOException {
+        while (true) {
+            if (readPos == readLimit && !fill()) {
+                if (inArray) {
+                    throw new IOException("Unexpected end of input inside a top-level array");
+                }
+                return false;
+            }
+
+            final byte b = readBuffer[readPos];
+            switch (b) {
+                case '{':
+                    return true;
+                case '[':
+                    if (inArray) {
+                        throw new IOException("Nested top-level array at position " + getPosition());
+                    }
+                    inArray = true;
+                    break;
+                case ']':
+                    if (!inArray) {
+                        throw new IOException("Unexpected ']' at position " + getPosition());
+                    }
+                    inArray = false;
+                    break;
+                case ',':
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                    break;
+                default:
+                    throw new IOException("Expected a JSON object but found '" + (char) b
+                            + "' at position " + getPosition());
+            }
+            readPos++;
+        }
+    }
+
+    /**
+     * Copies one complete object, starting at the current position, into the chunk.
+     */
+    private void readDocument(Chunk chunk) throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        while (true) {
+            if (readPos == readLimit && !fill()) {
+                throw new IOException("Unexpected end of input inside a document");
+            }
+
+            final byte[] buffer = readBuffer;
+            final int start = readPos;
+            final int limit = readLimit;
+            int i = start;
+
+            for (; i < limit; i++) {
+                final byte b = buffer[i];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        i++;
+                        chunk.append(buffer, start, i - start);
+                        readPos = i;
+                        return;
+                    }
+                }
+            }
+
+            chunk.append(buffer, start, limit - start);
+            readPos = limit;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        readBufferOffset += readLimit;
+        readPos = 0;
+        readLimit = 0;
+
+        int read = inputStream.read(readBuffer, 0, readBuffer.length);
+        while (read == 0) {
+            read = inputStream.read(readBuffer, 0, readBuffer.length);
+        }
+
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+
+        readLimit = read;
+        return true;
+    }
+
+    /**
+     * A JSON array of one or more complete documents.
+     */
+    public static class Chunk {
+
+        private byte[] bytes;
+
+        private int length = 0;
+
+        private int numDocs = 0;
+
+        private long startOffset;
+
+        private long endOffset;
+
+        private boolean endInArray;
+
+        Chunk(int initialCapacity) {
+            this.bytes = new byte[initialCapacity];
+        }
+
+        void append(byte b) {
+            ensureCapacity(length + 1);
+            bytes[length++] = b;
+        }
+
+        void append(byte[] source, int offset, int count) {
+            ensureCapacity(length + count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        /**
+         * @return the number of documents in this chunk
+         */
+        public int getNumDocs() {
+            return numDocs;
+        }
+
+        /**
+         * @return the number of bytes in this chunk
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the position in the input of the first document in this chunk
+         */
+        public long getStartOffset() {
+            return startOffset;
+        }
+
+        /**
+         * @return the position in the input just after the last document in this chunk
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * @return true if the last document in this chunk is inside a top-level array, so the input
+         *              after the end offset is the rest of that array
+         */
+        public boolean isEndInArray() {
+            return endInArray;
+        }
+
+        /**
+         * @return a copy of the bytes of this chunk
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        /**
+         * @return a ContentStream over this chunk which can be added to a JSONUpdateRequest, named
+         *              after its offset so HttpSolrClient sends it along with other streams
+         */
+        public ContentStream getContentStream() {
+            final ContentStreamBase stream = new ContentStreamBase() {
+                @Override
+                public InputStream getStream() throws IOException {
+                    return new ByteArrayInputStream(bytes, 0, length);
+                }
+            };
+            stream.setName("chunk-" + startOffset);
+            stream.setContentType(JSONUpdateRequest.JSON_CONTENT_TYPE);
+            stream.setSize((long) length);
+            return stream;
+        }
+    }
+
+}
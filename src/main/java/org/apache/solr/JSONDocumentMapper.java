@@ -0,0 +1,372 @@
+package org.apache.solr;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.JsonRecordReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the split and field mappings of the custom JSON update handler on the client,
+ * producing SolrInputDocuments from a stream of JSON.
+ *
+ * This uses the same streaming JsonRecordReader that Solr uses on the server, so documents
+ * produced here have the same fields and values Solr would produce from the same params.
+ *
+ * The split and field mappings are compiled once into a tree of path segments, and every
+ * mapped field is extracted in a single pass over the tokens of the input without building
+ * the whole document in memory. A mapper is immutable and may be shared by many threads.
+ *
+ * In block join mode, instead of one flattened document per split record that repeats every
+ * field of the enclosing object, each top-level object becomes one parent document holding its
+ * own fields once, with a child document for each split record holding only the fields of that
+ * record. Every document is given a uniqueKey if it doesn't have one, the parent's an MD5 digest
+ * of the fields of the parent and its children and the children's derived from the parent's, so
+ * that sending the same object again replaces its block instead of adding a second one. Objects
+ * without an id and with the same fields share a block. Every document is given a TYPE_FIELD
+ * of PARENT_TYPE or CHILD_TYPE, so that parents can be found with {!parent which="doc_type:parent"}
+ * and children with {!child of="doc_type:parent"}.
+ */
+public class JSONDocumentMapper {
+
+    /**
+     * The split Solr uses when the request does not specify one.
+     */
+    public static final String DEFAULT_SPLIT = "/";
+
+    /**
+     * The mapping Solr uses when the request does not specify any field mappings.
+     */
+    public static final String DEFAULT_FIELD_MAPPING = "$FQN:/**";
+
+    /**
+     * The field that tells parents from children in block join mode.
+     */
+    public static final String TYPE_FIELD = "doc_type";
+
+    public static final String PARENT_TYPE = "parent";
+
+    public static final String CHILD_TYPE = "child";
+
+    /**
+     * Receives each document as soon as it has been read.
+     */
+    public interface DocumentHandler {
+
+        void handle(SolrInputDocument document) throws IOException;
+
+    }
+
+    private final String split;
+
+    private final List<String> fieldMappings;
+
+    private final String blockJoinIdField;
+
+    private final Set<String> childFields = new HashSet<>();
+
+    private final JsonRecordReader recordReader;
+
+    /**
+     * @param split
+     *              the split path, or null to use the default
+     * @param fieldMappings
+     *              mappings in the form "field:jsonPath", or null/empty to use the default
+     */
+    public JSONDocumentMapper(String split, List<String> fieldMappings) {
+        this(split, fieldMappings, null);
+    }
+
+    /**
+     * @param split
+     *              the split path, or null to use the default
+     * @param fieldMappings
+     *              mappings in the form "field:jsonPath", or null/empty to use the default
+     * @param blockJoinIdField
+     *              the uniqueKey of the collection to produce parent and child documents, the
+     *              split must then be below the root, or null to produce flattened documents
+     */
+    public JSONDocumentMapper(String split, List<String> fieldMappings, String blockJoinIdField) {
+        this.split = split == null ? DEFAULT_SPLIT : split;
+        if (fieldMappings == null || fieldMappings.isEmpty()) {
+            this.fieldMappings = Collections.singletonList(DEFAULT_FIELD_MAPPING);
+        } else {
+            this.fieldMappings = Collections.unmodifiableList(new ArrayList<>(fieldMappings));
+        }
+        this.blockJoinIdField = blockJoinIdField;
+
+        if (blockJoinIdField == null) {
+            this.recordReader = JsonRecordReader.getInst(this.split, this.fieldMappings);
+        } else {
+            if (DEFAULT_SPLIT.equals(this.split) || this.split.contains("|")) {
+                throw new IllegalArgumentException("Block join needs a single split below the root but was " + this.split);
+            }
+            for (String fieldMapping : this.fieldMappings) {
+                final int separator = fieldMapping.indexOf(':');
+                if (separator > 0 && fieldMapping.startsWith(this.split + "/", separator + 1)) {
+                    childFields.add(fieldMapping.substring(0, separator));
+                }
+            }
+            // the root is a second split, whose record arrives after the records of its children
+            this.recordReader = JsonRecordReader.getInst(DEFAULT_SPLIT + "|" + this.split, this.fieldMappings);
+        }
+    }
+
+    /**
+     * Creates a mapper from the "split" and "f" params of an update request.
+     *
+     * @param params
+     * @return a mapper for the given params
+     */
+    public static JSONDocumentMapper fromParams(SolrParams params) {
+        return fromParams(params, null);
+    }
+
+    /**
+     * Creates a mapper from the "split" and "f" params of an update request.
+     *
+     * @param params
+     * @param blockJoinIdField
+     *              the uniqueKey to produce parent and child documents, or null to produce flattened documents
+     * @return a mapper for the given params
+     */
+    public static JSONDocumentMapper fromParams(SolrParams params, String blockJoinIdField) {
+        final String[] mappings = params.getParams("f");
+        return new JSONDocumentMapper(params.get("split"),
+                mappings == null ? null : Arrays.asList(mappings), blockJoinIdField);
+    }
+
+    /**
+     * Reads all of the JSON from the given Reader, passing each document to the handler.
+     *
+     * @param jsonReader
+     * @param handler
+     */
+    public void map(Reader jsonReader, final DocumentHandler handler) throws IOException {
+        final List<Map<String, Object>> childRecords = new ArrayList<>();
+        try {
+            recordReader.streamRecords(jsonReader, new JsonRecordReader.Handler() {
+                @Override
+                public void handle(Map<String, Object> record, String path) {
+                    try {
+                        if (blockJoinIdField == null) {
+                            handler.handle(toDocument(record));
+                        } else if (split.equals(path)) {
+                            childRecords.add(new LinkedHashMap<>(record));
+                        } else {
+                            handler.handle(toBlock(record, childRecords));
+                            childRecords.clear();
+                        }
+                    } catch (IOException e) {
+                        throw new MappingException(e);
+                    }
+                }
+            });
+        } catch (MappingException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /**
+     * Reads all of the JSON from the given Reader.
+     *
+     * @param jsonReader
+     * @return the documents produced from the JSON
+     */
+    public List<SolrInputDocument> map(Reader jsonReader) throws IOException {
+        final List<SolrInputDocument> documents = new ArrayList<>();
+        map(jsonReader, new DocumentHandler() {
+            @Override
+            public void handle(SolrInputDocument document) {
+                documents.add(document);
+            }
+        });
+        return documents;
+    }
+
+    /**
+     * @return the split path
+     */
+    public String getSplit() {
+        return split;
+    }
+
+    /**
+     * @return the field mappings in the form "field:jsonPath"
+     */
+    public List<String> getFieldMappings() {
+        return fieldMappings;
+    }
+
+    /**
+     * @return the uniqueKey given to parent and child documents, or null if documents are flattened
+     */
+    public String getBlockJoinIdField() {
+        return blockJoinIdField;
+    }
+
+    /**
+     * Converts the record of a top-level object into a parent document with a child document
+     * for each of its split records. The split records also carry the parent fields read before
+     * them, only the fields mapped from below the split, or missing from the parent, are kept.
+     */
+    private SolrInputDocument toBlock(Map<String, Object> parentRecord, List<Map<String, Object>> childRecords) {
+        final SolrInputDocument parent = toDocument(parentRecord);
+        if (parent.getFieldValue(blockJoinIdField) == null) {
+            parent.setField(blockJoinIdField, digest(parentRecord, childRecords));
+        }
+        parent.setField(TYPE_FIELD, PARENT_TYPE);
+
+        final String parentId = parent.getFieldValue(blockJoinIdField).toString();
+        for (int i = 0; i < childRecords.size(); i++) {
+            final Map<String, Object> childRecord = childRecords.get(i);
+            childRecord.keySet().retainAll(getChildKeys(childRecord, parentRecord));
+
+            final SolrInputDocument child = toDocument(childRecord);
+            if (child.getFieldValue(blockJoinIdField) == null) {
+                child.setField(blockJoinIdField, parentId + "/" + i);
+            }
+            child.setField(TYPE_FIELD, CHILD_TYPE);
+            parent.addChildDocument(child);
+        }
+        return parent;
+    }
+
+    /**
+     * @return a hex MD5 digest of the fields of the records in order
+     */
+    private static String digest(Map<String, Object> parentRecord, List<Map<String, Object>> childRecords) {
+        final StringBuilder content = new StringBuilder();
+        appendRecord(content, parentRecord);
+        for (Map<String, Object> childRecord : childRecords) {
+            content.append('\u0001');
+            appendRecord(content, childRecord);
+        }
+
+        final MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : md5.digest(content.toString().getBytes(StandardCharsets.UTF_8))) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void appendRecord(StringBuilder content, Map<String, Object> record) {
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            content.append(entry.getKey()).append('\u0002').append(entry.getValue()).append('\u0003');
+        }
+    }
+
+    private Set<String> getChildKeys(Map<String, Object> childRecord, Map<String, Object> parentRecord) {
+        final Set<String> childKeys = new HashSet<>();
+        for (String key : childRecord.keySet()) {
+            if (childFields.contains(key) || !parentRecord.containsKey(key)) {
+                childKeys.add(key);
+            }
+        }
+        return childKeys;
+    }
+
+    /**
+     * Converts a record the same way Solr's JsonLoader does, multiple values become
+     * multiple values of the same field.
+     */
+    static SolrInputDocument toDocument(Map<String, Object> record) {
+        final SolrInputDocument document = new SolrInputDocument();
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            final Object value = entry.getValue();
+            if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    document.addField(entry.getKey(), item);
+                }
+            } else {
+                document.addField(entry.getKey(), value);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Collects the split and (field, jsonPath) pairs, in the same form JSONUpdateRequest
+     * takes them, and compiles them into a mapper.
+     */
+    public static class Builder {
+
+        private String split;
+
+        private final List<String> fieldMappings = new ArrayList<>();
+
+        private String blockJoinIdField;
+
+        /**
+         * Sets the split path.
+         *
+         * @param jsonPath
+         * @return this builder
+         */
+        public Builder setSplit(String jsonPath) {
+            this.split = jsonPath;
+            return this;
+        }
+
+        /**
+         * Adds a field mapping equivalent to "f=field:jsonPath".
+         *
+         * @param field
+         * @param jsonPath
+         * @return this builder
+         */
+        public Builder addFieldMapping(String field, String jsonPath) {
+            fieldMappings.add(field + ":" + jsonPath);
+            return this;
+        }
+
+        /**
+         * Produces parent documents with the split records as children instead of flattened documents.
+         *
+         * @param idField
+         *              the uniqueKey of the collection, or null for flattened documents
+         * @return this builder
+         */
+        public Builder setBlockJoin(String idField) {
+            this.blockJoinIdField = idField;
+            return this;
+        }
+
+        /**
+         * @return a compiled mapper
+         */
+        public JSONDocumentMapper build() {
+            return new JSONDocumentMapper(split, fieldMappings, blockJoinIdField);
+        }
+    }
+
+    /**
+     * Carries an IOException from a DocumentHandler out of the record reader's callback.
+     */
+    private static class MappingException extends RuntimeException {
+
+        public MappingException(IOException cause) {
+            super(cause);
+        }
+    }
+
+}
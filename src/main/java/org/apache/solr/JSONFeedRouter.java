@@ -0,0 +1,247 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.noggit.JSONParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads a feed of JSON documents of mixed types once and sends each document to the
+ * JSONUpdateBatcher of its target, chosen by the value at a route path in the document, so a
+ * feed holding the records of several collections doesn't have to be read once per collection.
+ *
+ * Each batcher is its own pipeline: it has the SolrClient and collection of the target, and the
+ * split and field mappings for that type of record. The feed is cut into documents by a
+ * JSONDocumentChunker, so it may be newline delimited JSON, concatenated objects, or arrays of
+ * objects. A whole top-level document goes to one target, and that target's split then divides it
+ * into Solr documents.
+ *
+ * The route path is a path of object keys such as "/type" or "/meta/source", and its value must
+ * be a string, number, or boolean. Only as much of each document is parsed as it takes to find
+ * the value. Documents with no value, or a value with no route, go to the default route, or are
+ * skipped and counted when there is none.
+ *
+ * This class is not thread-safe.
+ */
+public class JSONFeedRouter implements Closeable {
+
+    /**
+     * The size a document chunk starts at, it grows to fit larger documents.
+     */
+    static final int INITIAL_DOCUMENT_BYTES = 1024;
+
+    private final String routePath;
+
+    private final String[] routeKeys;
+
+    private final Map<String, JSONUpdateBatcher> routes = new LinkedHashMap<>();
+
+    private final char[] parseBuffer = new char[INITIAL_DOCUMENT_BYTES];
+
+    private JSONUpdateBatcher defaultRoute;
+
+    private long routedDocs = 0;
+
+    private long unroutedDocs = 0;
+
+    /**
+     * @param routePath
+     *              the path of the value that picks the target of each document, e.g. "/type"
+     */
+    public JSONFeedRouter(String routePath) {
+        if (routePath == null || !routePath.startsWith("/") || routePath.length() < 2) {
+            throw new IllegalArgumentException("Route path must be a path below the root but was " + routePath);
+        }
+        this.routePath = routePath;
+        this.routeKeys = routePath.substring(1).split("/");
+    }
+
+    /**
+     * Sends the documents whose route value is the given value to the given batcher. A batcher
+     * may serve more than one value.
+     *
+     * @param value
+     *              the value at the route path, numbers and booleans as they appear in the JSON
+     * @param batcher
+     */
+    public void addRoute(String value, JSONUpdateBatcher batcher) {
+        routes.put(value, batcher);
+    }
+
+    /**
+     * @param batcher
+     *              receives the documents no route matches, or null to skip them
+     */
+    public void setDefaultRoute(JSONUpdateBatcher batcher) {
+        this.defaultRoute = batcher;
+    }
+
+    /**
+     * @return the path of the value that picks the target of each document
+     */
+    public String getRoutePath() {
+        return routePath;
+    }
+
+    /**
+     * Reads the stream to the end, adding every document to the batcher of its target. The
+     * batchers send whenever they fill up, call flush() or close() to send the rest.
+     *
+     * @param jsonInputStream
+     *              the feed, closed when it has been read
+     * @return the number of documents read from the stream
+     */
+    public long route(InputStream jsonInputStream) throws IOException, SolrServerException {
+        long docs = 0;
+        try (JSONDocumentChunker chunker = new JSONDocumentChunker(jsonInputStream, INITIAL_DOCUMENT_BYTES, 1)) {
+            JSONDocumentChunker.Chunk chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                final byte[] document = chunk.toByteArray();
+                final String value = readRouteValue(document);
+                JSONUpdateBatcher batcher = value == null ? null : routes.get(value);
+                if (batcher == null) {
+                    batcher = defaultRoute;
+                }
+
+                if (batcher == null) {
+                    unroutedDocs++;
+                } else {
+                    batcher.add(document);
+                    routedDocs++;
+                }
+                docs++;
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Sends the batch of every target whose oldest document has reached its maximum age.
+     */
+    public void flushIfExpired() throws IOException, SolrServerException {
+        for (JSONUpdateBatcher batcher : getBatchers()) {
+            batcher.flushIfExpired();
+        }
+    }
+
+    /**
+     * Sends the batch of every target regardless of its size.
+     */
+    public void flush() throws IOException, SolrServerException {
+        for (JSONUpdateBatcher batcher : getBatchers()) {
+            batcher.flush();
+        }
+    }
+
+    /**
+     * @return the number of documents added to a batcher
+     */
+    public long getRoutedDocs() {
+        return routedDocs;
+    }
+
+    /**
+     * @return the number of documents skipped because no route matched and there is no default route
+     */
+    public long getUnroutedDocs() {
+        return unroutedDocs;
+    }
+
+    /**
+     * Sends the remaining batch of every target, the batchers' SolrClients are not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (JSONUpdateBatcher batcher : getBatchers()) {
+            try {
+                batcher.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Parses a chunk of one document until the value at the route path is found.
+     *
+     * @return the value as a string, or null if the document has no scalar value at the route path
+     */
+    String readRouteValue(byte[] document) throws IOException {
+        final JSONParser parser = new JSONParser(new InputStreamReader(
+                new ByteArrayInputStream(document), StandardCharsets.UTF_8), parseBuffer);
+
+        // the chunk is an array of one document, so the keys of the document are at level 2
+        int matched = 0;
+        while (true) {
+            final int event = parser.nextEvent();
+            switch (event) {
+                case JSONParser.STRING:
+                    if (parser.wasKey() && parser.getLevel() == matched + 2
+                            && routeKeys[matched].equals(parser.getString())) {
+                        matched++;
+                        if (matched == routeKeys.length) {
+                            return readScalar(parser);
+                        }
+                        if (parser.nextEvent() != JSONParser.OBJECT_START) {
+                            return null;
+                        }
+                    }
+                    break;
+                case JSONParser.OBJECT_END:
+                    if (parser.getLevel() < matched + 2) {
+                        // left the object the rest of the path should be in
+                        return null;
+                    }
+                    break;
+                case JSONParser.EOF:
+                    return null;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String readScalar(JSONParser parser) throws IOException {
+        switch (parser.nextEvent()) {
+            case JSONParser.STRING:
+                return parser.getString();
+            case JSONParser.LONG:
+            case JSONParser.NUMBER:
+            case JSONParser.BIGNUMBER:
+                return parser.getNumberChars().toString();
+            case JSONParser.BOOLEAN:
+                return String.valueOf(parser.getBoolean());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return every distinct batcher, including the default route
+     */
+    private Set<JSONUpdateBatcher> getBatchers() {
+        final Set<JSONUpdateBatcher> batchers = Collections.newSetFromMap(new IdentityHashMap<JSONUpdateBatcher, Boolean>());
+        batchers.addAll(routes.values());
+        if (defaultRoute != null) {
+            batchers.add(defaultRoute);
+        }
+        return batchers;
+    }
+
+}
@@ -0,0 +1,421 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects many sources of JSON into multi-stream JSONUpdateRequests so that many
+ * documents are sent to Solr in a single round trip.
+ *
+ * A batch is sent when adding a source causes the batch to reach the maximum number
+ * of bytes or documents, or when the first source in the batch is older than the
+ * maximum batch age. The split param and field mappings are applied to every batch.
+ *
+ * The age of a batch is only checked by add() and flushIfExpired(), so a partial batch on a
+ * feed that has gone quiet waits for the next source unless the caller polls flushIfExpired(),
+ * or startScheduledFlush() has started a background thread that does. A failure of a scheduled
+ * flush is thrown from the next call to add(), flush(), or close().
+ *
+ * The methods of this class are synchronized so that the scheduled flush can run alongside
+ * the caller, a batch is sent while holding the lock.
+ */
+public class JSONUpdateBatcher implements Closeable {
+
+    public static final long DEFAULT_MAX_BATCH_BYTES = 10 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_BATCH_DOCS = 1000;
+
+    public static final long DEFAULT_MAX_BATCH_AGE_MILLIS = 5000;
+
+    private final SolrClient solrClient;
+
+    private final String collection;
+
+    private final ModifiableSolrParams batchParams = new ModifiableSolrParams();
+
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    private int maxBatchDocs = DEFAULT_MAX_BATCH_DOCS;
+
+    private long maxBatchAgeMillis = DEFAULT_MAX_BATCH_AGE_MILLIS;
+
+    private int commitWithin = -1;
+
+    private RetryPolicy retryPolicy;
+
+    private boolean compressed = false;
+
+    private CompressionStats compressionStats;
+
+    private UpdateListener updateListener;
+
+    private CommitPolicy commitPolicy;
+
+    private BatchBisector batchBisector;
+
+    private JSONUpdateRequest currentRequest;
+
+    private long currentBytes;
+
+    private int currentDocs;
+
+    private long currentStartMillis;
+
+    private ScheduledExecutorService flushScheduler;
+
+    private Exception scheduledFailure;
+
+    /**
+     * Construct a new batcher that sends to the default collection of the given client.
+     *
+     * @param solrClient
+     */
+    public JSONUpdateBatcher(SolrClient solrClient) {
+        this(solrClient, null);
+    }
+
+    /**
+     * Construct a new batcher that sends to the given collection.
+     *
+     * @param solrClient
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     */
+    public JSONUpdateBatcher(SolrClient solrClient, String collection) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+    }
+
+    /**
+     * Adds a field mapping which results in "f=field:jsonPath" on every batch.
+     *
+     * @param field
+     * @param jsonPath
+     */
+    public void addFieldMapping(String field, String jsonPath) {
+        batchParams.add("f", field + ":" + jsonPath);
+    }
+
+    /**
+     * Sets the split param of every batch.
+     *
+     * @param jsonPath
+     */
+    public void setSplit(String jsonPath) {
+        batchParams.set("split", jsonPath);
+    }
+
+    /**
+     * @param maxBatchBytes
+     *              the number of bytes at which a batch is sent
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @param maxBatchDocs
+     *              the number of documents at which a batch is sent
+     */
+    public void setMaxBatchDocs(int maxBatchDocs) {
+        this.maxBatchDocs = maxBatchDocs;
+    }
+
+    /**
+     * @param maxBatchAgeMillis
+     *              the age of the oldest source at which a batch is sent
+     */
+    public void setMaxBatchAgeMillis(long maxBatchAgeMillis) {
+        this.maxBatchAgeMillis = maxBatchAgeMillis;
+    }
+
+    /**
+     * @param commitWithin
+     *              the commitWithin to set on every batch, or -1 for none
+     */
+    public void setCommitWithin(int commitWithin) {
+        this.commitWithin = commitWithin;
+    }
+
+    /**
+     * @param retryPolicy
+     *              the policy used to retry transient failures of every batch, or null to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param compressed
+     *              true to compress every batch with gzip, see JSONUpdateRequest.setCompressed()
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * @param compressionStats
+     *              where to record the compression ratio and time of every batch, or null
+     */
+    public void setCompressionStats(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * @param updateListener
+     *              called after every attempt to send a batch with the bytes sent and the timings, or null
+     */
+    public void setUpdateListener(UpdateListener updateListener) {
+        this.updateListener = updateListener;
+    }
+
+    /**
+     * @param commitPolicy
+     *              gives every batch its commitWithin instead of setCommitWithin(), and is told the
+     *              number of documents sent, or null
+     */
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    /**
+     * Isolates the documents Solr rejects from a batch by sending halves of the batch again, see
+     * BatchBisector, so that the rest of the batch is indexed.
+     *
+     * @param deadLetterSink
+     *              receives each rejected document with its error, or null to throw the failure of the batch
+     */
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.batchBisector = deadLetterSink == null ? null : new BatchBisector(deadLetterSink);
+    }
+
+    /**
+     * @return the BatchBisector isolating rejected documents, or null if there is no dead letter sink
+     */
+    public BatchBisector getBatchBisector() {
+        return batchBisector;
+    }
+
+    /**
+     * Starts a daemon thread that sends the current batch once it reaches the maximum age, checking
+     * four times per maximum age, so a batch is sent within 1.25 times the maximum age even when no
+     * more sources arrive. The thread is stopped by close().
+     */
+    public synchronized void startScheduledFlush() {
+        if (flushScheduler != null) {
+            throw new IllegalStateException("Scheduled flush has already been started");
+        }
+
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "json-update-batcher-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final long periodMillis = Math.max(1, maxBatchAgeMillis / 4);
+        flushScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scheduledFlush();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a single document of JSON.
+     *
+     * @param jsonBytes
+     * @return the response if a batch was sent, otherwise null
+     */
+    public synchronized UpdateResponse add(byte[] jsonBytes) throws IOException, SolrServerException {
+        return add(jsonBytes, 1);
+    }
+
+    /**
+     * Adds JSON containing the given number of documents.
+     *
+     * @param jsonBytes
+     * @param numDocs
+     * @return the response if a batch was sent, otherwise null
+     */
+    public synchronized UpdateResponse add(byte[] jsonBytes, int numDocs) throws IOException, SolrServerException {
+        throwScheduledFailure();
+        getCurrentRequest().addBytes(jsonBytes);
+        return added(jsonBytes.length, numDocs);
+    }
+
+    /**
+     * Adds a file of JSON containing the given number of documents.
+     *
+     * @param jsonFile
+     * @param numDocs
+     * @return the response if a batch was sent, otherwise null
+     */
+    public synchronized UpdateResponse add(File jsonFile, int numDocs) throws IOException, SolrServerException {
+        throwScheduledFailure();
+        getCurrentRequest().addFile(jsonFile);
+        return added(jsonFile.length(), numDocs);
+    }
+
+    /**
+     * Adds an InputStream of JSON containing the given number of documents. The stream
+     * is not read until the batch is sent.
+     *
+     * @param jsonInputStream
+     * @param numBytes
+     *              the expected number of bytes in the stream, used against the byte budget
+     * @param numDocs
+     * @return the response if a batch was sent, otherwise null
+     */
+    public synchronized UpdateResponse add(InputStream jsonInputStream, long numBytes, int numDocs)
+            throws IOException, SolrServerException {
+        throwScheduledFailure();
+        getCurrentRequest().addInputStream(jsonInputStream);
+        return added(numBytes, numDocs);
+    }
+
+    /**
+     * Sends the current batch if the oldest source in it has reached the maximum age,
+     * intended to be called periodically when sources arrive slowly.
+     *
+     * @return the response if a batch was sent, otherwise null
+     */
+    public synchronized UpdateResponse flushIfExpired() throws IOException, SolrServerException {
+        if (currentRequest != null && isExpired()) {
+            return flush();
+        }
+        return null;
+    }
+
+    /**
+     * Sends the current batch regardless of its size.
+     *
+     * @return the response, or null if there was nothing to send
+     */
+    public synchronized UpdateResponse flush() throws IOException, SolrServerException {
+        throwScheduledFailure();
+        if (currentRequest == null) {
+            return null;
+        }
+
+        final JSONUpdateRequest request = currentRequest;
+        final int numDocs = currentDocs;
+        currentRequest = null;
+        currentBytes = 0;
+        currentDocs = 0;
+
+        final UpdateResponse response = batchBisector == null
+                ? request.send(solrClient, collection) : batchBisector.send(request, solrClient, collection);
+        if (commitPolicy != null) {
+            commitPolicy.recordDocs(numDocs);
+        }
+        return response;
+    }
+
+    /**
+     * @return the number of documents waiting to be sent
+     */
+    public synchronized int getPendingDocs() {
+        return currentDocs;
+    }
+
+    /**
+     * @return the number of bytes waiting to be sent
+     */
+    public synchronized long getPendingBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Stops the scheduled flush and sends any remaining sources, the SolrClient is not closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+            flushScheduler = null;
+        }
+        try {
+            flush();
+        } catch (SolrServerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private synchronized void scheduledFlush() {
+        if (scheduledFailure != null) {
+            return;
+        }
+        try {
+            if (currentRequest != null && isExpired()) {
+                flush();
+            }
+        } catch (IOException | SolrServerException | RuntimeException e) {
+            scheduledFailure = e;
+        }
+    }
+
+    /**
+     * Throws the failure of a scheduled flush once, to the first caller after it.
+     */
+    private void throwScheduledFailure() throws IOException, SolrServerException {
+        final Exception failure = scheduledFailure;
+        if (failure == null) {
+            return;
+        }
+        scheduledFailure = null;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof SolrServerException) {
+            throw (SolrServerException) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    private JSONUpdateRequest getCurrentRequest() {
+        if (currentRequest == null) {
+            currentRequest = new JSONUpdateRequest();
+            currentRequest.getParams().add(batchParams);
+            if (commitPolicy != null) {
+                commitPolicy.apply(currentRequest);
+            } else if (commitWithin > 0) {
+                currentRequest.setCommitWithin(commitWithin);
+            }
+            currentRequest.setRetryPolicy(retryPolicy);
+            currentRequest.setCompressed(compressed);
+            currentRequest.setCompressionStats(compressionStats);
+            currentRequest.setUpdateListener(updateListener);
+            currentStartMillis = System.currentTimeMillis();
+        }
+        return currentRequest;
+    }
+
+    private UpdateResponse added(long numBytes, int numDocs) throws IOException, SolrServerException {
+        currentBytes += numBytes;
+        currentDocs += numDocs;
+
+        if (currentBytes >= maxBatchBytes || currentDocs >= maxBatchDocs || isExpired()) {
+            return flush();
+        }
+        return null;
+    }
+
+    private boolean isExpired() {
+        return System.currentTimeMillis() - currentStartMillis >= maxBatchAgeMillis;
+    }
+
+}
@@ -1,13 +1,36 @@
 package org.apache.solr;
 
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
 import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.UpdateParams;
 import org.apache.solr.common.util.ContentStream;
 import org.apache.solr.common.util.ContentStreamBase;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
 
 /**
  * A convenience class for streaming JSON to Apache Solr's custom JSON Update Handler.
@@ -16,7 +39,44 @@ import java.util.Collections;
  */
 public class JSONUpdateRequest extends AbstractUpdateRequest {
 
-    private final InputStream jsonInputStream;
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    public static final String JSON_DOCS_PATH = "/update/json/docs";
+
+    public static final String UPDATE_PATH = "/update";
+
+    private static final byte[] SEPARATOR = {'\n'};
+
+    private final List<ContentStream> contentStreams = new ArrayList<>();
+
+    private boolean clientSideMapping = false;
+
+    private JSONDocumentMapper documentMapper;
+
+    private String blockJoinIdField;
+
+    private RetryPolicy retryPolicy;
+
+    private int replaySpillThreshold = ReplayableContentStream.DEFAULT_SPILL_THRESHOLD;
+
+    private boolean compressed = false;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private CompressionStats compressionStats;
+
+    private UpdateListener updateListener;
+
+    private RequestMeter requestMeter;
+
+    /**
+     * Construct a new update request with no content, streams must be added
+     * before the request is processed.
+     */
+    public JSONUpdateRequest() {
+        super(METHOD.POST, JSON_DOCS_PATH);
+        this.setParam("json.command", "false");
+    }
 
     /**
      * Construct a new update request for the given InputStream.
@@ -24,9 +84,30 @@ public class JSONUpdateRequest extends AbstractUpdateRequest {
      * @param jsonInputStream
      */
     public JSONUpdateRequest(InputStream jsonInputStream) {
-        super(METHOD.POST, "/update/json/docs");
-        this.jsonInputStream = jsonInputStream;
-        this.setParam("json.command", "false");
+        this();
+        addInputStream(jsonInputStream);
+    }
+
+    /**
+     * Construct a new update request for the file at the given path. The file is read through
+     * a memory mapping, the exact size is known, and the content can be sent more than once.
+     *
+     * @param jsonPath
+     */
+    public JSONUpdateRequest(Path jsonPath) throws IOException {
+        this();
+        addPath(jsonPath, true);
+    }
+
+    /**
+     * Construct a new update request for the whole of the given channel. The channel is read
+     * with positional reads and is not closed by this request.
+     *
+     * @param jsonChannel
+     */
+    public JSONUpdateRequest(FileChannel jsonChannel) throws IOException {
+        this();
+        addFileChannel(jsonChannel, 0, jsonChannel.size());
     }
 
     /**
@@ -48,22 +129,625 @@ public class JSONUpdateRequest extends AbstractUpdateRequest {
         setParam("split", jsonPath);
     }
 
+    /**
+     * Sets commitWithin on the request and as a request param, since the custom JSON
+     * update handler only reads it from the params.
+     *
+     * @param commitWithin
+     */
+    @Override
+    public void setCommitWithin(int commitWithin) {
+        super.setCommitWithin(commitWithin);
+        setParam(UpdateParams.COMMIT_WITHIN, String.valueOf(commitWithin));
+    }
+
+    /**
+     * Adds another InputStream of JSON to be sent with this request.
+     *
+     * @param jsonInputStream
+     */
+    public void addInputStream(InputStream jsonInputStream) {
+        addContentStream(new InputStreamContentStream(jsonInputStream, JSON_CONTENT_TYPE));
+    }
+
+    /**
+     * Adds JSON that is already in memory to be sent with this request.
+     *
+     * @param jsonBytes
+     */
+    public void addBytes(byte[] jsonBytes) {
+        ContentStreamBase.ByteArrayStream stream = new ContentStreamBase.ByteArrayStream(jsonBytes, "json");
+        stream.setContentType(JSON_CONTENT_TYPE);
+        addContentStream(stream);
+    }
+
+    /**
+     * Adds a file of JSON to be sent with this request.
+     *
+     * @param jsonFile
+     */
+    public void addFile(File jsonFile) {
+        ContentStreamBase.FileStream stream = new ContentStreamBase.FileStream(jsonFile);
+        stream.setContentType(JSON_CONTENT_TYPE);
+        addContentStream(stream);
+    }
+
+    /**
+     * Adds the file at the given path to be sent with this request.
+     *
+     * @param jsonPath
+     * @param memoryMapped
+     *              true to read through a memory mapping, false to use positional reads
+     */
+    public void addPath(Path jsonPath, boolean memoryMapped) throws IOException {
+        addContentStream(new FileChannelContentStream(jsonPath, memoryMapped));
+    }
+
+    /**
+     * Adds a region of an open channel to be sent with this request.
+     *
+     * @param jsonChannel
+     * @param offset
+     * @param length
+     */
+    public void addFileChannel(FileChannel jsonChannel, long offset, long length) {
+        addContentStream(new FileChannelContentStream(jsonChannel, offset, length, false));
+    }
+
+    /**
+     * Adds documents that are written as JSON while the request is sent, see DocumentContentStream.
+     * The documents must be Maps or other classes that JSONWriter can write.
+     *
+     * @param documents
+     */
+    public void addDocuments(Iterable<?> documents) {
+        addContentStream(new DocumentContentStream<>(documents, DocumentContentStream.DocumentWriter.OBJECTS));
+    }
+
+    /**
+     * Adds documents that are written as JSON by the given writer while the request is sent.
+     *
+     * @param documents
+     * @param documentWriter
+     */
+    public <T> void addDocuments(Iterable<? extends T> documents,
+                                 DocumentContentStream.DocumentWriter<? super T> documentWriter) {
+        addContentStream(new DocumentContentStream<T>(documents, documentWriter));
+    }
+
+    /**
+     * Adds documents that are written as JSON by the given writer while the request is sent. The
+     * iterator can only be read once, so with a retry policy the JSON is buffered for replaying
+     * like any other InputStream.
+     *
+     * @param documents
+     * @param documentWriter
+     */
+    public <T> void addDocuments(Iterator<? extends T> documents,
+                                 DocumentContentStream.DocumentWriter<? super T> documentWriter) throws IOException {
+        addInputStream(new DocumentContentStream<T>(documents, documentWriter).getStream());
+    }
+
+    /**
+     * Adds a ContentStream to be sent with this request, each stream is parsed
+     * by Solr using the same split and field mappings.
+     *
+     * @param contentStream
+     */
+    public void addContentStream(ContentStream contentStream) {
+        contentStreams.add(contentStream);
+    }
+
+    /**
+     * When true, the split and field mappings are applied on the client and the resulting
+     * documents are sent to /update in the javabin format, instead of sending the raw JSON
+     * to be parsed by Solr. This moves the cost of parsing the JSON off of the Solr nodes.
+     *
+     * @param clientSideMapping
+     */
+    public void setClientSideMapping(boolean clientSideMapping) {
+        this.clientSideMapping = clientSideMapping;
+        updatePath();
+    }
+
+    /**
+     * Applies the split and field mappings of the given mapper on the client, instead of the
+     * params of this request, so that one compiled mapper can be shared by many requests.
+     *
+     * @param documentMapper
+     */
+    public void setClientSideMapping(JSONDocumentMapper documentMapper) {
+        if (documentMapper != null && blockJoinIdField != null) {
+            throw new IllegalStateException("Block join is set on the request, set it on the mapper instead");
+        }
+        this.documentMapper = documentMapper;
+        setClientSideMapping(documentMapper != null);
+    }
+
+    /**
+     * Indexes each top-level object as a parent document with a child document for each split
+     * record, instead of one flattened document per split record repeating the parent's fields.
+     * The documents are mapped on the client, see JSONDocumentMapper, and the collection must have
+     * the given uniqueKey, a _root_ field, and a JSONDocumentMapper.TYPE_FIELD.
+     *
+     * A request mapping with a shared JSONDocumentMapper takes block join from the mapper, see
+     * JSONDocumentMapper.Builder.setBlockJoin().
+     *
+     * @param idField
+     *              the uniqueKey of the collection, or null to index flattened documents
+     */
+    public void setBlockJoin(String idField) {
+        if (idField != null && documentMapper != null) {
+            throw new IllegalStateException("Request maps with a shared mapper, set block join on the mapper instead");
+        }
+        this.blockJoinIdField = idField;
+        updatePath();
+    }
+
+    /**
+     * @return the uniqueKey given to parent and child documents, or null if documents are flattened
+     */
+    public String getBlockJoinIdField() {
+        return blockJoinIdField;
+    }
+
+    /**
+     * @return true if the split and field mappings are applied on the client
+     */
+    public boolean isClientSideMapping() {
+        return clientSideMapping || blockJoinIdField != null;
+    }
+
+    private void updatePath() {
+        setPath(isClientSideMapping() ? UPDATE_PATH : JSON_DOCS_PATH);
+    }
+
+    /**
+     * Sets the policy used by send() to retry transient failures, or null to never retry.
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the policy used by send() to retry transient failures, or null
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the number of bytes of each InputStream kept in memory for replaying on a retry
+     * before the rest is spilled to a temporary file.
+     *
+     * @param replaySpillThreshold
+     */
+    public void setReplaySpillThreshold(int replaySpillThreshold) {
+        this.replaySpillThreshold = replaySpillThreshold;
+    }
+
+    /**
+     * Compresses the body of this request with gzip as it is written. All content streams are
+     * sent as one compressed body, separated by newlines, instead of as a multipart request.
+     *
+     * Solr does not decode compressed request bodies itself, so this is only for servers with
+     * a filter or proxy in front of Solr that does, and the HttpClient of the HttpSolrClient
+     * needs a GzipRequestInterceptor to add the Content-Encoding header.
+     *
+     * @param compressed
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return true if the body of this request is compressed with gzip
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @param compressionLevel
+     *              the deflate level from 1 (fastest) to 9 (smallest), or -1 for the default
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param compressionStats
+     *              where to record the compression ratio and time of this request, or null
+     */
+    public void setCompressionStats(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * @param updateListener
+     *              called by send() after every attempt with the bytes sent and the timings, or null
+     */
+    public void setUpdateListener(UpdateListener updateListener) {
+        this.updateListener = updateListener;
+    }
+
+    /**
+     * @return the listener called by send() after every attempt, or null
+     */
+    public UpdateListener getUpdateListener() {
+        return updateListener;
+    }
+
+    /**
+     * Processes this request with the default collection of the client, retrying transient
+     * failures according to the retry policy.
+     *
+     * @param solrClient
+     * @return the response of the successful attempt
+     */
+    public UpdateResponse send(SolrClient solrClient) throws SolrServerException, IOException {
+        return send(solrClient, null);
+    }
+
+    /**
+     * Processes this request, retrying transient failures according to the retry policy.
+     *
+     * InputStreams added to this request can only be read once, so when there is a retry policy
+     * they are read through a ReplayableContentStream which buffers what has been sent so far.
+     * Byte arrays, files, and paths are simply read again. The buffers are released when send()
+     * returns or throws, after which reading the InputStreams again throws an IllegalStateException.
+     *
+     * @param solrClient
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     * @return the response of the successful attempt
+     */
+    public UpdateResponse send(SolrClient solrClient, String collection) throws SolrServerException, IOException {
+        if (retryPolicy == null) {
+            return attempt(solrClient, collection);
+        }
+
+        final List<ReplayableContentStream> replayableStreams = makeReplayable();
+        try {
+            int attempt = 1;
+            while (true) {
+                try {
+                    return attempt(solrClient, collection);
+                } catch (SolrServerException | IOException | RuntimeException e) {
+                    if (!retryPolicy.shouldRetry(attempt, e)) {
+                        throw e;
+                    }
+                    sleep(retryPolicy.getBackoffMillis(attempt));
+                    attempt++;
+                }
+            }
+        } finally {
+            for (ReplayableContentStream replayableStream : replayableStreams) {
+                replayableStream.close();
+            }
+        }
+    }
+
+    /**
+     * Sends this request with send() on a thread of the given executor, for clients that can't be
+     * used with an AsyncJSONUpdateClient, e.g. an EmbeddedSolrServer or CloudSolrClient. Each
+     * request still occupies a thread of the executor while it is sent.
+     *
+     * @param solrClient
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     * @param executor
+     * @return a future completed with the response of the successful attempt, or with the
+     *              exception of the last attempt wrapped in a CompletionException
+     */
+    public CompletableFuture<UpdateResponse> sendAsync(final SolrClient solrClient, final String collection,
+                                                       Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(solrClient, collection);
+            } catch (SolrServerException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Processes this request once, measuring it for the update listener if there is one.
+     */
+    private UpdateResponse attempt(SolrClient solrClient, String collection) throws SolrServerException, IOException {
+        final UpdateListener listener = updateListener;
+        if (listener == null) {
+            return process(solrClient, collection);
+        }
+
+        final RequestMeter meter = new RequestMeter();
+        requestMeter = meter;
+        try {
+            final UpdateResponse response = process(solrClient, collection);
+            listener.onSuccess(this, meter.bytes, meter.getFirstByteNanos(), System.nanoTime() - meter.startNanos,
+                    response.getQTime());
+            return response;
+        } catch (SolrServerException | IOException | RuntimeException e) {
+            listener.onFailure(this, meter.bytes, meter.getFirstByteNanos(), System.nanoTime() - meter.startNanos, e);
+            throw e;
+        } finally {
+            requestMeter = null;
+        }
+    }
+
+    /**
+     * Creates a request with the same params and settings as this one to send the given streams,
+     * which are usually some of the streams of this request.
+     *
+     * @param streams
+     * @return a new request
+     */
+    JSONUpdateRequest copyWithContentStreams(List<ContentStream> streams) {
+        final JSONUpdateRequest copy = new JSONUpdateRequest();
+        copy.setParams(new ModifiableSolrParams(getParams()));
+        copy.setPath(getPath());
+        copy.commitWithin = commitWithin;
+        copy.clientSideMapping = clientSideMapping;
+        copy.documentMapper = documentMapper;
+        copy.blockJoinIdField = blockJoinIdField;
+        copy.retryPolicy = retryPolicy;
+        copy.replaySpillThreshold = replaySpillThreshold;
+        copy.compressed = compressed;
+        copy.compressionLevel = compressionLevel;
+        copy.compressionStats = compressionStats;
+        copy.updateListener = updateListener;
+        copy.contentStreams.addAll(streams);
+        return copy;
+    }
+
+    /**
+     * @return the streams added to this request, before any mapping or compression
+     */
+    List<ContentStream> getSourceStreams() {
+        return Collections.unmodifiableList(contentStreams);
+    }
+
+    /**
+     * Replaces the InputStreams added to this request by ReplayableContentStreams, which the
+     * caller must close.
+     *
+     * @return the new replayable streams
+     */
+    List<ReplayableContentStream> makeReplayable() {
+        final List<ReplayableContentStream> replayableStreams = new ArrayList<>();
+        for (int i = 0; i < contentStreams.size(); i++) {
+            final ContentStream contentStream = contentStreams.get(i);
+            if (contentStream instanceof InputStreamContentStream) {
+                final ReplayableContentStream replayableStream = new ReplayableContentStream(
+                        ((InputStreamContentStream) contentStream).inputStream,
+                        contentStream.getContentType(), replaySpillThreshold, null);
+                replayableStream.setName(contentStream.getName());
+                contentStreams.set(i, replayableStream);
+                replayableStreams.add(replayableStream);
+            }
+        }
+        return replayableStreams;
+    }
+
+    private void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
     @Override
     public Collection<ContentStream> getContentStreams() throws IOException {
-        ContentStream jsonContentStream = new InputStreamContentStream(
-                jsonInputStream, "application/json");
-        return Collections.singletonList(jsonContentStream);
+        List<ContentStream> streams = isClientSideMapping()
+                ? Collections.singletonList(getJavabinContentStream())
+                : nameStreams(contentStreams);
+
+        if (compressed) {
+            streams = Collections.<ContentStream>singletonList(
+                    new GzipContentStream(streams, compressionLevel, compressionStats));
+        }
+
+        final RequestMeter meter = requestMeter;
+        if (meter != null) {
+            final List<ContentStream> meteredStreams = new ArrayList<>(streams.size());
+            for (ContentStream stream : streams) {
+                meteredStreams.add(new MeteredContentStream(stream, meter));
+            }
+            streams = meteredStreams;
+        }
+        return streams;
+    }
+
+    /**
+     * Names the unnamed streams of a request with several streams, since HttpSolrClient sends only
+     * the first stream of such a request when any of them has no name.
+     */
+    private static List<ContentStream> nameStreams(List<ContentStream> contentStreams) {
+        final List<ContentStream> streams = new ArrayList<>(contentStreams.size());
+        for (ContentStream contentStream : contentStreams) {
+            streams.add(contentStreams.size() > 1 && contentStream.getName() == null
+                    ? new NamedContentStream(contentStream, "json-" + streams.size()) : contentStream);
+        }
+        return streams;
+    }
+
+    /**
+     * Maps the JSON from every content stream into documents and encodes them as javabin.
+     */
+    private ContentStream getJavabinContentStream() throws IOException {
+        final UpdateRequest updateRequest = new UpdateRequest();
+        final JSONDocumentMapper mapper = documentMapper != null
+                ? documentMapper : JSONDocumentMapper.fromParams(getParams(), blockJoinIdField);
+        final JSONDocumentMapper.DocumentHandler handler = new JSONDocumentMapper.DocumentHandler() {
+            @Override
+            public void handle(SolrInputDocument document) {
+                updateRequest.add(document);
+            }
+        };
+
+        for (ContentStream contentStream : contentStreams) {
+            try (Reader reader = contentStream.getReader()) {
+                mapper.map(reader, handler);
+            }
+        }
+
+        return new BinaryRequestWriter().getContentStream(updateRequest);
+    }
+
+    /**
+     * Opens every stream and joins them with newlines into one body, for sending the streams of a
+     * request without a multipart request.
+     *
+     * @param contentStreams
+     * @return the joined streams, which closes every stream when closed
+     */
+    static InputStream joinStreams(Collection<ContentStream> contentStreams) throws IOException {
+        final List<InputStream> inputStreams = new ArrayList<>();
+        try {
+            for (ContentStream contentStream : contentStreams) {
+                if (!inputStreams.isEmpty()) {
+                    inputStreams.add(new ByteArrayInputStream(SEPARATOR));
+                }
+                inputStreams.add(contentStream.getStream());
+            }
+        } catch (IOException e) {
+            for (InputStream inputStream : inputStreams) {
+                inputStream.close();
+            }
+            throw e;
+        }
+        return new SequenceInputStream(Collections.enumeration(inputStreams));
+    }
+
+    /**
+     * A ContentStream of other streams joined by newlines and compressed with gzip as it is read.
+     */
+    private static class GzipContentStream extends ContentStreamBase {
+
+        private final List<ContentStream> contentStreams;
+
+        private final int compressionLevel;
+
+        private final CompressionStats compressionStats;
+
+        public GzipContentStream(List<ContentStream> contentStreams, int compressionLevel,
+                                 CompressionStats compressionStats) {
+            this.contentStreams = contentStreams;
+            this.compressionLevel = compressionLevel;
+            this.compressionStats = compressionStats;
+            if (!contentStreams.isEmpty()) {
+                this.setContentType(contentStreams.get(0).getContentType());
+            }
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return new GzipCompressingInputStream(joinStreams(contentStreams), compressionLevel, compressionStats);
+        }
+    }
+
+    /**
+     * The bytes read from the content streams of one attempt and when the first was read. Only
+     * read and written by the thread sending the request.
+     */
+    private static class RequestMeter {
+
+        private final long startNanos = System.nanoTime();
+
+        private long firstByteNanos = -1;
+
+        private long bytes = 0;
+
+        void read(long numBytes) {
+            if (firstByteNanos < 0) {
+                firstByteNanos = System.nanoTime();
+            }
+            bytes += numBytes;
+        }
+
+        long getFirstByteNanos() {
+            return firstByteNanos < 0 ? -1 : firstByteNanos - startNanos;
+        }
+    }
+
+    /**
+     * A ContentStream that counts the bytes read from another ContentStream.
+     */
+    private static class MeteredContentStream extends ContentStreamBase {
+
+        private final ContentStream contentStream;
+
+        private final RequestMeter meter;
+
+        public MeteredContentStream(ContentStream contentStream, RequestMeter meter) {
+            this.contentStream = contentStream;
+            this.meter = meter;
+            this.setName(contentStream.getName());
+            this.setSourceInfo(contentStream.getSourceInfo());
+            this.setContentType(contentStream.getContentType());
+            this.setSize(contentStream.getSize());
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return new FilterInputStream(contentStream.getStream()) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0) {
+                        meter.read(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    final int n = super.read(b, off, len);
+                    if (n > 0) {
+                        meter.read(n);
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Gives a name to a ContentStream without one.
+     */
+    private static class NamedContentStream extends ContentStreamBase {
+
+        private final ContentStream contentStream;
+
+        public NamedContentStream(ContentStream contentStream, String name) {
+            this.contentStream = contentStream;
+            this.setName(name);
+            this.setSourceInfo(contentStream.getSourceInfo());
+            this.setContentType(contentStream.getContentType());
+            this.setSize(contentStream.getSize());
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return contentStream.getStream();
+        }
     }
 
     /**
-     * A ContentStream for wrapping an InputStream.
+     * A ContentStream for wrapping an InputStream. It is named because HttpSolrClient sends only
+     * the first stream of a request with several streams when any of them has no name.
      */
-    private class InputStreamContentStream extends ContentStreamBase {
+    private static class InputStreamContentStream extends ContentStreamBase {
 
         private final InputStream inputStream;
 
         public InputStreamContentStream(InputStream inputStream, String contentType) {
             this.inputStream = inputStream;
+            this.setName("json");
             this.setContentType(contentType);
         }
 
@@ -0,0 +1,240 @@
+package org.apache.solr;
+
+import org.apache.solr.common.util.ContentStreamBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+/**
+ * Makes a stream that can only be read once, such as one from a network connection, replayable
+ * so that a failed request can be sent again.
+ *
+ * Nothing is read up front. As the first attempt reads the source, the bytes are copied into a
+ * replay buffer. Each later call to getStream() replays the buffered bytes and then continues
+ * reading the source where the previous attempt left off. Only one stream returned by this
+ * class may be read at a time.
+ *
+ * The buffer is kept in memory until it reaches the spill threshold, after which it is moved
+ * to a temporary file, so large payloads do not fill the heap. Call close() to delete the file,
+ * after which the stream can't be read again.
+ */
+public class ReplayableContentStream extends ContentStreamBase implements Closeable {
+
+    public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private final InputStream source;
+
+    private final int spillThreshold;
+
+    private final File spillDirectory;
+
+    private byte[] memoryBuffer = new byte[1024];
+
+    private int memoryLength = 0;
+
+    private File spillFile;
+
+    private OutputStream spillOutput;
+
+    private long length = 0;
+
+    private boolean closed = false;
+
+    /**
+     * @param source
+     *              the stream to make replayable
+     * @param contentType
+     * @param spillThreshold
+     *              the number of bytes kept in memory before spilling to a file
+     * @param spillDirectory
+     *              where to create the temporary file, or null for the default temp directory
+     */
+    public ReplayableContentStream(InputStream source, String contentType, int spillThreshold, File spillDirectory) {
+        this.source = source;
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+        setContentType(contentType);
+    }
+
+    @Override
+    public synchronized InputStream getStream() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Replayable stream has been closed, its source can't be read again");
+        }
+        final InputStream replay = openReplay();
+        final InputStream remaining = new TeeInputStream(source);
+        return new SequenceInputStream(replay, remaining);
+    }
+
+    /**
+     * @return the number of bytes read from the source so far
+     */
+    public synchronized long getBufferedLength() {
+        return length;
+    }
+
+    /**
+     * @return true if the buffered bytes have been moved to a temporary file
+     */
+    public synchronized boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Deletes the temporary file if there is one and closes the source.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        try {
+            source.close();
+        } finally {
+            memoryBuffer = null;
+            if (spillOutput != null) {
+                spillOutput.close();
+                spillOutput = null;
+            }
+            if (spillFile != null) {
+                if (!spillFile.delete()) {
+                    spillFile.deleteOnExit();
+                }
+                spillFile = null;
+            }
+        }
+    }
+
+    /**
+     * @return a stream of the bytes buffered so far
+     */
+    private InputStream openReplay() throws IOException {
+        if (spillFile == null) {
+            return new ByteArrayInputStream(memoryBuffer, 0, memoryLength);
+        }
+
+        spillOutput.flush();
+        return new BoundedInputStream(new FileInputStream(spillFile), length);
+    }
+
+    private synchronized void buffer(byte[] bytes, int offset, int count) throws IOException {
+        if (closed) {
+            throw new IOException("Replayable stream has been closed");
+        }
+        if (spillFile == null && memoryLength + count > spillThreshold) {
+            spill();
+        }
+
+        if (spillFile == null) {
+            if (memoryLength + count > memoryBuffer.length) {
+                memoryBuffer = Arrays.copyOf(memoryBuffer, Math.max(memoryLength + count, memoryBuffer.length * 2));
+            }
+            System.arraycopy(bytes, offset, memoryBuffer, memoryLength, count);
+            memoryLength += count;
+        } else {
+            spillOutput.write(bytes, offset, count);
+        }
+        length += count;
+    }
+
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("json-replay", ".json", spillDirectory);
+        spillOutput = new FileOutputStream(spillFile);
+        spillOutput.write(memoryBuffer, 0, memoryLength);
+        memoryBuffer = null;
+        memoryLength = 0;
+    }
+
+    /**
+     * Reads the source and copies everything read into the replay buffer.
+     */
+    private class TeeInputStream extends FilterInputStream {
+
+        TeeInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                buffer(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            final int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // the source is only closed when the replayable stream is closed
+        }
+    }
+
+    /**
+     * Reads no more than the given number of bytes from a stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = in.read();
+            if (read >= 0) {
+                remaining--;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+}
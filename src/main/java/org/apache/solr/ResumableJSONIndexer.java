@@ -0,0 +1,498 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes large files of JSON and records how far Solr has acknowledged them in a checkpoint
+ * file, so that a load interrupted by a crash or deploy resumes from the checkpoint instead of
+ * starting again from the first document.
+ *
+ * The files are cut into chunks on document boundaries by a JSONDocumentChunker, so they may be
+ * newline delimited JSON, concatenated objects, or arrays of objects. Each chunk is sent as its
+ * own JSONUpdateRequest, and several may be in flight at once. The checkpoint is the file and
+ * byte offset of the end of the last chunk before which every chunk has been acknowledged, so
+ * chunks acknowledged out of order only move it once the chunks before them are acknowledged too.
+ *
+ * The checkpoint is written at most once per checkpoint interval and when ingest() returns or
+ * fails, to a temporary file which is synced and then renamed over the checkpoint file, so the
+ * checkpoint file always holds a whole checkpoint. The checkpoint also holds the size and last
+ * modified time of its file, and a file that has been replaced or rewritten since is not resumed.
+ *
+ * Documents are indexed at least once: the chunks acknowledged after the checkpoint was last
+ * written are sent again on resume, which only overwrites them when the collection has a
+ * uniqueKey. Acknowledged documents are as durable as the server makes them, with an update log
+ * they survive a restart of Solr before they are committed.
+ *
+ * This class is not thread-safe, ingest() is called by one thread at a time.
+ */
+public class ResumableJSONIndexer {
+
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1000;
+
+    static final String FILE_KEY = "file";
+
+    static final String FILE_LENGTH_KEY = "fileLength";
+
+    static final String FILE_LAST_MODIFIED_KEY = "fileLastModified";
+
+    static final String OFFSET_KEY = "offset";
+
+    static final String IN_ARRAY_KEY = "inArray";
+
+    private final SolrClient solrClient;
+
+    private final String collection;
+
+    private final File checkpointFile;
+
+    private final ModifiableSolrParams requestParams = new ModifiableSolrParams();
+
+    private int maxChunkBytes = JSONDocumentChunker.DEFAULT_MAX_CHUNK_BYTES;
+
+    private int maxChunkDocs = JSONDocumentChunker.DEFAULT_MAX_CHUNK_DOCS;
+
+    private int numThreads = 1;
+
+    private long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+
+    private RetryPolicy retryPolicy;
+
+    private BatchBisector batchBisector;
+
+    /**
+     * The position in the input that everything before has been acknowledged.
+     */
+    public static class Checkpoint {
+
+        private final String file;
+
+        private final long fileLength;
+
+        private final long fileLastModified;
+
+        private final long offset;
+
+        private final boolean inArray;
+
+        /**
+         * @param file
+         *              the canonical path of the file
+         * @param fileLength
+         *              the size of the file when it was read
+         * @param fileLastModified
+         *              the last modified time of the file when it was read
+         * @param offset
+         *              the byte offset in the file of the end of the last acknowledged document
+         * @param inArray
+         *              true if the offset is inside a top-level array
+         */
+        public Checkpoint(String file, long fileLength, long fileLastModified, long offset, boolean inArray) {
+            this.file = file;
+            this.fileLength = fileLength;
+            this.fileLastModified = fileLastModified;
+            this.offset = offset;
+            this.inArray = inArray;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public long getFileLength() {
+            return fileLength;
+        }
+
+        public long getFileLastModified() {
+            return fileLastModified;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public boolean isInArray() {
+            return inArray;
+        }
+    }
+
+    /**
+     * @param solrClient
+     *              the client to send with, must be thread-safe when more than one thread is used
+     * @param collection
+     *              the collection to send to, or null to use the client's default
+     * @param checkpointFile
+     *              where the checkpoint is kept, resumed from if it exists
+     */
+    public ResumableJSONIndexer(SolrClient solrClient, String collection, File checkpointFile) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Adds a field mapping which results in "f=field:jsonPath" on every request.
+     *
+     * @param field
+     * @param jsonPath
+     */
+    public void addFieldMapping(String field, String jsonPath) {
+        requestParams.add("f", field + ":" + jsonPath);
+    }
+
+    /**
+     * Sets the split param of every request.
+     *
+     * @param jsonPath
+     */
+    public void setSplit(String jsonPath) {
+        requestParams.set("split", jsonPath);
+    }
+
+    /**
+     * @param maxChunkBytes
+     *              the number of bytes after which a chunk is closed
+     * @param maxChunkDocs
+     *              the maximum number of documents in a chunk, and so in a request
+     */
+    public void setChunkSize(int maxChunkBytes, int maxChunkDocs) {
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxChunkDocs = maxChunkDocs;
+    }
+
+    /**
+     * @param numThreads
+     *              the number of chunks sent at once
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1");
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param checkpointIntervalMillis
+     *              the least time between writes of the checkpoint file, 0 to write it after every chunk
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * @param retryPolicy
+     *              the policy used to retry transient failures of every chunk, or null to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Isolates the documents Solr rejects from a chunk, see BatchBisector, so that a chunk with a
+     * bad document is acknowledged instead of stopping the ingest.
+     *
+     * @param deadLetterSink
+     *              receives each rejected document with its error, or null to stop at the first failed chunk
+     */
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.batchBisector = deadLetterSink == null ? null : new BatchBisector(deadLetterSink);
+    }
+
+    /**
+     * @return the checkpoint in the checkpoint file, or null if there is none
+     */
+    public Checkpoint readCheckpoint() throws IOException {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpointFile)) {
+            properties.load(in);
+        }
+        final String file = properties.getProperty(FILE_KEY);
+        final String fileLength = properties.getProperty(FILE_LENGTH_KEY);
+        final String fileLastModified = properties.getProperty(FILE_LAST_MODIFIED_KEY);
+        final String offset = properties.getProperty(OFFSET_KEY);
+        if (file == null || fileLength == null || fileLastModified == null || offset == null) {
+            throw new IOException("Invalid checkpoint file " + checkpointFile);
+        }
+        return new Checkpoint(file, Long.parseLong(fileLength), Long.parseLong(fileLastModified),
+                Long.parseLong(offset), Boolean.parseBoolean(properties.getProperty(IN_ARRAY_KEY)));
+    }
+
+    /**
+     * Indexes the files in order, starting from the checkpoint if there is one. The files must be
+     * given in the same order on every run, the files before the one in the checkpoint are skipped.
+     * The file in the checkpoint must have the same size and last modified time as when it was
+     * read, otherwise the offset may not be on a document boundary and nothing is sent.
+     *
+     * When a chunk fails, no more chunks are sent, the checkpoint is written up to the chunks
+     * acknowledged before it, and the failure is thrown.
+     *
+     * @param files
+     * @return the number of documents acknowledged by this run
+     */
+    public long ingest(List<File> files) throws IOException, SolrServerException, InterruptedException {
+        final Checkpoint start = readCheckpoint();
+        int startFile = 0;
+        if (start != null) {
+            startFile = indexOf(files, start.getFile());
+            if (startFile < 0) {
+                throw new IllegalArgumentException("The file of the checkpoint, " + start.getFile()
+                        + ", is not one of the files to ingest");
+            }
+            final File file = files.get(startFile);
+            if (file.length() != start.getFileLength() || file.lastModified() != start.getFileLastModified()) {
+                throw new IllegalArgumentException("The file of the checkpoint, " + start.getFile()
+                        + ", has changed since it was read, remove the checkpoint to ingest it from the start");
+            }
+        }
+
+        final Progress progress = new Progress(start);
+        final ExecutorService senders = Executors.newFixedThreadPool(numThreads);
+        long lastWriteMillis = System.currentTimeMillis();
+        try {
+            for (int i = startFile; i < files.size() && !progress.isFailed(); i++) {
+                final File file = files.get(i);
+                final String path = file.getCanonicalPath();
+                final long length = file.length();
+                final long lastModified = file.lastModified();
+                final boolean resuming = start != null && i == startFile;
+                final long startOffset = resuming ? start.getOffset() : 0;
+                final boolean startInArray = resuming && start.isInArray();
+
+                try (FileInputStream in = new FileInputStream(file)) {
+                    in.getChannel().position(startOffset);
+                    final JSONDocumentChunker chunker = new JSONDocumentChunker(in, maxChunkBytes, maxChunkDocs,
+                            startInArray);
+
+                    // the start of every file is passed, so the checkpoint moves on even from an empty file
+                    progress.submit(path, length, lastModified, startOffset, startInArray, 0);
+                    JSONDocumentChunker.Chunk chunk;
+                    while (!progress.isFailed() && (chunk = chunker.nextChunk()) != null) {
+                        progress.awaitCapacity(numThreads);
+                        final Pending pending = progress.submit(path, length, lastModified,
+                                startOffset + chunk.getEndOffset(), chunk.isEndInArray(), chunk.getNumDocs());
+                        senders.execute(new Sender(createRequest(chunk), pending, progress));
+
+                        if (System.currentTimeMillis() - lastWriteMillis >= checkpointIntervalMillis) {
+                            writeCheckpoint(progress.getCheckpoint());
+                            lastWriteMillis = System.currentTimeMillis();
+                        }
+                    }
+                }
+            }
+            progress.awaitCapacity(1);
+        } finally {
+            senders.shutdown();
+            try {
+                senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // an interrupted shutdown is when the checkpoint matters most
+                writeCheckpoint(progress.getCheckpoint());
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            writeCheckpoint(progress.getCheckpoint());
+        }
+
+        progress.throwFailure();
+        return progress.getDocs();
+    }
+
+    private JSONUpdateRequest createRequest(JSONDocumentChunker.Chunk chunk) {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.getParams().add(requestParams);
+        request.setRetryPolicy(retryPolicy);
+        request.addContentStream(chunk.getContentStream());
+        return request;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file, syncs it, and renames it over the checkpoint file.
+     */
+    void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(FILE_KEY, checkpoint.getFile());
+        properties.setProperty(FILE_LENGTH_KEY, String.valueOf(checkpoint.getFileLength()));
+        properties.setProperty(FILE_LAST_MODIFIED_KEY, String.valueOf(checkpoint.getFileLastModified()));
+        properties.setProperty(OFFSET_KEY, String.valueOf(checkpoint.getOffset()));
+        properties.setProperty(IN_ARRAY_KEY, String.valueOf(checkpoint.isInArray()));
+
+        final File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int indexOf(List<File> files, String canonicalPath) throws IOException {
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).getCanonicalPath().equals(canonicalPath)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A chunk that has been submitted, in the order of the input.
+     */
+    private static class Pending {
+
+        private final Checkpoint end;
+
+        private final int numDocs;
+
+        private boolean done = false;
+
+        Pending(Checkpoint end, int numDocs) {
+            this.end = end;
+            this.numDocs = numDocs;
+        }
+    }
+
+    /**
+     * Tracks the chunks in flight and moves the checkpoint over the acknowledged ones at its head.
+     * The start of a file is tracked like a chunk of no documents, but it is never sent, so it
+     * does not count against the chunks in flight.
+     */
+    private static class Progress {
+
+        private final Deque<Pending> inFlight = new ArrayDeque<>();
+
+        private int chunksInFlight = 0;
+
+        private Checkpoint checkpoint;
+
+        private long docs = 0;
+
+        private Exception failure;
+
+        Progress(Checkpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        synchronized Pending submit(String file, long fileLength, long fileLastModified, long endOffset,
+                                    boolean inArray, int numDocs) {
+            final Pending pending = new Pending(
+                    new Checkpoint(file, fileLength, fileLastModified, endOffset, inArray), numDocs);
+            inFlight.addLast(pending);
+            if (numDocs == 0) {
+                acknowledge(pending);
+            } else {
+                chunksInFlight++;
+            }
+            return pending;
+        }
+
+        synchronized void acknowledge(Pending pending) {
+            pending.done = true;
+            while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+                final Pending head = inFlight.removeFirst();
+                checkpoint = head.end;
+                docs += head.numDocs;
+                if (head.numDocs > 0) {
+                    chunksInFlight--;
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized void fail(Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until fewer than the given number of chunks are in flight, or a chunk has failed.
+         */
+        synchronized void awaitCapacity(int maxInFlight) throws InterruptedException {
+            while (chunksInFlight >= maxInFlight && failure == null) {
+                wait();
+            }
+        }
+
+        synchronized boolean isFailed() {
+            return failure != null;
+        }
+
+        synchronized Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+
+        synchronized long getDocs() {
+            return docs;
+        }
+
+        synchronized void throwFailure() throws IOException, SolrServerException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof SolrServerException) {
+                throw (SolrServerException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
+    /**
+     * Sends one chunk and reports the outcome to the progress.
+     */
+    private class Sender implements Runnable {
+
+        private final JSONUpdateRequest request;
+
+        private final Pending pending;
+
+        private final Progress progress;
+
+        Sender(JSONUpdateRequest request, Pending pending, Progress progress) {
+            this.request = request;
+            this.pending = pending;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (batchBisector == null) {
+                    request.send(solrClient, collection);
+                } else {
+                    batchBisector.send(request, solrClient, collection);
+                }
+                progress.acknowledge(pending);
+            } catch (Exception e) {
+                progress.fail(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides whether a failed update should be sent again and how long to wait before doing so.
+ *
+ * The wait grows exponentially from the initial backoff up to the maximum backoff, and a random
+ * part of each wait is removed (jitter) so that many clients failing at the same time don't all
+ * retry at the same time.
+ *
+ * Only failures that are likely to be transient are retried: I/O errors such as refused
+ * connections and timeouts, and responses from Solr meaning it is overloaded or unavailable.
+ * Errors caused by the content of the request, such as malformed JSON, are never retried.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10000;
+
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final double jitter;
+
+    private final Random random = new Random();
+
+    /**
+     * Creates a policy with the default settings.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_JITTER);
+    }
+
+    /**
+     * @param maxAttempts
+     *              the total number of attempts including the first one
+     * @param initialBackoffMillis
+     *              the wait before the second attempt
+     * @param maxBackoffMillis
+     *              the longest wait between two attempts
+     * @param jitter
+     *              the fraction of each wait, from 0 to 1, that may be randomly removed
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double jitter) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return the total number of attempts including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt
+     *              the attempt that just failed, starting at 1
+     * @return the number of milliseconds to wait before the next attempt
+     */
+    public long getBackoffMillis(int attempt) {
+        final int shift = Math.min(attempt - 1, 30);
+        final long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+        final double nextDouble;
+        synchronized (random) {
+            nextDouble = random.nextDouble();
+        }
+        return backoff - (long) (backoff * jitter * nextDouble);
+    }
+
+    /**
+     * @param attempt
+     *              the attempt that just failed, starting at 1
+     * @param e
+     *              the failure
+     * @return true if another attempt should be made
+     */
+    public boolean shouldRetry(int attempt, Exception e) {
+        return attempt < maxAttempts && isTransient(e);
+    }
+
+    /**
+     * @param e
+     * @return true if the failure is likely to go away on its own
+     */
+    public boolean isTransient(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (e instanceof SolrServerException) {
+            return e.getCause() instanceof IOException;
+        }
+        if (e instanceof SolrException) {
+            final int code = ((SolrException) e).code();
+            return code == 429 || code == 502 || code == 503 || code == 504;
+        }
+        return false;
+    }
+
+}
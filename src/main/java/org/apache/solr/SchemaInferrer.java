@@ -0,0 +1,293 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.LukeRequest;
+import org.apache.solr.client.solrj.request.schema.SchemaRequest;
+import org.apache.solr.client.solrj.response.schema.SchemaResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Infers the fields a schemaless collection would create from a sample of the JSON, so they
+ * can all be added with one Schema API call before a bulk load. Otherwise the first document
+ * with each new field changes the managed schema and reloads the core in the middle of the load.
+ *
+ * The sample is read with a JSONDocumentMapper, so the field names are the ones Solr produces
+ * for the same split and field mappings, e.g. "field2.nested_field1" for the default mappings.
+ * Names and types follow the add-unknown-fields-to-the-schema chain of the test schemaless core:
+ * <ul>
+ *     <li>characters other than letters, digits, '_', '-' and '.' in names become '_'</li>
+ *     <li>blank values are ignored</li>
+ *     <li>booleans, integers, decimals and dates, given as JSON values or as strings, become
+ *     booleans, tlongs, tdoubles and tdates, anything else strings</li>
+ *     <li>a field with both integers and decimals becomes tdoubles, with any other mix strings</li>
+ * </ul>
+ *
+ * Fields that first appear after the sample are still added by Solr as usual.
+ *
+ * This class is not thread-safe.
+ */
+public class SchemaInferrer {
+
+    public static final int DEFAULT_MAX_SAMPLE_DOCS = 1000;
+
+    /**
+     * The kinds of values that are given their own field type.
+     */
+    public enum ValueKind {
+        BOOLEAN, LONG, DOUBLE, DATE, STRING
+    }
+
+    static final Pattern INVALID_NAME_CHARS = Pattern.compile("[^\\w-\\.]");
+
+    static final Pattern BOOLEAN_PATTERN = Pattern.compile("(?i)true|false");
+
+    static final Pattern LONG_PATTERN = Pattern.compile("[-+]?\\d{1,18}");
+
+    static final Pattern DOUBLE_PATTERN = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+
+    static final Pattern DATE_PATTERN = Pattern.compile(
+            "\\d{4}-\\d{2}-\\d{2}([T ]\\d{2}:\\d{2}(:\\d{2}([.,]\\d{3})?)?(Z|[-+]\\d{4})?)?");
+
+    private final JSONDocumentMapper mapper;
+
+    private final Map<ValueKind, String> fieldTypes = new EnumMap<>(ValueKind.class);
+
+    private final Map<String, ValueKind> fields = new TreeMap<>();
+
+    private int maxSampleDocs = DEFAULT_MAX_SAMPLE_DOCS;
+
+    private int sampledDocs = 0;
+
+    /**
+     * @param mapper
+     *              the split and field mappings the JSON will be sent with
+     */
+    public SchemaInferrer(JSONDocumentMapper mapper) {
+        this.mapper = mapper;
+        fieldTypes.put(ValueKind.BOOLEAN, "booleans");
+        fieldTypes.put(ValueKind.LONG, "tlongs");
+        fieldTypes.put(ValueKind.DOUBLE, "tdoubles");
+        fieldTypes.put(ValueKind.DATE, "tdates");
+        fieldTypes.put(ValueKind.STRING, "strings");
+    }
+
+    /**
+     * @param maxSampleDocs
+     *              the number of documents after which further samples are ignored
+     */
+    public void setMaxSampleDocs(int maxSampleDocs) {
+        this.maxSampleDocs = maxSampleDocs;
+    }
+
+    /**
+     * Sets the field type for a kind of value, for collections configured differently from the
+     * test schemaless core.
+     *
+     * @param valueKind
+     * @param fieldType
+     */
+    public void setFieldType(ValueKind valueKind, String fieldType) {
+        fieldTypes.put(valueKind, fieldType);
+    }
+
+    /**
+     * Samples documents from the JSON until the maximum number of documents have been sampled,
+     * the rest of the JSON is read but ignored.
+     *
+     * @param jsonReader
+     * @return the number of documents sampled from this JSON
+     */
+    public int sample(Reader jsonReader) throws IOException {
+        final int before = sampledDocs;
+        if (sampledDocs >= maxSampleDocs) {
+            return 0;
+        }
+
+        mapper.map(jsonReader, new JSONDocumentMapper.DocumentHandler() {
+            @Override
+            public void handle(SolrInputDocument document) {
+                if (sampledDocs < maxSampleDocs) {
+                    sample(document);
+                }
+            }
+        });
+        return sampledDocs - before;
+    }
+
+    /**
+     * Adds the fields of one document to the sample.
+     *
+     * @param document
+     */
+    public void sample(SolrInputDocument document) {
+        sampledDocs++;
+        for (SolrInputField field : document) {
+            ValueKind kind = null;
+            for (Object value : field) {
+                final ValueKind valueKind = kindOf(value);
+                if (valueKind != null) {
+                    kind = merge(kind, valueKind);
+                }
+            }
+
+            if (kind != null) {
+                final String name = INVALID_NAME_CHARS.matcher(field.getName()).replaceAll("_");
+                fields.put(name, merge(fields.get(name), kind));
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents sampled
+     */
+    public int getSampledDocs() {
+        return sampledDocs;
+    }
+
+    /**
+     * @return the name and field type of every field seen in the sample, sorted by name
+     */
+    public Map<String, String> getInferredFields() {
+        final Map<String, String> inferredFields = new LinkedHashMap<>();
+        for (Map.Entry<String, ValueKind> field : fields.entrySet()) {
+            inferredFields.put(field.getKey(), fieldTypes.get(field.getValue()));
+        }
+        return inferredFields;
+    }
+
+    /**
+     * Adds the inferred fields that are not already in the schema, as explicit fields or by
+     * matching a dynamic field, with one Schema API request.
+     *
+     * @param solrClient
+     * @param collection
+     *              the collection to change, or null to use the client's default
+     * @return the fields that were added, which is empty if no request was needed
+     */
+    public Map<String, String> register(SolrClient solrClient, String collection)
+            throws SolrServerException, IOException {
+        final Map<String, String> missingFields = getMissingFields(solrClient, collection);
+        if (missingFields.isEmpty()) {
+            return missingFields;
+        }
+
+        final List<SchemaRequest.Update> addFields = new ArrayList<>(missingFields.size());
+        for (Map.Entry<String, String> field : missingFields.entrySet()) {
+            final Map<String, Object> attributes = new LinkedHashMap<>();
+            attributes.put("name", field.getKey());
+            attributes.put("type", field.getValue());
+            addFields.add(new SchemaRequest.AddField(attributes));
+        }
+
+        final SchemaResponse.UpdateResponse response =
+                new SchemaRequest.MultiUpdate(addFields).process(solrClient, collection);
+        final Object errors = response.getResponse().get("errors");
+        if (errors != null) {
+            throw new SolrServerException("Failed to add inferred fields: " + errors);
+        }
+        return missingFields;
+    }
+
+    private Map<String, String> getMissingFields(SolrClient solrClient, String collection)
+            throws SolrServerException, IOException {
+        final LukeRequest lukeRequest = new LukeRequest();
+        lukeRequest.setShowSchema(true);
+        lukeRequest.setNumTerms(0);
+        final NamedList<?> schema = (NamedList<?>) lukeRequest.process(solrClient, collection)
+                .getResponse().get("schema");
+
+        final Set<String> existingFields = new HashSet<>();
+        final List<String> dynamicFields = new ArrayList<>();
+        if (schema != null) {
+            addNames((NamedList<?>) schema.get("fields"), existingFields);
+            addNames((NamedList<?>) schema.get("dynamicFields"), dynamicFields);
+        }
+
+        final Map<String, String> missingFields = new LinkedHashMap<>();
+        for (Map.Entry<String, String> field : getInferredFields().entrySet()) {
+            if (!existingFields.contains(field.getKey()) && !matchesAny(field.getKey(), dynamicFields)) {
+                missingFields.put(field.getKey(), field.getValue());
+            }
+        }
+        return missingFields;
+    }
+
+    private static void addNames(NamedList<?> namedList, Collection<String> names) {
+        if (namedList != null) {
+            for (int i = 0; i < namedList.size(); i++) {
+                names.add(namedList.getName(i));
+            }
+        }
+    }
+
+    static boolean matchesAny(String name, List<String> dynamicFields) {
+        for (String pattern : dynamicFields) {
+            if (pattern.startsWith("*") ? name.endsWith(pattern.substring(1))
+                    : pattern.endsWith("*") && name.startsWith(pattern.substring(0, pattern.length() - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static ValueKind kindOf(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Boolean) {
+            return ValueKind.BOOLEAN;
+        }
+        if (value instanceof Long || value instanceof Integer) {
+            return ValueKind.LONG;
+        }
+        if (value instanceof Number) {
+            return ValueKind.DOUBLE;
+        }
+        if (value instanceof Date) {
+            return ValueKind.DATE;
+        }
+
+        final String text = value.toString().trim();
+        if (text.isEmpty()) {
+            return null;
+        } else if (BOOLEAN_PATTERN.matcher(text).matches()) {
+            return ValueKind.BOOLEAN;
+        } else if (LONG_PATTERN.matcher(text).matches()) {
+            return ValueKind.LONG;
+        } else if (DOUBLE_PATTERN.matcher(text).matches()) {
+            return ValueKind.DOUBLE;
+        } else if (DATE_PATTERN.matcher(text).matches()) {
+            return ValueKind.DATE;
+        }
+        return ValueKind.STRING;
+    }
+
+    static ValueKind merge(ValueKind current, ValueKind other) {
+        if (current == null || current == other) {
+            return other;
+        }
+        if ((current == ValueKind.LONG && other == ValueKind.DOUBLE)
+                || (current == ValueKind.DOUBLE && other == ValueKind.LONG)) {
+            return ValueKind.DOUBLE;
+        }
+        return ValueKind.STRING;
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.apache.solr;
+
+/**
+ * Called by JSONUpdateRequest.send() after every attempt to send the request, including each
+ * attempt that is retried, with where the time went.
+ *
+ * The time to first byte is from the start of the attempt until the first byte of the body is
+ * read by the client or server, which covers preparing the request and, for client-side mapping,
+ * mapping and encoding the documents. The rest of the total time is the transfer of the body and
+ * the work of the server, of which the server reports its own part as the QTime.
+ *
+ * Listeners are called on the thread sending the request and should return quickly.
+ */
+public interface UpdateListener {
+
+    /**
+     * @param request
+     * @param bytesSent
+     *              the bytes of the body read from the content streams, after any compression
+     * @param firstByteNanos
+     *              the time until the first byte of the body was read, or -1 if none was
+     * @param totalNanos
+     *              the time of the whole attempt
+     * @param qTime
+     *              the QTime reported by the server in milliseconds
+     */
+    void onSuccess(JSONUpdateRequest request, long bytesSent, long firstByteNanos, long totalNanos, int qTime);
+
+    /**
+     * @param request
+     * @param bytesSent
+     *              the bytes of the body read before the failure
+     * @param firstByteNanos
+     *              the time until the first byte of the body was read, or -1 if none was
+     * @param totalNanos
+     *              the time until the failure
+     * @param e
+     *              the failure, which is rethrown or retried after the listener returns
+     */
+    void onFailure(JSONUpdateRequest request, long bytesSent, long firstByteNanos, long totalNanos, Exception e);
+
+}
@@ -0,0 +1,116 @@
+package org.apache.solr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An UpdateListener that aggregates every attempt into histograms, shared by any number of
+ * requests and threads, to show whether slow updates are spent preparing the request on the
+ * client, sending it, or indexing on the server.
+ *
+ * Times are recorded in microseconds, except the QTime which Solr reports in milliseconds.
+ * Failed attempts are counted, and their times recorded in the failure histogram only.
+ */
+public class UpdateMetrics implements UpdateListener {
+
+    private final AtomicLong requests = new AtomicLong(0);
+
+    private final AtomicLong failures = new AtomicLong(0);
+
+    private final AtomicLong bytesSent = new AtomicLong(0);
+
+    private final Histogram totalMicros = new Histogram();
+
+    private final Histogram firstByteMicros = new Histogram();
+
+    private final Histogram qTimeMillis = new Histogram();
+
+    private final Histogram requestBytes = new Histogram();
+
+    private final Histogram failureMicros = new Histogram();
+
+    @Override
+    public void onSuccess(JSONUpdateRequest request, long bytesSent, long firstByteNanos, long totalNanos, int qTime) {
+        requests.incrementAndGet();
+        this.bytesSent.addAndGet(bytesSent);
+        requestBytes.record(bytesSent);
+        totalMicros.record(TimeUnit.NANOSECONDS.toMicros(totalNanos));
+        if (firstByteNanos >= 0) {
+            firstByteMicros.record(TimeUnit.NANOSECONDS.toMicros(firstByteNanos));
+        }
+        qTimeMillis.record(qTime);
+    }
+
+    @Override
+    public void onFailure(JSONUpdateRequest request, long bytesSent, long firstByteNanos, long totalNanos, Exception e) {
+        failures.incrementAndGet();
+        this.bytesSent.addAndGet(bytesSent);
+        failureMicros.record(TimeUnit.NANOSECONDS.toMicros(totalNanos));
+    }
+
+    /**
+     * @return the number of successful attempts
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of failed attempts, including those that were retried
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the bytes sent by all attempts, including failed ones
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return the time of successful attempts in microseconds
+     */
+    public Histogram getTotalMicros() {
+        return totalMicros;
+    }
+
+    /**
+     * @return the time until the first byte of the body was read in microseconds
+     */
+    public Histogram getFirstByteMicros() {
+        return firstByteMicros;
+    }
+
+    /**
+     * @return the QTime reported by the server in milliseconds
+     */
+    public Histogram getQTimeMillis() {
+        return qTimeMillis;
+    }
+
+    /**
+     * @return the size of the body of successful attempts
+     */
+    public Histogram getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return the time until failed attempts failed in microseconds
+     */
+    public Histogram getFailureMicros() {
+        return failureMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequests() + ", failures=" + getFailures() + ", bytes=" + getBytesSent()
+                + "\n  total us:      " + totalMicros
+                + "\n  first byte us: " + firstByteMicros
+                + "\n  qtime ms:      " + qTimeMillis
+                + "\n  bytes:         " + requestBytes;
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.apache.solr;
+
+import org.apache.solr.common.SolrException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for raising and lowering the number of requests in flight from their latency and failures.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testLimitGrowsWhileFastAndBusy() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8);
+        for (int round = 0; round < 50; round++) {
+            runRound(limiter, FAST, null);
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertEquals(FAST, limiter.getBaselineNanos());
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenIdle() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 4);
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire().release(FAST, null);
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowRoundLowersLimitOnce() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 16, 8);
+        runRound(limiter, FAST, null);
+        final int limit = limiter.getLimit();
+
+        // every request in flight is slow, but they were all sent before the first was seen
+        runRound(limiter, SLOW, null);
+        Assert.assertEquals(1, limiter.getDecreases());
+        Assert.assertEquals((int) (limit * AdaptiveConcurrencyLimiter.DEFAULT_BACKOFF_RATIO), limiter.getLimit());
+
+        // requests sent after the decrease lower it again if they are still slow
+        runRound(limiter, SLOW, null);
+        Assert.assertEquals(2, limiter.getDecreases());
+    }
+
+    @Test
+    public void testLimitStaysWithinRange() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 4);
+        runRound(limiter, FAST, null);
+        for (int round = 0; round < 20; round++) {
+            runRound(limiter, SLOW, null);
+        }
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testOnlyTransientFailuresLowerLimit() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 16, 8);
+
+        runRound(limiter, FAST, new SolrException(SolrException.ErrorCode.BAD_REQUEST, "bad document"));
+        Assert.assertEquals(0, limiter.getDecreases());
+        Assert.assertEquals(8, limiter.getLimit());
+
+        runRound(limiter, FAST, new SocketTimeoutException("Read timed out"));
+        Assert.assertEquals(1, limiter.getDecreases());
+        Assert.assertEquals(6, limiter.getLimit());
+
+        runRound(limiter, FAST, new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "overloaded"));
+        Assert.assertEquals(2, limiter.getDecreases());
+    }
+
+    @Test
+    public void testBaselineFollowsLastingChange() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+        limiter.acquire().release(FAST, null);
+
+        // a lasting 1.5x slowdown is within the tolerance, so the baseline may rise to it in steps
+        final long slower = FAST * 3 / 2;
+        for (int i = 0; i < 10 * AdaptiveConcurrencyLimiter.BASELINE_WINDOW; i++) {
+            limiter.acquire().release(slower, null);
+        }
+        Assert.assertEquals(slower, limiter.getBaselineNanos());
+        Assert.assertEquals(0, limiter.getDecreases());
+    }
+
+    @Test
+    public void testAcquireWaitsForLimit() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 8);
+        final AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        Assert.assertNotNull(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+        Assert.assertNull(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+
+        // a transient failure can't lower the limit below the minimum
+        first.release(new IOException("Connection reset"));
+        Assert.assertEquals(2, limiter.getLimit());
+        Assert.assertNotNull(limiter.tryAcquire(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPermitReleasedOnce() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter.Permit permit = new AdaptiveConcurrencyLimiter(1, 1).acquire();
+        permit.release();
+        permit.release();
+    }
+
+    /**
+     * Fills the limit with requests, then releases them all with the same outcome.
+     */
+    private static void runRound(AdaptiveConcurrencyLimiter limiter, long latencyNanos, Exception failure)
+            throws InterruptedException {
+        final List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        while ((permit = limiter.tryAcquire(0, TimeUnit.MILLISECONDS)) != null) {
+            permits.add(permit);
+        }
+        for (AdaptiveConcurrencyLimiter.Permit acquired : permits) {
+            acquired.release(latencyNanos, failure);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.embedded.JettyConfig;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for submitting JSONUpdateRequests without blocking a thread per request.
+ */
+public class AsyncJSONUpdateClientTest {
+
+    static final String CORE_NAME = "jsonCollection";
+
+    static final String DATA_DIR = EmbeddedSolrServerFactory.DEFAULT_DATA_DIR + "/asyncJsonCollection";
+
+    static final int NUM_REQUESTS = 300;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JettySolrRunner jetty;
+
+    private HttpSolrClient solrClient;
+
+    private AsyncJSONUpdateClient asyncClient;
+
+    @Before
+    public void setup() throws Exception {
+        FileUtils.deleteDirectory(new File(DATA_DIR));
+
+        JettyConfig jettyConfig = JettyConfig.builder()
+                .setContext("/solr")
+                .setPort(0)
+                .build();
+        jetty = new JettySolrRunner(new File(EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getAbsolutePath(), jettyConfig);
+        jetty.start();
+
+        // the connector is not bound to a host name so getBaseUrl() can't be used
+        final String baseUrl = "http://127.0.0.1:" + jetty.getLocalPort() + "/solr";
+
+        HttpSolrClient adminClient = new HttpSolrClient(baseUrl);
+        try {
+            CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+            create.setCoreName(CORE_NAME);
+            create.setInstanceDir(createInstanceDir().getAbsolutePath());
+            create.setDataDir(DATA_DIR);
+            create.process(adminClient);
+        } finally {
+            adminClient.close();
+        }
+
+        solrClient = new HttpSolrClient(baseUrl + "/" + CORE_NAME);
+        asyncClient = new AsyncJSONUpdateClient(baseUrl, 64, 2);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (asyncClient != null) {
+            asyncClient.close();
+        }
+        if (solrClient != null) {
+            solrClient.close();
+        }
+        if (jetty != null) {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testManyRequestsInFlight() throws Exception {
+        final List<CompletableFuture<UpdateResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < NUM_REQUESTS; i++) {
+            final JSONUpdateRequest request = createRequest();
+            request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+            futures.add(asyncClient.submit(request, CORE_NAME));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(60, TimeUnit.SECONDS);
+        for (CompletableFuture<UpdateResponse> future : futures) {
+            Assert.assertEquals(0, future.get().getStatus());
+        }
+
+        solrClient.commit();
+        Assert.assertEquals(2 * NUM_REQUESTS, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testMultipleStreamsAreJoined() throws Exception {
+        final JSONUpdateRequest request = createRequest();
+        request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        request.addBytes(IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8"));
+
+        Assert.assertEquals(0, asyncClient.submit(request, CORE_NAME).get(30, TimeUnit.SECONDS).getStatus());
+
+        solrClient.commit();
+        Assert.assertEquals(4, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testServerErrorCompletesExceptionally() throws Exception {
+        final JSONUpdateRequest request = createRequest();
+        request.addBytes("{ \"first\" : ".getBytes("UTF-8"));
+
+        try {
+            asyncClient.submit(request, CORE_NAME).get(30, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SolrException);
+            // Solr 5.3 reports JSON parse errors as server errors
+            Assert.assertEquals(500, ((SolrException) e.getCause()).code());
+            Assert.assertTrue(e.getCause().getMessage().contains("Premature EOF"));
+        }
+    }
+
+    @Test
+    public void testSendAsync() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<CompletableFuture<UpdateResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                final JSONUpdateRequest request = createRequest();
+                request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+                futures.add(request.sendAsync(solrClient, null, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        solrClient.commit();
+        Assert.assertEquals(20, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    /**
+     * Copies the config of the test core without its core.properties, which CoreAdmin
+     * would otherwise refuse to create a core over.
+     */
+    private File createInstanceDir() throws IOException {
+        final File instanceDir = tempFolder.newFolder(CORE_NAME);
+        FileUtils.copyDirectory(new File(EmbeddedSolrServerFactory.DEFAULT_CORE_HOME, CORE_NAME + "/conf"),
+                new File(instanceDir, "conf"));
+        return instanceDir;
+    }
+
+    private JSONUpdateRequest createRequest() {
+        JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        return request;
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.common.SolrException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for isolating the documents Solr rejects from a batch.
+ */
+public class BatchBisectorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    private CollectingSink sink;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        sink = new CollectingSink();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        solrClient.close();
+    }
+
+    @Test
+    public void testBatcherIsolatesPoisonedSources() throws IOException, SolrServerException {
+        final JSONUpdateBatcher batcher = new JSONUpdateBatcher(solrClient);
+        batcher.addFieldMapping("first", "/first");
+        batcher.addFieldMapping("grade", "/grade");
+        batcher.setMaxBatchDocs(16);
+        batcher.setDeadLetterSink(sink);
+
+        for (int i = 0; i < 16; i++) {
+            batcher.add(createDocument(i, i == 5 || i == 12).getBytes(StandardCharsets.UTF_8));
+        }
+        solrClient.commit();
+
+        Assert.assertEquals(2, sink.documents.size());
+        Assert.assertEquals(createDocument(5, true), sink.documents.get(0));
+        Assert.assertEquals(createDocument(12, true), sink.documents.get(1));
+        for (Exception e : sink.failures) {
+            Assert.assertNotNull(e.getMessage());
+        }
+
+        for (int i = 0; i < 16; i++) {
+            final long numFound = solrClient.query(new SolrQuery("first:student" + i)).getResults().getNumFound();
+            if (i == 5 || i == 12) {
+                Assert.assertEquals(0, numFound);
+            } else {
+                Assert.assertTrue(numFound >= 1);
+            }
+        }
+
+        final BatchBisector bisector = batcher.getBatchBisector();
+        Assert.assertEquals(1, bisector.getBatchesIsolated());
+        Assert.assertEquals(2, bisector.getDeadLetters());
+        Assert.assertTrue(bisector.getRequestsSent() < 16);
+    }
+
+    @Test
+    public void testSingleStreamIsSplitIntoDocuments() throws IOException, SolrServerException {
+        final JSONUpdateRequest request = createPoisonedArray(8, 3);
+
+        final BatchBisector bisector = new BatchBisector(sink);
+        Assert.assertNotNull(bisector.send(request, solrClient, null));
+        solrClient.commit();
+
+        Assert.assertEquals(Collections.singletonList("[" + createDocument(3, true) + "]"), sink.documents);
+        Assert.assertEquals(0, solrClient.query(new SolrQuery("first:student3")).getResults().getNumFound());
+        Assert.assertEquals(1, solrClient.query(new SolrQuery("first:student7")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testCleanBatchIsSentOnce() throws IOException, SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("grade", "/grade");
+        request.addBytes(createDocument(1, false).getBytes(StandardCharsets.UTF_8));
+        request.addBytes(createDocument(2, false).getBytes(StandardCharsets.UTF_8));
+
+        final BatchBisector bisector = new BatchBisector(sink);
+        bisector.send(request, solrClient, null);
+
+        Assert.assertEquals(1, bisector.getRequestsSent());
+        Assert.assertEquals(0, bisector.getBatchesIsolated());
+        Assert.assertTrue(sink.documents.isEmpty());
+    }
+
+    @Test
+    public void testTransientFailureIsThrown() throws SolrServerException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.addBytes(createDocument(1, false).getBytes(StandardCharsets.UTF_8));
+        request.addBytes(createDocument(2, false).getBytes(StandardCharsets.UTF_8));
+
+        final BatchBisector bisector = new BatchBisector(sink);
+        try {
+            bisector.send(request, new JSONUpdateRequestRetryTest.FailingSolrClient(solrClient, 1, 0), null);
+            Assert.fail("Expected the failure to be thrown");
+        } catch (IOException e) {
+            Assert.assertEquals(1, bisector.getRequestsSent());
+            Assert.assertTrue(sink.documents.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSingleStreamIsSplitOverHttp() throws Exception {
+        final JettySolrRunner jetty = JettySolrServerFactory.start(tempFolder.getRoot(), "jsonCollection");
+        try (SolrClient httpClient = JettySolrServerFactory.createClient(jetty, "jsonCollection")) {
+            final BatchBisector bisector = new BatchBisector(sink);
+            Assert.assertNotNull(bisector.send(createPoisonedArray(8, 3), httpClient, null));
+            httpClient.commit();
+
+            // each half of several documents must reach Solr whole, not only its first document
+            Assert.assertEquals(Collections.singletonList("[" + createDocument(3, true) + "]"), sink.documents);
+            for (int i = 0; i < 8; i++) {
+                final long numFound = httpClient.query(new SolrQuery("first:student" + i)).getResults().getNumFound();
+                Assert.assertEquals(i == 3, numFound == 0);
+            }
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testFailureOfCollectionIsThrown() throws Exception {
+        final JettySolrRunner jetty = JettySolrServerFactory.start(tempFolder.getRoot(), "jsonCollection");
+        try (SolrClient httpClient = JettySolrServerFactory.createClient(jetty, "missingCollection")) {
+            final BatchBisector bisector = new BatchBisector(sink);
+            try {
+                bisector.send(createPoisonedArray(8, 3), httpClient, null);
+                Assert.fail("Expected the failure to be thrown");
+            } catch (SolrException e) {
+                Assert.assertEquals(404, e.code());
+                Assert.assertEquals(1, bisector.getRequestsSent());
+                Assert.assertEquals(0, bisector.getBatchesIsolated());
+                Assert.assertTrue(sink.documents.isEmpty());
+            }
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    private static JSONUpdateRequest createPoisonedArray(int numDocs, int poisoned) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < numDocs; i++) {
+            json.append(i == 0 ? "" : ",\n").append(createDocument(i, i == poisoned));
+        }
+        json.append("]");
+
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("grade", "/grade");
+        request.addInputStream(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)));
+        return request;
+    }
+
+    private static String createDocument(int i, boolean poisoned) {
+        return "{\"first\":\"student" + i + "\",\"grade\":" + (poisoned ? "\"eight\"" : "8") + "}";
+    }
+
+    private static class CollectingSink implements DeadLetterSink {
+
+        private final List<String> documents = new ArrayList<>();
+
+        private final List<Exception> failures = new ArrayList<>();
+
+        @Override
+        public void deadLetter(byte[] json, Exception e) {
+            documents.add(new String(json, StandardCharsets.UTF_8));
+            failures.add(e);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Tests for indexing parent/child blocks instead of flattened documents, and answering the
+ * queries of the flattened documents with block join.
+ */
+public class BlockJoinTest {
+
+    static final String PARENTS = JSONDocumentMapper.TYPE_FIELD + ":" + JSONDocumentMapper.PARENT_TYPE;
+
+    private SolrClient flattenedClient;
+
+    private SolrClient nestedClient;
+
+    @Before
+    public void setup() throws IOException, SolrServerException {
+        flattenedClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        nestedClient = EmbeddedSolrServerFactory.create("nestedCollection");
+
+        for (String json : new String[] {IndexJSONTest.EXAMPLE_JSON, IndexJSONTest.EXAMPLE_JSON2}) {
+            final JSONUpdateRequest flattened = createRequest();
+            flattened.addBytes(json.getBytes("UTF-8"));
+            flattened.process(flattenedClient);
+
+            final JSONUpdateRequest nested = createRequest();
+            nested.setBlockJoin("id");
+            nested.addBytes(json.getBytes("UTF-8"));
+            nested.process(nestedClient);
+        }
+        flattenedClient.commit();
+        nestedClient.commit();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (flattenedClient != null) {
+            flattenedClient.close();
+        }
+        if (nestedClient != null) {
+            nestedClient.close();
+        }
+    }
+
+    @Test
+    public void testMapperProducesBlocks() throws IOException {
+        final JSONDocumentMapper mapper = new JSONDocumentMapper.Builder()
+                .setSplit("/exams")
+                .addFieldMapping("first", "/first")
+                .addFieldMapping("last", "/last")
+                .addFieldMapping("subject", "/exams/subject")
+                .addFieldMapping("marks", "/exams/marks")
+                .setBlockJoin("id")
+                .build();
+
+        final List<SolrInputDocument> documents = mapper.map(new StringReader(IndexJSONTest.EXAMPLE_JSON));
+        Assert.assertEquals(1, documents.size());
+
+        final SolrInputDocument parent = documents.get(0);
+        Assert.assertEquals("John", parent.getFieldValue("first"));
+        Assert.assertEquals("Doe", parent.getFieldValue("last"));
+        Assert.assertNull(parent.getFieldValue("subject"));
+        Assert.assertEquals(JSONDocumentMapper.PARENT_TYPE, parent.getFieldValue(JSONDocumentMapper.TYPE_FIELD));
+
+        final List<SolrInputDocument> children = parent.getChildDocuments();
+        Assert.assertEquals(2, children.size());
+        Assert.assertEquals("Maths", children.get(0).getFieldValue("subject"));
+        Assert.assertEquals("Biology", children.get(1).getFieldValue("subject"));
+        for (SolrInputDocument child : children) {
+            Assert.assertNull(child.getFieldValue("first"));
+            Assert.assertNull(child.getFieldValue("last"));
+            Assert.assertEquals(JSONDocumentMapper.CHILD_TYPE, child.getFieldValue(JSONDocumentMapper.TYPE_FIELD));
+            Assert.assertTrue(child.getFieldValue("id").toString().startsWith(parent.getFieldValue("id") + "/"));
+        }
+    }
+
+    @Test
+    public void testResendReplacesBlock() throws IOException, SolrServerException {
+        // retries, bisection, and resumed ingest all send the same records again
+        final JSONUpdateRequest nested = createRequest();
+        nested.setBlockJoin("id");
+        nested.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        nested.process(nestedClient);
+        nestedClient.commit();
+
+        Assert.assertEquals(2, nestedClient.query(new SolrQuery(PARENTS)).getResults().getNumFound());
+        Assert.assertEquals(4, nestedClient.query(new SolrQuery("subject:*")).getResults().getNumFound());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockJoinNeedsSplitBelowRoot() {
+        new JSONDocumentMapper.Builder().setSplit("/").setBlockJoin("id").build();
+    }
+
+    @Test
+    public void testBlockJoinCanBeUnset() {
+        final JSONUpdateRequest request = createRequest();
+        request.setBlockJoin("id");
+        Assert.assertTrue(request.isClientSideMapping());
+        Assert.assertEquals(JSONUpdateRequest.UPDATE_PATH, request.getPath());
+
+        request.setBlockJoin(null);
+        Assert.assertFalse(request.isClientSideMapping());
+        Assert.assertEquals(JSONUpdateRequest.JSON_DOCS_PATH, request.getPath());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBlockJoinWithSharedMapper() {
+        final JSONUpdateRequest request = createRequest();
+        request.setClientSideMapping(JSONDocumentMapper.fromParams(request.getParams()));
+        request.setBlockJoin("id");
+    }
+
+    @Test
+    public void testParentFieldsAreStoredOnce() throws IOException, SolrServerException {
+        Assert.assertEquals(4, flattenedClient.query(new SolrQuery("first:*")).getResults().getNumFound());
+
+        Assert.assertEquals(2, nestedClient.query(new SolrQuery("first:*")).getResults().getNumFound());
+        Assert.assertEquals(2, nestedClient.query(new SolrQuery(PARENTS)).getResults().getNumFound());
+        Assert.assertEquals(4, nestedClient.query(new SolrQuery("subject:*")).getResults().getNumFound());
+        Assert.assertEquals(0, nestedClient.query(new SolrQuery("subject:* AND first:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testParentsOfMatchingChildren() throws IOException, SolrServerException {
+        final QueryResponse flattened = flattenedClient.query(new SolrQuery("subject:Maths AND marks:[91 TO *]"));
+        Assert.assertEquals(1, flattened.getResults().getNumFound());
+        Assert.assertEquals("Bob", flattened.getResults().get(0).getFieldValue("first"));
+
+        final QueryResponse nested = nestedClient.query(
+                new SolrQuery("{!parent which=\"" + PARENTS + "\"}(+subject:Maths +marks:[91 TO *])"));
+        Assert.assertEquals(1, nested.getResults().getNumFound());
+        Assert.assertEquals("Bob", nested.getResults().get(0).getFieldValue("first"));
+    }
+
+    @Test
+    public void testChildrenOfMatchingParents() throws IOException, SolrServerException {
+        final QueryResponse flattened = flattenedClient.query(new SolrQuery("first:John").addSort("marks", SolrQuery.ORDER.asc));
+        final QueryResponse nested = nestedClient.query(new SolrQuery("{!child of=\"" + PARENTS + "\"}first:John")
+                .addSort("marks", SolrQuery.ORDER.asc));
+
+        Assert.assertEquals(2, nested.getResults().getNumFound());
+        for (int i = 0; i < 2; i++) {
+            final SolrDocument flattenedDoc = flattened.getResults().get(i);
+            final SolrDocument nestedDoc = nested.getResults().get(i);
+            Assert.assertEquals(flattenedDoc.getFieldValue("subject"), nestedDoc.getFieldValue("subject"));
+            Assert.assertEquals(flattenedDoc.getFieldValue("marks"), nestedDoc.getFieldValue("marks"));
+            Assert.assertNull(nestedDoc.getFieldValue("first"));
+        }
+    }
+
+    private JSONUpdateRequest createRequest() {
+        JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        return request;
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for applying the split and field mappings on the client and sending javabin.
+ */
+public class ClientSideMappingTest {
+
+    static final int NUM_COMPARISON_DOCS = 50;
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testMapperProducesSameDocsAsServer() throws IOException {
+        JSONDocumentMapper mapper = new JSONDocumentMapper("/exams", getFieldMappings());
+        List<SolrInputDocument> documents = mapper.map(new StringReader(IndexJSONTest.EXAMPLE_JSON));
+        Assert.assertEquals(2, documents.size());
+
+        for (SolrDocument expectedDoc : IndexJSONTest.EXPECTED_SOLR_DOCS) {
+            boolean found = false;
+            for (SolrInputDocument document : documents) {
+                if (expectedDoc.getFirstValue("subject").equals(document.getFieldValue("subject"))) {
+                    found = true;
+                    Assert.assertEquals(expectedDoc.getFieldNames(), document.getFieldNames());
+                    Assert.assertEquals("John", document.getFieldValue("first"));
+                    Assert.assertEquals(8L, document.getFieldValue("grade"));
+                }
+            }
+            Assert.assertTrue(found);
+        }
+    }
+
+    @Test
+    public void testMapperDefaultsToFullyQualifiedNames() throws IOException {
+        JSONDocumentMapper mapper = new JSONDocumentMapper(null, null);
+        List<SolrInputDocument> documents = mapper.map(new StringReader(IndexJSONTest.EXAMPLE_JSON));
+        Assert.assertEquals(1, documents.size());
+
+        SolrInputDocument document = documents.get(0);
+        Assert.assertEquals("John", document.getFieldValue("first"));
+        Assert.assertEquals(2, document.getFieldValues("exams.subject").size());
+    }
+
+    @Test
+    public void testMapperWithManyMappedPaths() throws IOException {
+        final int numFields = 60;
+
+        JSONDocumentMapper.Builder builder = new JSONDocumentMapper.Builder().setSplit("/");
+        StringBuilder json = new StringBuilder("{ \"group\" : {");
+        for (int i = 0; i < numFields; i++) {
+            builder.addFieldMapping("field" + i + "_s", "/group/field" + i);
+            json.append(i > 0 ? ", " : " ").append("\"field").append(i).append("\" : \"value").append(i).append("\"");
+        }
+        json.append(" }, \"unmapped\" : \"ignored\" }");
+
+        List<SolrInputDocument> documents = builder.build().map(new StringReader(json.toString()));
+        Assert.assertEquals(1, documents.size());
+
+        SolrInputDocument document = documents.get(0);
+        Assert.assertEquals(numFields, document.getFieldNames().size());
+        for (int i = 0; i < numFields; i++) {
+            Assert.assertEquals("value" + i, document.getFieldValue("field" + i + "_s"));
+        }
+    }
+
+    @Test
+    public void testMapperSharedAcrossThreads() throws Exception {
+        final JSONDocumentMapper mapper = new JSONDocumentMapper("/exams", getFieldMappings());
+        final List<Throwable> errors = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final String json = i % 2 == 0 ? IndexJSONTest.EXAMPLE_JSON : IndexJSONTest.EXAMPLE_JSON2;
+            final String first = i % 2 == 0 ? "John" : "Bob";
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            List<SolrInputDocument> documents = mapper.map(new StringReader(json));
+                            Assert.assertEquals(2, documents.size());
+                            Assert.assertEquals(first, documents.get(0).getFieldValue("first"));
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testClientSideMappingRequest() throws IOException, SolrServerException {
+        JSONUpdateRequest request = createRequest(IndexJSONTest.EXAMPLE_JSON);
+        request.setClientSideMapping(true);
+        Assert.assertEquals(JSONUpdateRequest.UPDATE_PATH, request.getPath());
+
+        UpdateResponse response = request.process(solrClient);
+        Assert.assertEquals(0, response.getStatus());
+        solrClient.commit();
+
+        QueryResponse qResponse = solrClient.query(new SolrQuery("*:*"));
+        Assert.assertEquals(2, qResponse.getResults().getNumFound());
+        for (SolrDocument solrDocument : qResponse.getResults()) {
+            Assert.assertEquals("John", solrDocument.getFirstValue("first"));
+            Assert.assertEquals(8, solrDocument.getFirstValue("grade"));
+        }
+    }
+
+    @Test
+    public void testServerAndClientSideIndexSameDocs() throws IOException, SolrServerException {
+        final String json = createJsonArray(NUM_COMPARISON_DOCS);
+
+        long serverSideCount = sendAndCount(json, false);
+        long clientSideCount = sendAndCount(json, true);
+
+        Assert.assertEquals(NUM_COMPARISON_DOCS * 2, serverSideCount);
+        Assert.assertEquals(serverSideCount, clientSideCount);
+    }
+
+    private long sendAndCount(String json, boolean clientSideMapping) throws IOException, SolrServerException {
+        solrClient.deleteByQuery("*:*");
+        solrClient.commit();
+
+        JSONUpdateRequest request = createRequest(json);
+        if (clientSideMapping) {
+            request.setClientSideMapping(new JSONDocumentMapper("/exams", getFieldMappings()));
+        }
+        Assert.assertEquals(0, request.process(solrClient).getStatus());
+        solrClient.commit();
+
+        return solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+    }
+
+    private String createJsonArray(int numDocs) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < numDocs; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append(i % 2 == 0 ? IndexJSONTest.EXAMPLE_JSON : IndexJSONTest.EXAMPLE_JSON2);
+        }
+        return builder.append("]").toString();
+    }
+
+    private JSONUpdateRequest createRequest(String json) throws IOException {
+        JSONUpdateRequest request = new JSONUpdateRequest(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        request.setSplit("/exams");
+        for (String fieldMapping : getFieldMappings()) {
+            request.getParams().add("f", fieldMapping);
+        }
+        return request;
+    }
+
+    private List<String> getFieldMappings() {
+        List<String> fieldMappings = new ArrayList<>();
+        fieldMappings.add("first:/first");
+        fieldMappings.add("last:/last");
+        fieldMappings.add("grade:/grade");
+        fieldMappings.add("subject:/exams/subject");
+        fieldMappings.add("test:/exams/test");
+        fieldMappings.add("marks:/exams/marks");
+        return fieldMappings;
+    }
+
+}
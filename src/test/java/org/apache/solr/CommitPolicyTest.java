@@ -0,0 +1,206 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for giving requests a commitWithin and coalescing commits with CommitPolicy.
+ */
+public class CommitPolicyTest {
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testDefaultCommitWithin() throws IOException, SolrServerException {
+        final CommitPolicy commitPolicy = new CommitPolicy(solrClient);
+        Assert.assertEquals(CommitPolicy.DEFAULT_MAX_COMMIT_WITHIN, commitPolicy.getCommitWithin());
+
+        final JSONUpdateRequest request = createRequest();
+        commitPolicy.apply(request);
+        Assert.assertEquals(CommitPolicy.DEFAULT_MAX_COMMIT_WITHIN, request.getCommitWithin());
+        Assert.assertEquals(String.valueOf(CommitPolicy.DEFAULT_MAX_COMMIT_WITHIN),
+                request.getParams().get(UpdateParams.COMMIT_WITHIN));
+
+        request.process(solrClient);
+        Assert.assertNotNull(commitPolicy.commit());
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testConcurrentCommitsCoalesced() throws Exception {
+        final int numThreads = 8;
+        final CountingSolrClient countingClient = new CountingSolrClient(solrClient, 200);
+        final CommitPolicy commitPolicy = new CommitPolicy(countingClient);
+
+        createRequest().process(solrClient);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Exception> failures = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        commitPolicy.commit();
+                    } catch (Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(numThreads, commitPolicy.getCommitsRequested());
+        Assert.assertTrue(countingClient.getCommits() <= 2);
+        Assert.assertEquals(countingClient.getCommits(), commitPolicy.getCommitsSent());
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testAdjustToIngestRate() {
+        final CommitPolicy commitPolicy = new CommitPolicy(solrClient);
+        commitPolicy.setTargetDocsPerCommit(1000);
+
+        // 100,000 docs/s reaches the target well within the minimum
+        commitPolicy.recordDocs(0, 0);
+        commitPolicy.recordDocs(100000, 1000);
+        Assert.assertEquals(CommitPolicy.DEFAULT_MIN_COMMIT_WITHIN, commitPolicy.getCommitWithin());
+
+        // 10 docs/s would take far longer than the maximum to reach the target
+        for (long now = 2000; now <= 60000; now += 1000) {
+            commitPolicy.recordDocs(10, now);
+        }
+        Assert.assertEquals(CommitPolicy.DEFAULT_MAX_COMMIT_WITHIN, commitPolicy.getCommitWithin());
+    }
+
+    @Test
+    public void testAdjustToCommitLatency() {
+        final CommitPolicy commitPolicy = new CommitPolicy(solrClient);
+        commitPolicy.setMaxCommitFraction(0.1);
+
+        commitPolicy.recordCommit(10);
+        Assert.assertEquals(CommitPolicy.DEFAULT_MIN_COMMIT_WITHIN, commitPolicy.getCommitWithin());
+
+        for (int i = 0; i < 20; i++) {
+            commitPolicy.recordCommit(500);
+        }
+        final int commitWithin = commitPolicy.getCommitWithin();
+        Assert.assertTrue(commitWithin >= 4900 && commitWithin <= 5000);
+
+        commitPolicy.setCommitWithinRange(100, 2000);
+        Assert.assertEquals(2000, commitPolicy.getCommitWithin());
+    }
+
+    @Test
+    public void testBatcherUsesCommitPolicy() throws IOException, SolrServerException {
+        final CommitPolicy commitPolicy = new CommitPolicy(solrClient);
+        commitPolicy.setCommitWithinRange(500, 5000);
+
+        final JSONUpdateBatcher batcher = new JSONUpdateBatcher(solrClient);
+        batcher.setSplit("/exams");
+        batcher.addFieldMapping("first", "/first");
+        batcher.addFieldMapping("last", "/last");
+        batcher.addFieldMapping("grade", "/grade");
+        batcher.addFieldMapping("subject", "/exams/subject");
+        batcher.addFieldMapping("test", "/exams/test");
+        batcher.addFieldMapping("marks", "/exams/marks");
+        batcher.setCommitPolicy(commitPolicy);
+        batcher.add(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        batcher.close();
+
+        commitPolicy.commit();
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    private JSONUpdateRequest createRequest() throws IOException {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        return request;
+    }
+
+    private long getNumFound() throws IOException, SolrServerException {
+        return solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+    }
+
+    /**
+     * Counts the commits sent through it and makes each one slow.
+     */
+    private static class CountingSolrClient extends SolrClient {
+
+        private final SolrClient delegate;
+        private final long commitMillis;
+        private final AtomicInteger commits = new AtomicInteger(0);
+
+        public CountingSolrClient(SolrClient delegate, long commitMillis) {
+            this.delegate = delegate;
+            this.commitMillis = commitMillis;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException, IOException {
+            if (request.getParams() != null && request.getParams().getBool(UpdateParams.COMMIT, false)) {
+                commits.incrementAndGet();
+                try {
+                    Thread.sleep(commitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return delegate.request(request, collection);
+        }
+
+        public int getCommits() {
+            return commits.get();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+}
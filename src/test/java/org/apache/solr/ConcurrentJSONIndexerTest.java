@@ -0,0 +1,376 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.common.util.ContentStreamBase;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for indexing JSON from many producer threads with ConcurrentJSONIndexer.
+ */
+public class ConcurrentJSONIndexerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testManyProducers() throws Exception {
+        final int numProducers = 4;
+        final int docsPerProducer = 25;
+
+        final ConcurrentJSONIndexer indexer = createIndexer(solrClient, 10, 3);
+        indexer.setMaxBatchDocs(8);
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < numProducers; i++) {
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < docsPerProducer; j++) {
+                            indexer.add(json);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        indexer.close();
+
+        Assert.assertEquals(0, indexer.getRequestsFailed());
+        Assert.assertEquals(numProducers * docsPerProducer, indexer.getSourcesSent());
+
+        // each source splits into two documents on /exams
+        solrClient.commit();
+        long numFound = solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+        Assert.assertEquals(numProducers * docsPerProducer * 2, numFound);
+    }
+
+    @Test
+    public void testUnnamedStreamsOverHttp() throws Exception {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+
+        final JettySolrRunner jetty = JettySolrServerFactory.start(tempFolder.getRoot(), "jsonCollection");
+        try (SolrClient httpClient = JettySolrServerFactory.createClient(jetty, "jsonCollection")) {
+            final CountDownLatch requestLatch = new CountDownLatch(1);
+            final CountDownLatch releaseLatch = new CountDownLatch(1);
+            final ConcurrentJSONIndexer indexer = createIndexer(
+                    new BlockingSolrClient(httpClient, requestLatch, releaseLatch), 10, 1);
+            indexer.setMaxBatchDocs(4);
+            indexer.start();
+
+            // the only worker is held in the first request while the next four are queued as one batch
+            indexer.add(createUnnamedStream(json));
+            Assert.assertTrue(requestLatch.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 4; i++) {
+                indexer.add(createUnnamedStream(json));
+            }
+            releaseLatch.countDown();
+            indexer.close();
+            Assert.assertEquals(0, indexer.getRequestsFailed());
+
+            httpClient.commit();
+            Assert.assertEquals(10, httpClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testOfferRejectedWhenQueueFull() throws Exception {
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final CountDownLatch requestLatch = new CountDownLatch(1);
+        final SolrClient blockingClient = new BlockingSolrClient(solrClient, requestLatch, releaseLatch);
+
+        final ConcurrentJSONIndexer indexer = createIndexer(blockingClient, 1, 1);
+        indexer.setMaxBatchDocs(1);
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+
+        // first source is taken by the only worker which then blocks in Solr
+        indexer.add(json);
+        Assert.assertTrue(requestLatch.await(5, TimeUnit.SECONDS));
+
+        // second source fills the queue, third can't be accepted
+        Assert.assertTrue(indexer.offer(json, 1, TimeUnit.SECONDS));
+        Assert.assertFalse(indexer.offer(json, 100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, indexer.getPending());
+
+        releaseLatch.countDown();
+        indexer.close();
+        Assert.assertEquals(2, indexer.getSourcesSent());
+    }
+
+    @Test
+    public void testErrorHandler() throws Exception {
+        final List<Exception> errors = new ArrayList<>();
+
+        final ConcurrentJSONIndexer indexer = createIndexer(solrClient, 10, 1);
+        indexer.setErrorHandler(new ConcurrentJSONIndexer.ErrorHandler() {
+            @Override
+            public void handleError(JSONUpdateRequest request, Exception e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        indexer.start();
+
+        // malformed JSON should fail on the server
+        indexer.add("{ \"first\" : \"John\", ".getBytes("UTF-8"));
+        indexer.close();
+
+        Assert.assertEquals(1, indexer.getRequestsFailed());
+        Assert.assertEquals(1, errors.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedWorkerFailsQueue() throws Exception {
+        final CountDownLatch requestLatch = new CountDownLatch(1);
+        final BlockingSolrClient blockingClient = new BlockingSolrClient(solrClient, requestLatch, new CountDownLatch(1));
+        final List<Exception> errors = new ArrayList<>();
+
+        final ConcurrentJSONIndexer indexer = createIndexer(blockingClient, 10, 1);
+        indexer.setMaxBatchDocs(1);
+        indexer.setErrorHandler(new ConcurrentJSONIndexer.ErrorHandler() {
+            @Override
+            public void handleError(JSONUpdateRequest request, Exception e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        for (int i = 0; i < 3; i++) {
+            indexer.add(json);
+        }
+
+        // the worker is interrupted while the first source is in Solr and two are queued
+        Assert.assertTrue(requestLatch.await(5, TimeUnit.SECONDS));
+        blockingClient.requestThread.interrupt();
+        indexer.close();
+
+        Assert.assertEquals(0, indexer.getPending());
+        Assert.assertEquals(0, indexer.getSourcesSent());
+        Assert.assertEquals(3, indexer.getRequestsFailed());
+        Assert.assertEquals(3, errors.size());
+    }
+
+    @Test
+    public void testConcurrencyLimiter() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4);
+        final ConcurrentJSONIndexer indexer = createIndexer(solrClient, 10, 4);
+        indexer.setMaxBatchDocs(2);
+        indexer.setConcurrencyLimiter(limiter);
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        for (int i = 0; i < 50; i++) {
+            indexer.add(json);
+        }
+        indexer.close();
+
+        Assert.assertEquals(0, indexer.getRequestsFailed());
+        Assert.assertEquals(50, indexer.getSourcesSent());
+        Assert.assertEquals(0, limiter.getInFlight());
+        Assert.assertTrue(limiter.getBaselineNanos() > 0);
+
+        solrClient.commit();
+        Assert.assertEquals(100, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedWhileLimited() throws Exception {
+        final CountDownLatch acquireLatch = new CountDownLatch(1);
+        final RecordingLimiter limiter = new RecordingLimiter(acquireLatch);
+        final ConcurrentJSONIndexer indexer = createIndexer(solrClient, 10, 1);
+        indexer.setMaxBatchDocs(1);
+        indexer.setConcurrencyLimiter(limiter);
+
+        // the only permit is held, so the worker waits for it with the first source
+        final AdaptiveConcurrencyLimiter.Permit held = limiter.acquire();
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        for (int i = 0; i < 3; i++) {
+            indexer.add(json);
+        }
+
+        Assert.assertTrue(acquireLatch.await(5, TimeUnit.SECONDS));
+        limiter.acquireThread.interrupt();
+        indexer.close();
+
+        Assert.assertEquals(0, indexer.getPending());
+        Assert.assertEquals(0, indexer.getSourcesSent());
+        Assert.assertEquals(3, indexer.getRequestsFailed());
+        Assert.assertEquals(1, limiter.getInFlight());
+        held.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testBatchDrainedBeforeLimiter() throws Exception {
+        final CountDownLatch acquireLatch = new CountDownLatch(1);
+        final RecordingLimiter limiter = new RecordingLimiter(acquireLatch);
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final ConcurrentJSONIndexer indexer = createIndexer(solrClient, 10, 1);
+        indexer.setMaxBatchDocs(4);
+        indexer.setConcurrencyLimiter(limiter);
+        indexer.setUpdateListener(new UpdateListener() {
+            @Override
+            public void onSuccess(JSONUpdateRequest request, long bytesSent, long firstByteNanos,
+                                  long totalNanos, int qTime) {
+                batchSizes.add(request.getSourceStreams().size());
+            }
+
+            @Override
+            public void onFailure(JSONUpdateRequest request, long bytesSent, long firstByteNanos,
+                                  long totalNanos, Exception e) {
+            }
+        });
+
+        // the only permit is held, so the worker waits for it with the first source
+        final AdaptiveConcurrencyLimiter.Permit held = limiter.acquire();
+        indexer.start();
+
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        indexer.add(json);
+        Assert.assertTrue(acquireLatch.await(5, TimeUnit.SECONDS));
+
+        // sources queued while the worker waits go into the next batch, not the one it holds
+        for (int i = 0; i < 3; i++) {
+            indexer.add(json);
+        }
+        held.release();
+        indexer.close();
+
+        Assert.assertEquals(Arrays.asList(1, 3), batchSizes);
+    }
+
+    private static ContentStreamBase createUnnamedStream(final byte[] json) {
+        return new ContentStreamBase() {
+            @Override
+            public InputStream getStream() throws IOException {
+                return new ByteArrayInputStream(json);
+            }
+        };
+    }
+
+    private ConcurrentJSONIndexer createIndexer(SolrClient client, int queueSize, int numWorkers) {
+        ConcurrentJSONIndexer indexer = new ConcurrentJSONIndexer(client, null, queueSize, numWorkers);
+        indexer.setSplit("/exams");
+        indexer.addFieldMapping("first", "/first");
+        indexer.addFieldMapping("last", "/last");
+        indexer.addFieldMapping("grade", "/grade");
+        indexer.addFieldMapping("subject", "/exams/subject");
+        indexer.addFieldMapping("test", "/exams/test");
+        indexer.addFieldMapping("marks", "/exams/marks");
+        return indexer;
+    }
+
+    /**
+     * A limiter of one permit which records the last thread to wait for it.
+     */
+    private static class RecordingLimiter extends AdaptiveConcurrencyLimiter {
+
+        private final CountDownLatch acquireLatch;
+        private volatile Thread acquireThread;
+
+        public RecordingLimiter(CountDownLatch acquireLatch) {
+            super(1, 1);
+            this.acquireLatch = acquireLatch;
+        }
+
+        @Override
+        public Permit acquire() throws InterruptedException {
+            if (getInFlight() > 0) {
+                acquireThread = Thread.currentThread();
+                acquireLatch.countDown();
+            }
+            return super.acquire();
+        }
+    }
+
+    /**
+     * Delegates to another client but holds every request until released.
+     */
+    private static class BlockingSolrClient extends SolrClient {
+
+        private final SolrClient delegate;
+        private final CountDownLatch requestLatch;
+        private final CountDownLatch releaseLatch;
+        private volatile Thread requestThread;
+
+        public BlockingSolrClient(SolrClient delegate, CountDownLatch requestLatch, CountDownLatch releaseLatch) {
+            this.delegate = delegate;
+            this.requestLatch = requestLatch;
+            this.releaseLatch = releaseLatch;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException, IOException {
+            requestThread = Thread.currentThread();
+            requestLatch.countDown();
+            try {
+                releaseLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for release");
+            }
+            return delegate.request(request, collection);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+}
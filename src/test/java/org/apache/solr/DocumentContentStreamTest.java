@@ -0,0 +1,187 @@
+package org.apache.solr;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.noggit.JSONWriter;
+import org.noggit.ObjectBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for streaming Java objects into the body of a JSONUpdateRequest.
+ */
+public class DocumentContentStreamTest {
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        solrClient.close();
+    }
+
+    @Test
+    public void testMapsAreIndexed() throws IOException, SolrServerException {
+        final JSONUpdateRequest request = createRequest();
+        request.addDocuments(Arrays.asList(
+                createStudent("John", "Doe", 90, 86),
+                createStudent("Bob", "Smith", 91, 87)));
+        request.process(solrClient);
+        solrClient.commit();
+
+        final QueryResponse response = solrClient.query(new SolrQuery("*:*"));
+        Assert.assertEquals(4, response.getResults().getNumFound());
+        for (SolrDocument document : response.getResults()) {
+            Assert.assertNotNull(document.getFieldValue("first"));
+            Assert.assertNotNull(document.getFieldValue("marks"));
+        }
+    }
+
+    @Test
+    public void testDocumentWriterWithIterator() throws IOException, SolrServerException {
+        final List<Student> students = Arrays.asList(new Student("John", "Doe"), new Student("Bob", "Smith"),
+                new Student("Jane", "Roe"));
+
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addDocuments(students.iterator(), new DocumentContentStream.DocumentWriter<Student>() {
+            @Override
+            public void write(Student student, JSONWriter writer) {
+                writer.startObject();
+                writer.writeString("first");
+                writer.writeNameSeparator();
+                writer.writeString(student.first);
+                writer.writeValueSeparator();
+                writer.writeString("last");
+                writer.writeNameSeparator();
+                writer.writeString(student.last);
+                writer.endObject();
+            }
+        });
+        request.process(solrClient);
+        solrClient.commit();
+
+        Assert.assertEquals(3, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        Assert.assertEquals(1, solrClient.query(new SolrQuery("last:Roe")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testIterableCanBeReadAgain() throws IOException {
+        final DocumentContentStream<Object> stream = new DocumentContentStream<>(
+                Collections.singletonList(createStudent("John", "Doe", 90, 86)),
+                DocumentContentStream.DocumentWriter.OBJECTS);
+
+        final String first = read(stream.getStream());
+        Assert.assertEquals(first, read(stream.getStream()));
+        Assert.assertTrue(first.startsWith("[{\"first\":\"John\""));
+    }
+
+    @Test(expected = IOException.class)
+    public void testIteratorCanBeReadOnce() throws IOException {
+        final DocumentContentStream<Object> stream = new DocumentContentStream<>(
+                Collections.<Object>emptyList().iterator(), DocumentContentStream.DocumentWriter.OBJECTS);
+        Assert.assertEquals("[]", read(stream.getStream()));
+        stream.getStream();
+    }
+
+    @Test
+    public void testEncodingAcrossBufferBoundaries() throws IOException {
+        final List<Object> documents = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3 * DocumentContentStream.BYTE_BUFFER_SIZE; i++) {
+            // one, two, three and four byte characters in turn, so some straddle every boundary
+            text.append(i % 4 == 0 ? "a" : i % 4 == 1 ? "\u00e9" : i % 4 == 2 ? "\u20ac" : "\ud83d\ude00");
+        }
+        final Map<String, Object> document = new LinkedHashMap<>();
+        document.put("text", text.toString());
+        document.put("date", new Date(0));
+        documents.add(document);
+        documents.add(document);
+
+        final DocumentContentStream<Object> stream = new DocumentContentStream<>(documents,
+                DocumentContentStream.DocumentWriter.OBJECTS);
+        final String json = read(stream.getStream());
+
+        final List<?> parsed = (List<?>) ObjectBuilder.fromJSON(json);
+        Assert.assertEquals(2, parsed.size());
+        for (Object parsedDocument : parsed) {
+            Assert.assertEquals(text.toString(), ((Map<?, ?>) parsedDocument).get("text"));
+            Assert.assertEquals("1970-01-01T00:00:00Z", ((Map<?, ?>) parsedDocument).get("date"));
+        }
+    }
+
+    /**
+     * Reads the whole stream and decodes it.
+     */
+    private static String read(InputStream inputStream) throws IOException {
+        try {
+            return new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static JSONUpdateRequest createRequest() {
+        JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        return request;
+    }
+
+    private static Map<String, Object> createStudent(String first, String last, int mathsMarks, int biologyMarks) {
+        final Map<String, Object> student = new LinkedHashMap<>();
+        student.put("first", first);
+        student.put("last", last);
+        student.put("grade", 8);
+        student.put("exams", Arrays.asList(createExam("Maths", mathsMarks), createExam("Biology", biologyMarks)));
+        return student;
+    }
+
+    private static Map<String, Object> createExam(String subject, int marks) {
+        final Map<String, Object> exam = new LinkedHashMap<>();
+        exam.put("subject", subject);
+        exam.put("test", "term1");
+        exam.put("marks", marks);
+        return exam;
+    }
+
+    private static class Student {
+
+        private final String first;
+
+        private final String last;
+
+        public Student(String first, String last) {
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+}
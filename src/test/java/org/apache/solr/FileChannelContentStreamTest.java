@@ -0,0 +1,113 @@
+package org.apache.solr;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.util.ContentStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests for sending files with FileChannelContentStream.
+ */
+public class FileChannelContentStreamTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    private Path jsonPath;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        jsonPath = tempFolder.newFile("example.json").toPath();
+        Files.write(jsonPath, IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testMemoryMappedStreamIsReplayable() throws IOException {
+        assertReplayable(new FileChannelContentStream(jsonPath, true), IndexJSONTest.EXAMPLE_JSON);
+    }
+
+    @Test
+    public void testPositionalStreamIsReplayable() throws IOException {
+        assertReplayable(new FileChannelContentStream(jsonPath, false), IndexJSONTest.EXAMPLE_JSON);
+    }
+
+    @Test
+    public void testRegionOfChannel() throws IOException {
+        final String prefix = "ignored";
+        Files.write(jsonPath, (prefix + IndexJSONTest.EXAMPLE_JSON + prefix).getBytes("UTF-8"));
+        final long length = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8").length;
+
+        try (FileChannel channel = FileChannel.open(jsonPath, StandardOpenOption.READ)) {
+            assertReplayable(new FileChannelContentStream(channel, prefix.length(), length, true),
+                    IndexJSONTest.EXAMPLE_JSON);
+            assertReplayable(new FileChannelContentStream(channel, prefix.length(), length, false),
+                    IndexJSONTest.EXAMPLE_JSON);
+
+            // streams never move the position of a shared channel
+            Assert.assertEquals(0, channel.position());
+        }
+    }
+
+    @Test
+    public void testSendPathTwice() throws IOException, SolrServerException {
+        JSONUpdateRequest request = new JSONUpdateRequest(jsonPath);
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("subject", "/exams/subject");
+
+        // the same request can be processed again since each attempt gets a new stream
+        Assert.assertEquals(0, request.process(solrClient).getStatus());
+        Assert.assertEquals(0, request.process(solrClient).getStatus());
+
+        solrClient.commit();
+        Assert.assertEquals(4, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testSendFileChannel() throws IOException, SolrServerException {
+        try (FileChannel channel = FileChannel.open(jsonPath, StandardOpenOption.READ)) {
+            JSONUpdateRequest request = new JSONUpdateRequest(channel);
+            request.setSplit("/exams");
+            request.addFieldMapping("first", "/first");
+            request.addFieldMapping("subject", "/exams/subject");
+            Assert.assertEquals(0, request.process(solrClient).getStatus());
+        }
+
+        solrClient.commit();
+        Assert.assertEquals(2, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    private void assertReplayable(ContentStream contentStream, String expected) throws IOException {
+        Assert.assertEquals(Long.valueOf(expected.getBytes("UTF-8").length), contentStream.getSize());
+        for (int i = 0; i < 2; i++) {
+            try (InputStream in = contentStream.getStream()) {
+                Assert.assertEquals(expected, IOUtils.toString(in, "UTF-8"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.apache.solr;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for compressing JSON on the fly with GzipCompressingInputStream.
+ */
+public class GzipCompressingInputStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final byte[] json = createRecords(2000);
+
+        // read in small pieces to exercise the header and trailer boundaries
+        final CompressionStats stats = new CompressionStats();
+        final GzipCompressingInputStream in = new GzipCompressingInputStream(
+                new ByteArrayInputStream(json), Deflater.DEFAULT_COMPRESSION, stats);
+        final byte[] compressed = readInPieces(in, 7);
+        in.close();
+
+        Assert.assertEquals(json.length, in.getBytesRead());
+        Assert.assertEquals(compressed.length, in.getBytesWritten());
+        Assert.assertEquals(compressed.length, stats.getCompressedBytes());
+
+        final byte[] decompressed = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+        Assert.assertArrayEquals(json, decompressed);
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        final GzipCompressingInputStream in = new GzipCompressingInputStream(
+                new ByteArrayInputStream(new byte[0]), Deflater.DEFAULT_COMPRESSION, null);
+        final byte[] compressed = IOUtils.toByteArray(in);
+        Assert.assertEquals(0, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))).length);
+    }
+
+    @Test
+    public void testEveryLevelCompresses() throws IOException {
+        final byte[] json = createRecords(200);
+
+        for (int level : new int[] {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            final CompressionStats stats = new CompressionStats();
+            final byte[] compressed;
+            try (InputStream in = new GzipCompressingInputStream(new ByteArrayInputStream(json), level, stats)) {
+                compressed = IOUtils.toByteArray(in);
+            }
+            Assert.assertTrue(stats.getRatio() > 1);
+            Assert.assertArrayEquals(json, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+    private byte[] createRecords(int numRecords) throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < numRecords; i++) {
+            builder.append(IndexJSONTest.EXAMPLE_JSON.replace("John", "John" + i)).append('\n');
+        }
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private byte[] readInPieces(InputStream in, int pieceSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] piece = new byte[pieceSize];
+        int read;
+        while ((read = in.read(piece, 0, piece.length)) != -1) {
+            out.write(piece, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
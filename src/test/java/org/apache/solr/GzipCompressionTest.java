@@ -0,0 +1,218 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettyConfig;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for sending JSON compressed with gzip to a Solr server behind a filter that decodes it.
+ */
+public class GzipCompressionTest {
+
+    static final String CORE_NAME = "jsonCollection";
+
+    static final String DATA_DIR = EmbeddedSolrServerFactory.DEFAULT_DATA_DIR + "/gzipJsonCollection";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JettySolrRunner jetty;
+
+    private HttpSolrClient solrClient;
+
+    @Before
+    public void setup() throws Exception {
+        FileUtils.deleteDirectory(new File(DATA_DIR));
+        GzipRequestFilter.decodedRequests.set(0);
+
+        JettyConfig jettyConfig = JettyConfig.builder()
+                .setContext("/solr")
+                .setPort(0)
+                .withFilter(GzipRequestFilter.class, "*")
+                .build();
+        jetty = new JettySolrRunner(new File(EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getAbsolutePath(), jettyConfig);
+        jetty.start();
+
+        // the connector is not bound to a host name so getBaseUrl() can't be used
+        final String baseUrl = "http://127.0.0.1:" + jetty.getLocalPort() + "/solr";
+
+        HttpSolrClient adminClient = new HttpSolrClient(baseUrl);
+        try {
+            CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+            create.setCoreName(CORE_NAME);
+            create.setInstanceDir(createInstanceDir().getAbsolutePath());
+            create.setDataDir(DATA_DIR);
+            create.process(adminClient);
+        } finally {
+            adminClient.close();
+        }
+
+        solrClient = new HttpSolrClient(baseUrl + "/" + CORE_NAME);
+        GzipRequestInterceptor.install(solrClient.getHttpClient());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+        if (jetty != null) {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testCompressedRequestIsIndexed() throws IOException, SolrServerException {
+        final CompressionStats stats = new CompressionStats();
+
+        final JSONUpdateRequest request = createRequest();
+        request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        request.addInputStream(new ByteArrayInputStream(IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8")));
+        request.setCompressed(true);
+        request.setCompressionStats(stats);
+
+        final UpdateResponse response = request.send(solrClient);
+        Assert.assertEquals(0, response.getStatus());
+        Assert.assertEquals(1, GzipRequestFilter.decodedRequests.get());
+
+        Assert.assertEquals(1, stats.getStreams());
+        Assert.assertEquals(IndexJSONTest.EXAMPLE_JSON.length() + IndexJSONTest.EXAMPLE_JSON2.length() + 1,
+                stats.getUncompressedBytes());
+
+        solrClient.commit();
+        Assert.assertEquals(4, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testUncompressedRequestUnchanged() throws IOException, SolrServerException {
+        final JSONUpdateRequest request = createRequest();
+        request.addBytes(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+
+        request.send(solrClient);
+        Assert.assertEquals(0, GzipRequestFilter.decodedRequests.get());
+
+        solrClient.commit();
+        Assert.assertEquals(2, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    /**
+     * Copies the config of the test core without its core.properties, which CoreAdmin
+     * would otherwise refuse to create a core over.
+     */
+    private File createInstanceDir() throws IOException {
+        final File instanceDir = tempFolder.newFolder(CORE_NAME);
+        FileUtils.copyDirectory(new File(EmbeddedSolrServerFactory.DEFAULT_CORE_HOME, CORE_NAME + "/conf"),
+                new File(instanceDir, "conf"));
+        return instanceDir;
+    }
+
+    private JSONUpdateRequest createRequest() {
+        JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        return request;
+    }
+
+    /**
+     * Decodes request bodies sent with "Content-Encoding: gzip" before they reach Solr,
+     * standing in for the proxy or container filter a real deployment would use.
+     */
+    public static class GzipRequestFilter implements Filter {
+
+        static final AtomicInteger decodedRequests = new AtomicInteger(0);
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            final HttpServletRequest httpRequest = (HttpServletRequest) request;
+            if (!GzipRequestInterceptor.GZIP_ENCODING.equalsIgnoreCase(httpRequest.getHeader("Content-Encoding"))) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            decodedRequests.incrementAndGet();
+            final GZIPInputStream gzipIn = new GZIPInputStream(httpRequest.getInputStream());
+            chain.doFilter(new HttpServletRequestWrapper(httpRequest) {
+                @Override
+                public ServletInputStream getInputStream() {
+                    return new ServletInputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            return gzipIn.read();
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            return gzipIn.read(b, off, len);
+                        }
+
+                        @Override
+                        public boolean isFinished() {
+                            return false;
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return true;
+                        }
+
+                        @Override
+                        public void setReadListener(ReadListener readListener) {
+                        }
+                    };
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return "Content-Encoding".equalsIgnoreCase(name) ? null : super.getHeader(name);
+                }
+
+                @Override
+                public int getContentLength() {
+                    return -1;
+                }
+            }, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+}
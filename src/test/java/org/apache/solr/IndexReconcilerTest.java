@@ -0,0 +1,193 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for reconciling the documents of a collection with the JSON they were indexed from.
+ */
+public class IndexReconcilerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testConsistentWithoutKey() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON);
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON2);
+
+        final IndexReconciler reconciler = new IndexReconciler(solrClient, null, createStudentMapper());
+        reconciler.setPageSize(3);
+        final IndexReconciler.Report report = reconciler.reconcile(Arrays.asList(
+                writeFile("students1.json", IndexJSONTest.EXAMPLE_JSON),
+                writeFile("students2.json", IndexJSONTest.EXAMPLE_JSON2)));
+
+        Assert.assertTrue(report.toString(), report.isConsistent());
+        Assert.assertEquals(4, report.getExpected());
+        Assert.assertEquals(4, report.getActual());
+    }
+
+    @Test
+    public void testMissingAndExtraWithoutKey() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON);
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON.replace("Biology", "Physics"));
+
+        final IndexReconciler.Report report = new IndexReconciler(solrClient, null, createStudentMapper())
+                .reconcile(Arrays.asList(
+                        writeFile("students1.json", IndexJSONTest.EXAMPLE_JSON),
+                        writeFile("students2.json", IndexJSONTest.EXAMPLE_JSON2)));
+
+        // Bob is missing, and John's Maths is expected once but indexed twice along with a Physics exam
+        Assert.assertEquals(4, report.getExpected());
+        Assert.assertEquals(4, report.getActual());
+        Assert.assertEquals(2, report.getMissing());
+        Assert.assertEquals(2, report.getExtra());
+        Assert.assertEquals(0, report.getMismatched());
+        for (String missing : report.getMissingSamples()) {
+            Assert.assertTrue(missing, missing.contains("first=Bob"));
+        }
+        Assert.assertEquals(2, report.getExtraSamples().size());
+    }
+
+    @Test
+    public void testLargeCollectionNeedsKey() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON);
+        index(createStudentRequest(), IndexJSONTest.EXAMPLE_JSON2);
+
+        final IndexReconciler reconciler = new IndexReconciler(solrClient, null, createStudentMapper());
+        reconciler.setMaxKeylessDocs(3);
+        try {
+            reconciler.reconcile(Collections.singletonList(writeFile("students1.json", IndexJSONTest.EXAMPLE_JSON)));
+            Assert.fail("Expected keyless reconciliation of 4 documents to be refused");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("set a key field"));
+        }
+    }
+
+    @Test
+    public void testDifferencesByKey() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("schemalessCollection");
+        final StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            source.append(createRecord(i, "value" + i)).append('\n');
+        }
+        index(createRecordRequest(), source.toString());
+
+        // doc3 is lost, doc7 is changed, and doc99 doesn't belong
+        solrClient.deleteById("doc3");
+        index(createRecordRequest(), createRecord(7, "changed") + createRecord(99, "value99"));
+
+        final IndexReconciler reconciler = new IndexReconciler(solrClient, null, createRecordMapper());
+        reconciler.setKeyField("id");
+        reconciler.setPageSize(6);
+        reconciler.setNumBuckets(4);
+        final IndexReconciler.Report report = reconciler.reconcile(
+                Collections.singletonList(writeFile("records.json", source.toString())));
+
+        Assert.assertEquals(20, report.getExpected());
+        Assert.assertEquals(20, report.getActual());
+        Assert.assertEquals(1, report.getMissing());
+        Assert.assertEquals(1, report.getExtra());
+        Assert.assertEquals(1, report.getMismatched());
+        Assert.assertEquals(Collections.singletonList("doc3"), report.getMissingSamples());
+        Assert.assertEquals(Collections.singletonList("doc99"), report.getExtraSamples());
+        Assert.assertEquals(Collections.singletonList("doc7"), report.getMismatchedSamples());
+    }
+
+    @Test
+    public void testLastDuplicateKeyIsExpected() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("schemalessCollection");
+        final String source = createRecord(1, "first") + createRecord(2, "value2") + createRecord(1, "second");
+        index(createRecordRequest(), source);
+
+        final IndexReconciler reconciler = new IndexReconciler(solrClient, null, createRecordMapper());
+        reconciler.setKeyField("id");
+        reconciler.setNumBuckets(1);
+        final IndexReconciler.Report report = reconciler.reconcile(
+                Collections.singletonList(writeFile("records.json", source)));
+
+        Assert.assertTrue(report.toString(), report.isConsistent());
+        Assert.assertEquals(3, report.getExpected());
+        Assert.assertEquals(2, report.getActual());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWildcardMappingsNeedFields() throws IOException, SolrServerException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        new IndexReconciler(solrClient, null, new JSONDocumentMapper("/exams", null))
+                .reconcile(Collections.<File>emptyList());
+    }
+
+    private void index(JSONUpdateRequest request, String json) throws IOException, SolrServerException {
+        request.addBytes(json.getBytes(StandardCharsets.UTF_8));
+        request.process(solrClient);
+        solrClient.commit();
+    }
+
+    private File writeFile(String name, String json) throws IOException {
+        final File file = new File(tempFolder.getRoot(), name);
+        FileUtils.writeStringToFile(file, json, StandardCharsets.UTF_8.name());
+        return file;
+    }
+
+    private static String createRecord(int id, String value) {
+        return "{\"id\":\"doc" + id + "\",\"field1\":\"" + value + "\"}";
+    }
+
+    private static List<String> getStudentMappings() {
+        return Arrays.asList("first:/first", "last:/last", "grade:/grade",
+                "subject:/exams/subject", "test:/exams/test", "marks:/exams/marks");
+    }
+
+    private static JSONDocumentMapper createStudentMapper() {
+        return new JSONDocumentMapper("/exams", getStudentMappings());
+    }
+
+    private static JSONUpdateRequest createStudentRequest() {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/exams");
+        for (String mapping : getStudentMappings()) {
+            final int separator = mapping.indexOf(':');
+            request.addFieldMapping(mapping.substring(0, separator), mapping.substring(separator + 1));
+        }
+        return request;
+    }
+
+    private static JSONDocumentMapper createRecordMapper() {
+        return new JSONDocumentMapper("/", Arrays.asList("id:/id", "field1:/field1"));
+    }
+
+    private static JSONUpdateRequest createRecordRequest() {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/");
+        request.addFieldMapping("id", "/id");
+        request.addFieldMapping("field1", "/field1");
+        return request;
+    }
+
+}
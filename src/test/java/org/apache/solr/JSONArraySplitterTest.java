@@ -0,0 +1,166 @@
+package org.apache.solr;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for splitting a top-level JSON array into ranges with JSONArraySplitter.
+ */
+public class JSONArraySplitterTest {
+
+    static final String TRICKY_DOC = "{\"a\":\"} { [ \\\" ] \\\\\",\"b\":[{\"c\":\"}\"}],\"d\":\"\u00e9\"}";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testRangesAreValidArrays() throws IOException {
+        final int numDocs = 50;
+        final StringBuilder json = new StringBuilder(" [\n");
+        for (int i = 0; i < numDocs; i++) {
+            json.append(i > 0 ? ",\n  " : "  ").append(TRICKY_DOC);
+        }
+        json.append("\n]\n");
+
+        final Path jsonPath = write(json.toString());
+        try (FileChannel channel = FileChannel.open(jsonPath, StandardOpenOption.READ)) {
+            final JSONArraySplitter splitter = new JSONArraySplitter(channel, 200);
+            // force elements to cross the boundaries of the mapped segments
+            splitter.setMappedSegmentSize(97);
+
+            final List<JSONArraySplitter.Range> ranges = readRanges(splitter);
+            Assert.assertTrue(ranges.size() > 1);
+
+            int total = 0;
+            for (JSONArraySplitter.Range range : ranges) {
+                final String text = read(range);
+                Assert.assertEquals(range.getLength() + 2, text.getBytes("UTF-8").length);
+                Assert.assertTrue(text.startsWith("[{") && text.endsWith("}]"));
+
+                // every range parses to its own number of documents
+                final List<?> docs = new JSONDocumentMapper("/", null).map(new StringReader(text));
+                Assert.assertEquals(range.getNumDocs(), docs.size());
+                total += range.getNumDocs();
+            }
+            Assert.assertEquals(numDocs, total);
+        }
+    }
+
+    @Test
+    public void testEmptyArray() throws IOException {
+        try (FileChannel channel = FileChannel.open(write(" [ ] "), StandardOpenOption.READ)) {
+            Assert.assertNull(new JSONArraySplitter(channel).nextRange());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnArray() throws IOException {
+        try (FileChannel channel = FileChannel.open(write("{\"a\":1}"), StandardOpenOption.READ)) {
+            new JSONArraySplitter(channel).nextRange();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedArray() throws IOException {
+        try (FileChannel channel = FileChannel.open(write("[{\"a\":1},{\"a\":"), StandardOpenOption.READ)) {
+            readRanges(new JSONArraySplitter(channel, 1));
+        }
+    }
+
+    @Test
+    public void testIndexRangesConcurrently() throws Exception {
+        final int numRecords = 200;
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < numRecords; i++) {
+            json.append(i > 0 ? "," : "").append(IndexJSONTest.EXAMPLE_JSON);
+        }
+        json.append("]");
+
+        final ConcurrentJSONIndexer indexer = new ConcurrentJSONIndexer(solrClient, null, 4, 4);
+        indexer.setSplit("/exams");
+        indexer.addFieldMapping("first", "/first");
+        indexer.addFieldMapping("last", "/last");
+        indexer.addFieldMapping("grade", "/grade");
+        indexer.addFieldMapping("subject", "/exams/subject");
+        indexer.addFieldMapping("test", "/exams/test");
+        indexer.addFieldMapping("marks", "/exams/marks");
+        // one range per request
+        indexer.setMaxBatchDocs(1);
+        indexer.start();
+
+        int numRanges = 0;
+        try (FileChannel channel = FileChannel.open(write(json.toString()), StandardOpenOption.READ)) {
+            final JSONArraySplitter splitter = new JSONArraySplitter(channel, 4096);
+            JSONArraySplitter.Range range;
+            while ((range = splitter.nextRange()) != null) {
+                indexer.add(range.getContentStream());
+                numRanges++;
+            }
+            indexer.close();
+        }
+
+        Assert.assertTrue(numRanges > 4);
+        Assert.assertEquals(0, indexer.getRequestsFailed());
+        Assert.assertEquals(numRecords * 2, getNumFound());
+    }
+
+    private Path write(String json) throws IOException {
+        final Path jsonPath = tempFolder.newFile().toPath();
+        Files.write(jsonPath, json.getBytes("UTF-8"));
+        return jsonPath;
+    }
+
+    private List<JSONArraySplitter.Range> readRanges(JSONArraySplitter splitter) throws IOException {
+        final List<JSONArraySplitter.Range> ranges = new ArrayList<>();
+        JSONArraySplitter.Range range;
+        while ((range = splitter.nextRange()) != null) {
+            ranges.add(range);
+        }
+        return ranges;
+    }
+
+    private String read(JSONArraySplitter.Range range) throws IOException {
+        try (InputStream in = range.getContentStream().getStream()) {
+            return IOUtils.toString(new InputStreamReader(in, "UTF-8"));
+        }
+    }
+
+    private long getNumFound() throws IOException, SolrServerException {
+        solrClient.commit();
+        return solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+    }
+
+}
@@ -0,0 +1,164 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for cutting NDJSON and concatenated JSON into chunks with JSONDocumentChunker.
+ */
+public class JSONDocumentChunkerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testNewlineDelimited() throws IOException {
+        List<String> chunks = readChunks("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n", 1024, 2);
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals("[{\"a\":1},{\"a\":2}]", chunks.get(0));
+        Assert.assertEquals("[{\"a\":3}]", chunks.get(1));
+    }
+
+    @Test
+    public void testConcatenatedAndArrays() throws IOException {
+        List<String> chunks = readChunks("{\"a\":1}{\"a\":2} [{\"a\":3}, {\"a\":4}]", 1024, 10);
+        Assert.assertEquals(1, chunks.size());
+        Assert.assertEquals("[{\"a\":1},{\"a\":2},{\"a\":3},{\"a\":4}]", chunks.get(0));
+    }
+
+    @Test
+    public void testStringsContainingStructuralCharacters() throws IOException {
+        final String doc = "{\"a\":\"} { [ \\\" ] \\\\\",\"b\":[{\"c\":\"}\"}]}";
+        List<String> chunks = readChunks(doc + "\n" + doc, 1024, 1);
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals("[" + doc + "]", chunks.get(0));
+        Assert.assertEquals("[" + doc + "]", chunks.get(1));
+    }
+
+    @Test
+    public void testMaxChunkBytes() throws IOException {
+        // each chunk closes at the first boundary after reaching 10 bytes
+        List<String> chunks = readChunks("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n", 10, 100);
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals("[{\"a\":1},{\"a\":2}]", chunks.get(0));
+        Assert.assertEquals("[{\"a\":3}]", chunks.get(1));
+    }
+
+    @Test
+    public void testOffsets() throws IOException {
+        final String json = "{\"a\":1}\n{\"a\":2}\n";
+        JSONDocumentChunker chunker = new JSONDocumentChunker(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), 1024, 1);
+
+        JSONDocumentChunker.Chunk chunk = chunker.nextChunk();
+        Assert.assertEquals(0, chunk.getStartOffset());
+        Assert.assertEquals(7, chunk.getEndOffset());
+
+        chunk = chunker.nextChunk();
+        Assert.assertEquals(8, chunk.getStartOffset());
+        Assert.assertEquals(15, chunk.getEndOffset());
+
+        Assert.assertNull(chunker.nextChunk());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedDocument() throws IOException {
+        readChunks("{\"a\":1}\n{\"a\":", 1024, 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTopLevelScalar() throws IOException {
+        readChunks("{\"a\":1}\n42\n", 1024, 10);
+    }
+
+    @Test
+    public void testIndexConcatenatedJson() throws IOException, SolrServerException {
+        final String json = IndexJSONTest.EXAMPLE_JSON + IndexJSONTest.EXAMPLE_JSON2;
+
+        JSONDocumentChunker chunker = new JSONDocumentChunker(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), 1024, 1);
+
+        int numRequests = 0;
+        JSONDocumentChunker.Chunk chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            JSONUpdateRequest request = new JSONUpdateRequest();
+            request.setSplit("/exams");
+            request.addFieldMapping("first", "/first");
+            request.addFieldMapping("subject", "/exams/subject");
+            request.addContentStream(chunk.getContentStream());
+            Assert.assertEquals(0, request.process(solrClient).getStatus());
+            numRequests++;
+        }
+        Assert.assertEquals(2, numRequests);
+
+        solrClient.commit();
+        Assert.assertEquals(4, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        Assert.assertEquals(2, solrClient.query(new SolrQuery("first:Bob")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testChunksInOneRequestOverHttp() throws Exception {
+        final String json = IndexJSONTest.EXAMPLE_JSON + IndexJSONTest.EXAMPLE_JSON2;
+
+        final JettySolrRunner jetty = JettySolrServerFactory.start(tempFolder.getRoot(), "jsonCollection");
+        try (SolrClient httpClient = JettySolrServerFactory.createClient(jetty, "jsonCollection");
+             JSONDocumentChunker chunker = new JSONDocumentChunker(
+                     new ByteArrayInputStream(json.getBytes("UTF-8")), 1024, 1)) {
+            JSONUpdateRequest request = new JSONUpdateRequest();
+            request.setSplit("/exams");
+            request.addFieldMapping("first", "/first");
+            request.addFieldMapping("subject", "/exams/subject");
+
+            JSONDocumentChunker.Chunk chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                request.addContentStream(chunk.getContentStream());
+            }
+            Assert.assertEquals(0, request.process(httpClient).getStatus());
+
+            httpClient.commit();
+            Assert.assertEquals(4, httpClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    private List<String> readChunks(String json, int maxChunkBytes, int maxChunkDocs) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        try (JSONDocumentChunker chunker = new JSONDocumentChunker(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), maxChunkBytes, maxChunkDocs)) {
+            JSONDocumentChunker.Chunk chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                chunks.add(new String(chunk.toByteArray(), "UTF-8"));
+            }
+        }
+        return chunks;
+    }
+
+}
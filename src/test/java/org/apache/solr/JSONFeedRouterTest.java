@@ -0,0 +1,149 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for routing the documents of one feed to the batchers of several collections.
+ */
+public class JSONFeedRouterTest {
+
+    static final String MIXED_FEED =
+            "{\"type\":\"student\",\"first\":\"John\",\"last\":\"Doe\",\"grade\":8," +
+                "\"exams\":[{\"subject\":\"Maths\",\"test\":\"term1\",\"marks\":90}," +
+                    "{\"subject\":\"Biology\",\"test\":\"term1\",\"marks\":86}]}\n" +
+            "{\"type\":\"record\",\"field1\":\"doc1_field1\",\"field2\":\"doc1_field2\"}\n" +
+            "{\"type\":\"student\",\"first\":\"Bob\",\"last\":\"Smith\",\"grade\":8," +
+                "\"exams\":[{\"subject\":\"Maths\",\"test\":\"term1\",\"marks\":91}," +
+                    "{\"subject\":\"Biology\",\"test\":\"term1\",\"marks\":87}]}\n" +
+            "{\"field1\":\"doc2_field1\",\"type\":\"record\",\"field2\":\"doc2_field2\"}\n" +
+            "{\"type\":\"unknown\",\"field1\":\"doc3_field1\"}\n";
+
+    private SolrClient jsonClient;
+
+    private SolrClient schemalessClient;
+
+    @Before
+    public void setup() throws IOException {
+        jsonClient = EmbeddedSolrServerFactory.create("jsonCollection");
+        schemalessClient = EmbeddedSolrServerFactory.create("schemalessCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (jsonClient != null) {
+            jsonClient.close();
+        }
+        if (schemalessClient != null) {
+            schemalessClient.close();
+        }
+    }
+
+    @Test
+    public void testFeedIsSplitAcrossCollections() throws IOException, SolrServerException {
+        final JSONFeedRouter router = new JSONFeedRouter("/type");
+        router.addRoute("student", createStudentBatcher());
+        router.addRoute("record", createRecordBatcher());
+
+        Assert.assertEquals(5, router.route(new ByteArrayInputStream(MIXED_FEED.getBytes(StandardCharsets.UTF_8))));
+        router.close();
+        jsonClient.commit();
+        schemalessClient.commit();
+
+        Assert.assertEquals(4, router.getRoutedDocs());
+        Assert.assertEquals(1, router.getUnroutedDocs());
+
+        // each student is split on its exams with the student mappings
+        Assert.assertEquals(4, jsonClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        Assert.assertEquals(1, jsonClient.query(new SolrQuery("first:Bob AND subject:Maths")).getResults().getNumFound());
+
+        // the records are indexed whole with the record mappings, and nothing else reaches them
+        Assert.assertEquals(2, schemalessClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        Assert.assertEquals(1, schemalessClient.query(new SolrQuery("field2:doc2_field2")).getResults().getNumFound());
+        Assert.assertEquals(0, schemalessClient.query(new SolrQuery("field1:doc3_field1")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testDefaultRoute() throws IOException, SolrServerException {
+        final JSONFeedRouter router = new JSONFeedRouter("/type");
+        router.addRoute("student", createStudentBatcher());
+        router.setDefaultRoute(createRecordBatcher());
+
+        router.route(new ByteArrayInputStream(MIXED_FEED.getBytes(StandardCharsets.UTF_8)));
+        router.close();
+        schemalessClient.commit();
+
+        Assert.assertEquals(0, router.getUnroutedDocs());
+        Assert.assertEquals(3, schemalessClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testBatchesAreSentWhenFull() throws IOException, SolrServerException {
+        final JSONUpdateBatcher students = createStudentBatcher();
+        students.setMaxBatchDocs(2);
+        final JSONFeedRouter router = new JSONFeedRouter("/type");
+        router.addRoute("student", students);
+        router.addRoute("record", createRecordBatcher());
+
+        router.route(new ByteArrayInputStream(MIXED_FEED.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(0, students.getPendingDocs());
+
+        router.flush();
+        schemalessClient.commit();
+        Assert.assertEquals(2, schemalessClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+    }
+
+    @Test
+    public void testRouteValues() throws IOException {
+        final JSONFeedRouter router = new JSONFeedRouter("/meta/source");
+        Assert.assertEquals("crm", router.readRouteValue(bytes("[{\"id\":1,\"meta\":{\"source\":\"crm\"}}]")));
+        Assert.assertEquals("42", router.readRouteValue(bytes("[{\"meta\":{\"other\":{\"source\":\"x\"},\"source\":42}}]")));
+        Assert.assertEquals("true", router.readRouteValue(bytes("[{\"meta\":{\"source\":true}}]")));
+        Assert.assertEquals("caf\u00e9", router.readRouteValue(bytes("[{\"meta\":{\"source\":\"caf\u00e9\"}}]")));
+
+        // the path must lead through objects to a scalar
+        Assert.assertNull(router.readRouteValue(bytes("[{\"source\":\"crm\"}]")));
+        Assert.assertNull(router.readRouteValue(bytes("[{\"meta\":{\"other\":1},\"source\":\"crm\"}]")));
+        Assert.assertNull(router.readRouteValue(bytes("[{\"meta\":[{\"source\":\"crm\"}]}]")));
+        Assert.assertNull(router.readRouteValue(bytes("[{\"meta\":{\"source\":{\"name\":\"crm\"}}}]")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRootIsNotARoutePath() {
+        new JSONFeedRouter("/");
+    }
+
+    private JSONUpdateBatcher createStudentBatcher() {
+        final JSONUpdateBatcher batcher = new JSONUpdateBatcher(jsonClient);
+        batcher.setSplit("/exams");
+        batcher.addFieldMapping("first", "/first");
+        batcher.addFieldMapping("last", "/last");
+        batcher.addFieldMapping("grade", "/grade");
+        batcher.addFieldMapping("subject", "/exams/subject");
+        batcher.addFieldMapping("test", "/exams/test");
+        batcher.addFieldMapping("marks", "/exams/marks");
+        return batcher;
+    }
+
+    private JSONUpdateBatcher createRecordBatcher() {
+        final JSONUpdateBatcher batcher = new JSONUpdateBatcher(schemalessClient);
+        batcher.setSplit("/");
+        batcher.addFieldMapping("field1", "/field1");
+        batcher.addFieldMapping("field2", "/field2");
+        return batcher;
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
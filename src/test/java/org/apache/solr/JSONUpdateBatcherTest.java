@@ -0,0 +1,163 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Tests for sending many JSON sources in batches with JSONUpdateBatcher.
+ */
+public class JSONUpdateBatcherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testFlushOnMaxDocs() throws IOException, SolrServerException {
+        JSONUpdateBatcher batcher = createBatcher();
+        batcher.setMaxBatchDocs(2);
+
+        // first source should be held, second source should send both
+        Assert.assertNull(batcher.add(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        Assert.assertEquals(1, batcher.getPendingDocs());
+
+        UpdateResponse response = batcher.add(IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8"));
+        Assert.assertNotNull(response);
+        Assert.assertEquals(0, response.getStatus());
+        Assert.assertEquals(0, batcher.getPendingDocs());
+
+        Assert.assertEquals(4, getNumFound());
+    }
+
+    @Test
+    public void testFlushOnMaxBytes() throws IOException, SolrServerException {
+        byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        byte[] json2 = IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8");
+
+        JSONUpdateBatcher batcher = createBatcher();
+        batcher.setMaxBatchBytes(json.length + json2.length);
+
+        Assert.assertNull(batcher.add(new ByteArrayInputStream(json), json.length, 1));
+        Assert.assertEquals(json.length, batcher.getPendingBytes());
+
+        Assert.assertNotNull(batcher.add(new ByteArrayInputStream(json2), json2.length, 1));
+        Assert.assertEquals(0, batcher.getPendingBytes());
+
+        Assert.assertEquals(4, getNumFound());
+    }
+
+    @Test
+    public void testFlushOnMaxAge() throws IOException, SolrServerException, InterruptedException {
+        JSONUpdateBatcher batcher = createBatcher();
+        batcher.setMaxBatchAgeMillis(50);
+
+        Assert.assertNull(batcher.add(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        Assert.assertNull(batcher.flushIfExpired());
+
+        Thread.sleep(100);
+        Assert.assertNotNull(batcher.flushIfExpired());
+
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testScheduledFlushOnQuietFeed() throws IOException, SolrServerException, InterruptedException {
+        JSONUpdateBatcher batcher = createBatcher();
+        batcher.setMaxBatchAgeMillis(50);
+        batcher.startScheduledFlush();
+
+        // no more sources arrive, so only the scheduled flush can send the batch
+        Assert.assertNull(batcher.add(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (batcher.getPendingDocs() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, batcher.getPendingDocs());
+
+        batcher.close();
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testCloseSendsRemaining() throws IOException, SolrServerException {
+        JSONUpdateBatcher batcher = createBatcher();
+        batcher.add(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8"));
+        batcher.add(IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8"));
+        Assert.assertEquals(2, batcher.getPendingDocs());
+
+        batcher.close();
+        Assert.assertEquals(0, batcher.getPendingDocs());
+
+        Assert.assertEquals(4, getNumFound());
+    }
+
+    @Test
+    public void testBatchOverHttp() throws Exception {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        final byte[] json2 = IndexJSONTest.EXAMPLE_JSON2.getBytes("UTF-8");
+
+        final JettySolrRunner jetty = JettySolrServerFactory.start(tempFolder.getRoot(), "jsonCollection");
+        try (SolrClient httpClient = JettySolrServerFactory.createClient(jetty, "jsonCollection")) {
+            // HttpSolrClient sends only the first stream of a multi-stream request with an unnamed stream
+            JSONUpdateBatcher batcher = createBatcher(httpClient);
+            batcher.add(new ByteArrayInputStream(json), json.length, 1);
+            batcher.add(new ByteArrayInputStream(json2), json2.length, 1);
+            batcher.add(json);
+            Assert.assertEquals(0, batcher.flush().getStatus());
+
+            httpClient.commit();
+            Assert.assertEquals(6, httpClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    private JSONUpdateBatcher createBatcher() {
+        return createBatcher(solrClient);
+    }
+
+    private JSONUpdateBatcher createBatcher(SolrClient solrClient) {
+        JSONUpdateBatcher batcher = new JSONUpdateBatcher(solrClient);
+        batcher.setSplit("/exams");
+        batcher.addFieldMapping("first", "/first");
+        batcher.addFieldMapping("last", "/last");
+        batcher.addFieldMapping("grade", "/grade");
+        batcher.addFieldMapping("subject", "/exams/subject");
+        batcher.addFieldMapping("test", "/exams/test");
+        batcher.addFieldMapping("marks", "/exams/marks");
+        return batcher;
+    }
+
+    private long getNumFound() throws IOException, SolrServerException {
+        solrClient.commit();
+        QueryResponse qResponse = solrClient.query(new SolrQuery("*:*"));
+        return qResponse.getResults().getNumFound();
+    }
+
+}
@@ -0,0 +1,234 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.NamedList;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for retrying transient failures with JSONUpdateRequest.send().
+ */
+public class JSONUpdateRequestRetryTest {
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testRetryReplaysPartiallyReadStream() throws IOException, SolrServerException {
+        final FailingSolrClient failingClient = new FailingSolrClient(solrClient, 2, 20);
+
+        final JSONUpdateRequest request = createRequest(
+                new ByteArrayInputStream(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        request.setRetryPolicy(new RetryPolicy(3, 1, 10, 0.5));
+
+        final UpdateResponse response = request.send(failingClient);
+        Assert.assertEquals(0, response.getStatus());
+        Assert.assertEquals(3, failingClient.getAttempts());
+
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testRetrySpillsToDisk() throws IOException, SolrServerException {
+        final FailingSolrClient failingClient = new FailingSolrClient(solrClient, 1, Integer.MAX_VALUE);
+
+        final JSONUpdateRequest request = createRequest(
+                new ByteArrayInputStream(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        request.setRetryPolicy(new RetryPolicy(2, 1, 10, 0.5));
+        request.setReplaySpillThreshold(16);
+
+        request.send(failingClient);
+        Assert.assertEquals(2, failingClient.getAttempts());
+
+        Assert.assertEquals(2, getNumFound());
+    }
+
+    @Test
+    public void testGiveUpAfterMaxAttempts() throws IOException, SolrServerException {
+        final FailingSolrClient failingClient = new FailingSolrClient(solrClient, 5, 20);
+
+        final JSONUpdateRequest request = createRequest(
+                new ByteArrayInputStream(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        request.setRetryPolicy(new RetryPolicy(3, 1, 10, 0.5));
+
+        try {
+            request.send(failingClient);
+            Assert.fail("Should have failed after three attempts");
+        } catch (IOException e) {
+            Assert.assertEquals(3, failingClient.getAttempts());
+        }
+
+        Assert.assertEquals(0, getNumFound());
+    }
+
+    @Test
+    public void testMalformedJsonNotRetried() throws IOException, SolrServerException {
+        final FailingSolrClient countingClient = new FailingSolrClient(solrClient, 0, 0);
+
+        final JSONUpdateRequest request = createRequest(
+                new ByteArrayInputStream("{ \"first\" : \"John\", ".getBytes("UTF-8")));
+        request.setRetryPolicy(new RetryPolicy(3, 1, 10, 0.5));
+
+        try {
+            request.send(countingClient);
+            Assert.fail("Should have failed on malformed JSON");
+        } catch (SolrServerException | SolrException e) {
+            // embedded server wraps the parse error, a remote server responds with 400
+            Assert.assertEquals(1, countingClient.getAttempts());
+        }
+    }
+
+    @Test
+    public void testReadAfterFailedSend() throws IOException, SolrServerException {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.addBytes(json);
+        request.setRetryPolicy(new RetryPolicy(2, 1, 10, 0.5));
+
+        try {
+            request.send(new FailingSolrClient(solrClient, 5, 20));
+            Assert.fail("Should have failed after two attempts");
+        } catch (IOException e) {
+            // bytes can be read again, e.g. by an ErrorHandler sending the request elsewhere
+            final ContentStream contentStream = request.getContentStreams().iterator().next();
+            try (InputStream in = contentStream.getStream()) {
+                Assert.assertArrayEquals(json, IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void testInputStreamNotReadAfterFailedSend() throws IOException, SolrServerException {
+        final JSONUpdateRequest request = createRequest(
+                new ByteArrayInputStream(IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8")));
+        request.setRetryPolicy(new RetryPolicy(2, 1, 10, 0.5));
+
+        try {
+            request.send(new FailingSolrClient(solrClient, 5, 20));
+            Assert.fail("Should have failed after two attempts");
+        } catch (IOException e) {
+            final ContentStream contentStream = request.getContentStreams().iterator().next();
+            try {
+                contentStream.getStream();
+                Assert.fail("Should not read a released replay buffer");
+            } catch (IllegalStateException expected) {
+                Assert.assertTrue(expected.getMessage().contains("closed"));
+            }
+        }
+    }
+
+    @Test
+    public void testTransientFailures() {
+        final RetryPolicy retryPolicy = new RetryPolicy();
+        Assert.assertTrue(retryPolicy.isTransient(new IOException()));
+        Assert.assertTrue(retryPolicy.isTransient(new SolrServerException(new IOException())));
+        Assert.assertTrue(retryPolicy.isTransient(
+                new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "unavailable")));
+        Assert.assertFalse(retryPolicy.isTransient(
+                new SolrException(SolrException.ErrorCode.BAD_REQUEST, "bad request")));
+        Assert.assertFalse(retryPolicy.isTransient(new IllegalStateException()));
+
+        Assert.assertTrue(retryPolicy.shouldRetry(1, new IOException()));
+        Assert.assertFalse(retryPolicy.shouldRetry(retryPolicy.getMaxAttempts(), new IOException()));
+    }
+
+    @Test
+    public void testBackoff() {
+        final RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000, 0.5);
+        for (int i = 0; i < 100; i++) {
+            final long first = retryPolicy.getBackoffMillis(1);
+            Assert.assertTrue(first >= 50 && first <= 100);
+
+            final long third = retryPolicy.getBackoffMillis(3);
+            Assert.assertTrue(third >= 200 && third <= 400);
+
+            final long capped = retryPolicy.getBackoffMillis(9);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    private JSONUpdateRequest createRequest(InputStream jsonInputStream) {
+        JSONUpdateRequest request = new JSONUpdateRequest(jsonInputStream);
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+        return request;
+    }
+
+    private long getNumFound() throws IOException, SolrServerException {
+        solrClient.commit();
+        QueryResponse qResponse = solrClient.query(new SolrQuery("*:*"));
+        return qResponse.getResults().getNumFound();
+    }
+
+    /**
+     * Reads part of the first content stream and then fails, like a connection reset
+     * in the middle of a request, before delegating to another client.
+     */
+    static class FailingSolrClient extends SolrClient {
+
+        private final SolrClient delegate;
+        private final int numFailures;
+        private final int bytesBeforeFailure;
+        private final AtomicInteger attempts = new AtomicInteger(0);
+
+        public FailingSolrClient(SolrClient delegate, int numFailures, int bytesBeforeFailure) {
+            this.delegate = delegate;
+            this.numFailures = numFailures;
+            this.bytesBeforeFailure = bytesBeforeFailure;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException, IOException {
+            if (attempts.incrementAndGet() <= numFailures) {
+                final ContentStream contentStream = (ContentStream) request.getContentStreams().iterator().next();
+                try (InputStream in = contentStream.getStream()) {
+                    final byte[] partial = new byte[Math.min(bytesBeforeFailure, 64 * 1024)];
+                    IOUtils.read(in, partial);
+                }
+                throw new IOException("Connection reset");
+            }
+            return delegate.request(request, collection);
+        }
+
+        public int getAttempts() {
+            return attempts.get();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+}
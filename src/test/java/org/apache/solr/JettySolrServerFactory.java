@@ -0,0 +1,47 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+
+import java.io.File;
+
+/**
+ * Helper to run the test cores in Jetty for testing what HttpSolrClient sends over HTTP, which
+ * an EmbeddedSolrServer never serializes.
+ */
+public class JettySolrServerFactory {
+
+    /**
+     * Copies solr.xml and the given cores into a new Solr home and starts Jetty on a free port.
+     *
+     * @param solrHome
+     *              an empty directory to use as Solr home, the cores keep their data under it
+     * @param coreNames
+     *              the cores to copy from the test resources
+     * @return the started Jetty, which the caller must stop
+     */
+    public static JettySolrRunner start(File solrHome, String... coreNames) throws Exception {
+        FileUtils.copyFile(new File(EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME, "solr.xml"),
+                new File(solrHome, "solr.xml"));
+        for (String coreName : coreNames) {
+            FileUtils.copyDirectory(new File(EmbeddedSolrServerFactory.DEFAULT_CORE_HOME, coreName),
+                    new File(solrHome, coreName));
+        }
+
+        final JettySolrRunner jetty = new JettySolrRunner(solrHome.getAbsolutePath(), "/solr", 0);
+        jetty.start();
+        return jetty;
+    }
+
+    /**
+     * @param jetty
+     * @param coreName
+     * @return an HttpSolrClient for the given core of the Jetty
+     */
+    public static SolrClient createClient(JettySolrRunner jetty, String coreName) {
+        return new HttpSolrClient("http://127.0.0.1:" + jetty.getLocalPort() + "/solr/" + coreName);
+    }
+
+}
@@ -0,0 +1,310 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for resuming an interrupted ingest from its checkpoint file.
+ */
+public class ResumableJSONIndexerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SolrClient solrClient;
+
+    private File checkpointFile;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("schemalessCollection");
+        checkpointFile = new File(tempFolder.getRoot(), "ingest.checkpoint");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testCompleteIngest() throws Exception {
+        final File file = writeFile("docs.json", 0, 25, false);
+
+        final ResumableJSONIndexer indexer = createIndexer(solrClient);
+        Assert.assertEquals(25, indexer.ingest(Collections.singletonList(file)));
+        solrClient.commit();
+        Assert.assertEquals(25, count());
+
+        final ResumableJSONIndexer.Checkpoint checkpoint = indexer.readCheckpoint();
+        Assert.assertEquals(file.getCanonicalPath(), checkpoint.getFile());
+        Assert.assertEquals(file.length() - 1, checkpoint.getOffset());
+
+        // running again finds nothing left to send
+        final CrashingSolrClient client = new CrashingSolrClient(solrClient, 0);
+        Assert.assertEquals(0, createIndexer(client).ingest(Collections.singletonList(file)));
+        Assert.assertEquals(0, client.requests.get());
+    }
+
+    @Test
+    public void testResumeNewlineDelimited() throws Exception {
+        assertResumes(false, 1);
+    }
+
+    @Test
+    public void testResumeInsideArray() throws Exception {
+        assertResumes(true, 1);
+    }
+
+    @Test
+    public void testResumeWithConcurrentChunks() throws Exception {
+        assertResumes(false, 3);
+    }
+
+    @Test
+    public void testResumeSkipsCompletedFiles() throws Exception {
+        final File first = writeFile("part0.json", 0, 20, true);
+        final File second = writeFile("part1.json", 20, 20, false);
+
+        final CrashingSolrClient crashing = new CrashingSolrClient(solrClient, 6);
+        try {
+            createIndexer(crashing).ingest(Arrays.asList(first, second));
+            Assert.fail("Expected the crash to be thrown");
+        } catch (IOException e) {
+            Assert.assertEquals(second.getCanonicalPath(), createIndexer(solrClient).readCheckpoint().getFile());
+        }
+
+        final CrashingSolrClient resumed = new CrashingSolrClient(solrClient, Integer.MAX_VALUE);
+        Assert.assertEquals(10, createIndexer(resumed).ingest(Arrays.asList(first, second)));
+        Assert.assertEquals(2, resumed.requests.get());
+        solrClient.commit();
+        Assert.assertEquals(40, count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCheckpointOfAnotherFile() throws Exception {
+        final File file = writeFile("docs.json", 0, 5, false);
+        createIndexer(solrClient).ingest(Collections.singletonList(file));
+        createIndexer(solrClient).ingest(Collections.singletonList(writeFile("other.json", 5, 5, false)));
+    }
+
+    @Test
+    public void testCheckpointOfChangedFile() throws Exception {
+        final File file = writeFile("docs.json", 0, 10, false);
+        createIndexer(solrClient).ingest(Collections.singletonList(file));
+        final ResumableJSONIndexer.Checkpoint checkpoint = createIndexer(solrClient).readCheckpoint();
+        Assert.assertEquals(file.length(), checkpoint.getFileLength());
+        Assert.assertEquals(file.lastModified(), checkpoint.getFileLastModified());
+
+        // same size, touched since
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertRefused(file);
+
+        // rewritten with other documents
+        writeFile("docs.json", 100, 20, false);
+        assertRefused(file);
+    }
+
+    @Test(timeout = 10000)
+    public void testCheckpointWrittenWhenInterrupted() throws Exception {
+        final File file = writeFile("docs.json", 0, 20, false);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final HangingSolrClient client = new HangingSolrClient(solrClient, 2, releaseLatch);
+        final ResumableJSONIndexer indexer = createIndexer(client);
+        indexer.setCheckpointIntervalMillis(Long.MAX_VALUE);
+
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread ingest = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    indexer.ingest(Collections.singletonList(file));
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        ingest.start();
+
+        // the first interrupt stops the ingest, which then waits for the hanging chunk to finish
+        Assert.assertTrue(client.hangLatch.await(5, TimeUnit.SECONDS));
+        ingest.interrupt();
+        while (ingest.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+
+        // the second interrupt gives up waiting, as a deploy would
+        ingest.interrupt();
+        ingest.join();
+        releaseLatch.countDown();
+
+        Assert.assertTrue(failure.get() instanceof InterruptedException);
+        Assert.assertNotNull(indexer.readCheckpoint());
+
+        final CrashingSolrClient resumed = new CrashingSolrClient(solrClient, Integer.MAX_VALUE);
+        Assert.assertEquals(10, createIndexer(resumed).ingest(Collections.singletonList(file)));
+        Assert.assertEquals(2, resumed.requests.get());
+    }
+
+    private void assertRefused(File file) throws Exception {
+        final CrashingSolrClient client = new CrashingSolrClient(solrClient, Integer.MAX_VALUE);
+        try {
+            createIndexer(client).ingest(Collections.singletonList(file));
+            Assert.fail("Expected a changed file not to be resumed");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("has changed"));
+        }
+        Assert.assertEquals(0, client.requests.get());
+    }
+
+    /**
+     * Crashes an ingest of 50 documents in chunks of 5 after 4 requests, then resumes it.
+     */
+    private void assertResumes(boolean array, int numThreads) throws Exception {
+        final File file = writeFile("docs.json", 0, 50, array);
+
+        final ResumableJSONIndexer crashed = createIndexer(new CrashingSolrClient(solrClient, 4));
+        crashed.setNumThreads(numThreads);
+        try {
+            crashed.ingest(Collections.singletonList(file));
+            Assert.fail("Expected the crash to be thrown");
+        } catch (IOException e) {
+            Assert.assertEquals("Crashed", e.getMessage());
+        }
+
+        final ResumableJSONIndexer.Checkpoint checkpoint = crashed.readCheckpoint();
+        Assert.assertEquals(array, checkpoint.isInArray());
+        solrClient.commit();
+        Assert.assertEquals(20, count());
+
+        final CrashingSolrClient client = new CrashingSolrClient(solrClient, Integer.MAX_VALUE);
+        final ResumableJSONIndexer resumed = createIndexer(client);
+        resumed.setNumThreads(numThreads);
+        final long resumedDocs = resumed.ingest(Collections.singletonList(file));
+
+        // concurrent chunks may be acknowledged out of order, so at most the 20 acknowledged are skipped
+        Assert.assertTrue(resumedDocs >= 30);
+        Assert.assertEquals(resumedDocs / 5, client.requests.get());
+
+        solrClient.commit();
+        Assert.assertEquals(50, count());
+    }
+
+    private ResumableJSONIndexer createIndexer(SolrClient client) {
+        final ResumableJSONIndexer indexer = new ResumableJSONIndexer(client, null, checkpointFile);
+        indexer.setSplit("/");
+        indexer.addFieldMapping("id", "/id");
+        indexer.addFieldMapping("field1", "/field1");
+        indexer.setChunkSize(JSONDocumentChunker.DEFAULT_MAX_CHUNK_BYTES, 5);
+        indexer.setCheckpointIntervalMillis(0);
+        return indexer;
+    }
+
+    private File writeFile(String name, int firstId, int numDocs, boolean array) throws IOException {
+        final StringBuilder json = new StringBuilder(array ? "[\n" : "");
+        for (int i = firstId; i < firstId + numDocs; i++) {
+            json.append("{\"id\":\"doc").append(i).append("\",\"field1\":\"value").append(i).append("\"}");
+            json.append(array && i < firstId + numDocs - 1 ? ",\n" : "\n");
+        }
+        if (array) {
+            json.append("]\n");
+        }
+
+        final File file = new File(tempFolder.getRoot(), name);
+        FileUtils.writeStringToFile(file, json.toString(), StandardCharsets.UTF_8.name());
+        return file;
+    }
+
+    private long count() throws IOException, SolrServerException {
+        return solrClient.query(new SolrQuery("*:*")).getResults().getNumFound();
+    }
+
+    /**
+     * Delegates the given number of requests to another client, then fails every request as if the
+     * process had crashed.
+     */
+    private static class CrashingSolrClient extends SolrClient {
+
+        private final SolrClient delegate;
+        private final int requestsBeforeCrash;
+        private final AtomicInteger requests = new AtomicInteger(0);
+
+        public CrashingSolrClient(SolrClient delegate, int requestsBeforeCrash) {
+            this.delegate = delegate;
+            this.requestsBeforeCrash = requestsBeforeCrash;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException, IOException {
+            if (requests.incrementAndGet() > requestsBeforeCrash) {
+                throw new IOException("Crashed");
+            }
+            return delegate.request(request, collection);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * Delegates the given number of requests to another client, then holds every request until
+     * released.
+     */
+    private static class HangingSolrClient extends SolrClient {
+
+        private final SolrClient delegate;
+        private final int requestsBeforeHang;
+        private final CountDownLatch releaseLatch;
+        private final CountDownLatch hangLatch = new CountDownLatch(1);
+        private final AtomicInteger requests = new AtomicInteger(0);
+
+        public HangingSolrClient(SolrClient delegate, int requestsBeforeHang, CountDownLatch releaseLatch) {
+            this.delegate = delegate;
+            this.requestsBeforeHang = requestsBeforeHang;
+            this.releaseLatch = releaseLatch;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection)
+                throws SolrServerException, IOException {
+            if (requests.incrementAndGet() > requestsBeforeHang) {
+                hangLatch.countDown();
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while hanging");
+                }
+            }
+            return delegate.request(request, collection);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+}
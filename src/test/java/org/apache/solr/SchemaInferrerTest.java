@@ -0,0 +1,171 @@
+package org.apache.solr;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.JettyConfig;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.request.LukeRequest;
+import org.apache.solr.client.solrj.response.LukeResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests for inferring the fields of schemaless JSON and adding them before indexing.
+ */
+public class SchemaInferrerTest {
+
+    static final String CORE_NAME = "schemalessCollection";
+
+    static final String DATA_DIR = EmbeddedSolrServerFactory.DEFAULT_DATA_DIR + "/inferredSchemalessCollection";
+
+    static final String JSON_TYPED =
+            "{ \"name\" : \"doc1\", \"count\" : 5, \"price\" : \"7\", \"active\" : true, " +
+                "\"day\" : \"2015-10-01\", \"blank\" : \"\", \"odd name\" : \"x\" }\n" +
+            "{ \"name\" : \"doc2\", \"count\" : 6, \"price\" : 7.5, \"active\" : \"false\", " +
+                "\"day\" : \"2015-10-02\", \"blank\" : \"\", \"odd name\" : 1 }";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JettySolrRunner jetty;
+
+    private HttpSolrClient solrClient;
+
+    @After
+    public void teardown() throws Exception {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+        if (jetty != null) {
+            jetty.stop();
+        }
+    }
+
+    @Test
+    public void testInferNestedFieldNames() throws IOException {
+        final SchemaInferrer inferrer = new SchemaInferrer(new JSONDocumentMapper("/", null));
+        Assert.assertEquals(2, inferrer.sample(new StringReader(IndexJSONSchemalessTest.JSON_NESTING)));
+
+        final Map<String, String> fields = inferrer.getInferredFields();
+        Assert.assertEquals(Arrays.asList("field1", "field2.nested_field1", "field2.nested_field2"),
+                Arrays.asList(fields.keySet().toArray()));
+        for (String fieldType : fields.values()) {
+            Assert.assertEquals("strings", fieldType);
+        }
+    }
+
+    @Test
+    public void testInferFieldTypes() throws IOException {
+        final SchemaInferrer inferrer = new SchemaInferrer(new JSONDocumentMapper("/", null));
+        inferrer.sample(new StringReader(JSON_TYPED));
+
+        final Map<String, String> fields = inferrer.getInferredFields();
+        Assert.assertEquals("strings", fields.get("name"));
+        Assert.assertEquals("tlongs", fields.get("count"));
+        Assert.assertEquals("tdoubles", fields.get("price"));
+        Assert.assertEquals("booleans", fields.get("active"));
+        Assert.assertEquals("tdates", fields.get("day"));
+        Assert.assertEquals("strings", fields.get("odd_name"));
+        Assert.assertFalse(fields.containsKey("blank"));
+    }
+
+    @Test
+    public void testSampleLimit() throws IOException {
+        final SchemaInferrer inferrer = new SchemaInferrer(new JSONDocumentMapper("/field2", null));
+        inferrer.setMaxSampleDocs(3);
+
+        Assert.assertEquals(3, inferrer.sample(new StringReader(IndexJSONSchemalessTest.JSON_NESTING)));
+        Assert.assertEquals(0, inferrer.sample(new StringReader(IndexJSONSchemalessTest.JSON_NESTING)));
+        Assert.assertEquals(3, inferrer.getSampledDocs());
+    }
+
+    @Test
+    public void testRegisterBeforeIndexing() throws Exception {
+        startSolr();
+        final int numCoreFields = getSchema().getFieldInfo().size();
+
+        final JSONDocumentMapper mapper = new JSONDocumentMapper("/", null);
+        final SchemaInferrer inferrer = new SchemaInferrer(mapper);
+        inferrer.sample(new StringReader(JSON_TYPED));
+
+        final Map<String, String> added = inferrer.register(solrClient, null);
+        Assert.assertEquals(inferrer.getInferredFields(), added);
+        assertSchemaFields(inferrer.getInferredFields(), numCoreFields);
+
+        // registering again finds every field in the schema
+        Assert.assertTrue(inferrer.register(solrClient, null).isEmpty());
+
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        request.setSplit("/");
+        request.addBytes(JSON_TYPED.getBytes("UTF-8"));
+        Assert.assertEquals(0, request.process(solrClient).getStatus());
+        solrClient.commit();
+        Assert.assertEquals(2, solrClient.query(new SolrQuery("*:*")).getResults().getNumFound());
+
+        // indexing did not need to add any field
+        assertSchemaFields(inferrer.getInferredFields(), numCoreFields);
+    }
+
+    private void assertSchemaFields(Map<String, String> expectedFields, int numCoreFields)
+            throws IOException, SolrServerException {
+        final LukeResponse lukeResponse = getSchema();
+
+        for (Map.Entry<String, String> field : expectedFields.entrySet()) {
+            Assert.assertNotNull(field.getKey(), lukeResponse.getFieldInfo(field.getKey()));
+            Assert.assertEquals(field.getValue(), lukeResponse.getFieldInfo(field.getKey()).getType());
+        }
+        Assert.assertEquals(numCoreFields + expectedFields.size(), lukeResponse.getFieldInfo().size());
+    }
+
+    private LukeResponse getSchema() throws IOException, SolrServerException {
+        final LukeRequest lukeRequest = new LukeRequest();
+        lukeRequest.setShowSchema(true);
+        lukeRequest.setNumTerms(0);
+        return lukeRequest.process(solrClient);
+    }
+
+    private void startSolr() throws Exception {
+        FileUtils.deleteDirectory(new File(DATA_DIR));
+
+        JettyConfig jettyConfig = JettyConfig.builder()
+                .setContext("/solr")
+                .setPort(0)
+                .build();
+        jetty = new JettySolrRunner(new File(EmbeddedSolrServerFactory.DEFAULT_SOLR_HOME).getAbsolutePath(), jettyConfig);
+        jetty.start();
+
+        // the connector is not bound to a host name so getBaseUrl() can't be used
+        final String baseUrl = "http://127.0.0.1:" + jetty.getLocalPort() + "/solr";
+
+        // the schema is changed, so work on a copy of the core
+        final File instanceDir = tempFolder.newFolder(CORE_NAME);
+        FileUtils.copyDirectory(new File(EmbeddedSolrServerFactory.DEFAULT_CORE_HOME, CORE_NAME + "/conf"),
+                new File(instanceDir, "conf"));
+
+        HttpSolrClient adminClient = new HttpSolrClient(baseUrl);
+        try {
+            CoreAdminRequest.Create create = new CoreAdminRequest.Create();
+            create.setCoreName(CORE_NAME);
+            create.setInstanceDir(instanceDir.getAbsolutePath());
+            create.setDataDir(DATA_DIR);
+            create.process(adminClient);
+        } finally {
+            adminClient.close();
+        }
+
+        solrClient = new HttpSolrClient(baseUrl + "/" + CORE_NAME);
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.apache.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Tests for measuring requests with an UpdateListener and the Histogram behind UpdateMetrics.
+ */
+public class UpdateMetricsTest {
+
+    private SolrClient solrClient;
+
+    @Before
+    public void setup() throws IOException {
+        solrClient = EmbeddedSolrServerFactory.create("jsonCollection");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        if (solrClient != null) {
+            solrClient.close();
+        }
+    }
+
+    @Test
+    public void testMetricsOfSuccessfulRequest() throws IOException, SolrServerException {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        final UpdateMetrics metrics = new UpdateMetrics();
+
+        final JSONUpdateRequest request = createRequest(json);
+        request.setUpdateListener(metrics);
+        request.send(solrClient);
+
+        Assert.assertEquals(1, metrics.getRequests());
+        Assert.assertEquals(0, metrics.getFailures());
+        Assert.assertEquals(json.length, metrics.getBytesSent());
+        Assert.assertEquals(1, metrics.getTotalMicros().getCount());
+        Assert.assertEquals(1, metrics.getFirstByteMicros().getCount());
+        Assert.assertEquals(1, metrics.getQTimeMillis().getCount());
+        Assert.assertTrue(metrics.getFirstByteMicros().getMax() <= metrics.getTotalMicros().getMax());
+    }
+
+    @Test
+    public void testMetricsOfRetriedAttempts() throws IOException, SolrServerException {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        final UpdateMetrics metrics = new UpdateMetrics();
+        final JSONUpdateRequestRetryTest.FailingSolrClient failingClient =
+                new JSONUpdateRequestRetryTest.FailingSolrClient(solrClient, 2, 20);
+
+        final JSONUpdateRequest request = new JSONUpdateRequest(new ByteArrayInputStream(json));
+        addMappings(request);
+        request.setRetryPolicy(new RetryPolicy(3, 1, 10, 0.5));
+        request.setUpdateListener(metrics);
+        request.send(failingClient);
+
+        Assert.assertEquals(1, metrics.getRequests());
+        Assert.assertEquals(2, metrics.getFailures());
+        Assert.assertEquals(2 * 20 + json.length, metrics.getBytesSent());
+        Assert.assertEquals(2, metrics.getFailureMicros().getCount());
+    }
+
+    @Test
+    public void testMetricsOfCompressedRequest() throws IOException, SolrServerException {
+        final byte[] json = IndexJSONTest.EXAMPLE_JSON.getBytes("UTF-8");
+        final UpdateMetrics metrics = new UpdateMetrics();
+        final CompressionStats compressionStats = new CompressionStats();
+
+        final JSONUpdateRequest request = createRequest(json);
+        request.setCompressed(true);
+        request.setCompressionStats(compressionStats);
+        request.setUpdateListener(metrics);
+
+        // reads the whole compressed body and then fails, the embedded server cannot decompress it
+        try {
+            request.send(new JSONUpdateRequestRetryTest.FailingSolrClient(solrClient, 1, Integer.MAX_VALUE));
+            Assert.fail("Should have failed after reading the body");
+        } catch (IOException e) {
+            Assert.assertEquals(1, metrics.getFailures());
+        }
+        Assert.assertTrue(compressionStats.getCompressedBytes() > 0);
+        Assert.assertEquals(compressionStats.getCompressedBytes(), metrics.getBytesSent());
+    }
+
+    @Test
+    public void testHistogram() {
+        final Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getValueAtQuantile(0.5));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500, histogram.getSum());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(1, histogram.getValueAtQuantile(0.0));
+        Assert.assertEquals(1000, histogram.getValueAtQuantile(1.0));
+
+        assertWithinBucket(500, histogram.getValueAtQuantile(0.5));
+        assertWithinBucket(990, histogram.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Assert.assertEquals(0, Histogram.bucketOf(0));
+        Assert.assertEquals(15, Histogram.bucketOf(15));
+        Assert.assertEquals(Histogram.NUM_BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final int bucket = Histogram.bucketOf(value);
+            Assert.assertTrue(value <= Histogram.upperBoundOf(bucket));
+            Assert.assertTrue(value > Histogram.upperBoundOf(bucket - 1) || bucket == 0);
+        }
+    }
+
+    private void assertWithinBucket(long expected, long actual) {
+        Assert.assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.125);
+    }
+
+    private JSONUpdateRequest createRequest(byte[] json) {
+        final JSONUpdateRequest request = new JSONUpdateRequest();
+        addMappings(request);
+        request.addBytes(json);
+        return request;
+    }
+
+    private void addMappings(JSONUpdateRequest request) {
+        request.setSplit("/exams");
+        request.addFieldMapping("first", "/first");
+        request.addFieldMapping("last", "/last");
+        request.addFieldMapping("grade", "/grade");
+        request.addFieldMapping("subject", "/exams/subject");
+        request.addFieldMapping("test", "/exams/test");
+        request.addFieldMapping("marks", "/exams/marks");
+    }
+
+}